@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.synchronoss.cloud.nio.multipart.io.buffer.CircularBuffer;
+import org.synchronoss.cloud.nio.multipart.io.buffer.DirectCircularBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Micro benchmark of the circular buffers. Each operation fills the buffer and drains it to a {@code ByteStore}.
+ *
+ * @author Silvano Riz.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CircularBufferBenchmark {
+
+    @Param({"16384"})
+    int bufferSize;
+
+    byte[] data;
+    ByteBuffer directData;
+    CircularBuffer circularBuffer;
+    DirectCircularBuffer directCircularBuffer;
+    MultipartBodies.CountingByteStore byteStore;
+
+    @Setup
+    public void setup() {
+        data = new byte[bufferSize];
+        new Random(42).nextBytes(data);
+        directData = ByteBuffer.allocateDirect(bufferSize);
+        directData.put(data).flip();
+        circularBuffer = new CircularBuffer(bufferSize);
+        directCircularBuffer = new DirectCircularBuffer(bufferSize);
+        byteStore = new MultipartBodies.CountingByteStore();
+    }
+
+    @Benchmark
+    public void circularBuffer(final Blackhole blackhole) throws IOException {
+        for (byte b : data) {
+            circularBuffer.write(b);
+        }
+        circularBuffer.readAll(byteStore);
+        blackhole.consume(byteStore.getCount());
+    }
+
+    @Benchmark
+    public void directCircularBuffer_byteByByte(final Blackhole blackhole) throws IOException {
+        for (byte b : data) {
+            directCircularBuffer.write(b);
+        }
+        directCircularBuffer.readAll(byteStore);
+        blackhole.consume(byteStore.getCount());
+    }
+
+    @Benchmark
+    public void directCircularBuffer_bulk(final Blackhole blackhole) throws IOException {
+        directData.rewind();
+        directCircularBuffer.put(directData);
+        directCircularBuffer.readAll(byteStore);
+        blackhole.consume(byteStore.getCount());
+    }
+
+}
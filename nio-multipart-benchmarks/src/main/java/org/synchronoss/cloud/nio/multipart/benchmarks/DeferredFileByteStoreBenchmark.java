@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.synchronoss.cloud.nio.multipart.io.DeferredFileByteStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Benchmark of the {@code DeferredFileByteStore}. Each operation writes {@code dataSize} bytes in chunks of {@code chunkSize} bytes and then
+ *     dismisses the store. Depending on the threshold the data stays in memory or it is switched to a temporary file.
+ *
+ * @author Silvano Riz.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeferredFileByteStoreBenchmark {
+
+    @Param({"65536", "1048576"})
+    int dataSize;
+
+    @Param({"0", "10240", "2097152"})
+    int threshold;
+
+    @Param({"8192"})
+    int chunkSize;
+
+    byte[] chunk;
+    File tempFolder;
+    int fileIndex = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        chunk = new byte[chunkSize];
+        new Random(42).nextBytes(chunk);
+        tempFolder = new File(System.getProperty("java.io.tmpdir"), "nio-multipart-benchmarks");
+        if (!tempFolder.exists() && !tempFolder.mkdirs()) {
+            throw new IOException("Unable to create the temporary folder: " + tempFolder.getAbsolutePath());
+        }
+    }
+
+    @Benchmark
+    public boolean writeAndDismiss() throws IOException {
+        final DeferredFileByteStore byteStore = new DeferredFileByteStore(new File(tempFolder, "benchmark-" + (fileIndex++) + ".tmp"), threshold);
+        try {
+            int written = 0;
+            while (written < dataSize) {
+                final int length = Math.min(chunkSize, dataSize - written);
+                byteStore.write(chunk, 0, length);
+                written += length;
+            }
+            byteStore.flush();
+            return byteStore.isInMemory();
+        } finally {
+            byteStore.close();
+            byteStore.dismiss();
+        }
+    }
+
+}
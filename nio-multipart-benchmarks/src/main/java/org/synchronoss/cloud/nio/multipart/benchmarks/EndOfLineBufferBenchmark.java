@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.synchronoss.cloud.nio.multipart.io.buffer.EndOfLineBuffer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Micro benchmark of the {@code EndOfLineBuffer}. Writes a block of data followed by the end of line sequence, both in bulk
+ *     and byte by byte. Throughput is reported in operations per second, each operation writing {@code dataSize} bytes.
+ *
+ * @author Silvano Riz.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EndOfLineBufferBenchmark {
+
+    @Param({"16384", "1048576"})
+    int dataSize;
+
+    @Param({"4", "40", "74"})
+    int endOfLineSequenceLength;
+
+    @Param({"16384"})
+    int bufferSize;
+
+    byte[] data;
+    byte[] endOfLineSequence;
+    EndOfLineBuffer endOfLineBuffer;
+    MultipartBodies.CountingByteStore byteStore;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        endOfLineSequence = new byte[endOfLineSequenceLength];
+        endOfLineSequence[0] = '\r';
+        endOfLineSequence[1] = '\n';
+        for (int i = 2; i < endOfLineSequenceLength; i++) {
+            endOfLineSequence[i] = (byte) ('A' + random.nextInt(26));
+        }
+        data = new byte[dataSize];
+        random.nextBytes(data);
+        System.arraycopy(endOfLineSequence, 0, data, dataSize - endOfLineSequenceLength, endOfLineSequenceLength);
+        byteStore = new MultipartBodies.CountingByteStore();
+        endOfLineBuffer = new EndOfLineBuffer(bufferSize, endOfLineSequence, byteStore);
+    }
+
+    @Benchmark
+    public void bulkWrite(final Blackhole blackhole) {
+        endOfLineBuffer.recycle(endOfLineSequence, byteStore);
+        blackhole.consume(endOfLineBuffer.write(data, 0, data.length));
+        blackhole.consume(endOfLineBuffer.isEndOfLine());
+    }
+
+    @Benchmark
+    public void byteByByteWrite(final Blackhole blackhole) {
+        endOfLineBuffer.recycle(endOfLineSequence, byteStore);
+        boolean endOfLine = false;
+        for (int i = 0; i < data.length && !endOfLine; i++) {
+            endOfLine = endOfLineBuffer.write(data[i]);
+        }
+        blackhole.consume(endOfLine);
+    }
+
+}
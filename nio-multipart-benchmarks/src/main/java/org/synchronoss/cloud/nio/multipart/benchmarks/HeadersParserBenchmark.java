@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.synchronoss.cloud.nio.multipart.MultipartUtils;
+import org.synchronoss.cloud.nio.multipart.PartHeaders;
+import org.synchronoss.cloud.nio.multipart.util.HeadersParser;
+import org.synchronoss.cloud.nio.multipart.util.ParameterParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Micro benchmark of the part headers parsing: the {@code HeadersParser}, the {@code ParameterParser} and the extraction of the
+ *     information needed for each part via {@code MultipartUtils} (on a plain map and on {@code PartHeaders}).
+ *
+ * @author Silvano Riz.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeadersParserBenchmark {
+
+    static final String CONTENT_DISPOSITION = "form-data; name=\"field\"; filename=\"file.txt\"";
+
+    byte[] headersSection;
+    Map<String, List<String>> headers;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException {
+        headersSection = ("Content-Disposition: " + CONTENT_DISPOSITION + "\r\n" +
+                "Content-Type: text/plain; charset=UTF-8\r\n" +
+                "Content-Transfer-Encoding: 8bit\r\n" +
+                "\r\n").getBytes("US-ASCII");
+        headers = HeadersParser.parseHeaders(headersSection, 0, headersSection.length, "UTF-8");
+    }
+
+    @Benchmark
+    public Map<String, List<String>> headersParser_inputStream() {
+        return HeadersParser.parseHeaders(new ByteArrayInputStream(headersSection), "UTF-8");
+    }
+
+    @Benchmark
+    public Map<String, List<String>> headersParser_bytes() {
+        return HeadersParser.parseHeaders(headersSection, 0, headersSection.length, "UTF-8");
+    }
+
+    @Benchmark
+    public Map<String, String> parameterParser() {
+        final ParameterParser parser = new ParameterParser();
+        parser.setLowerCaseNames(true);
+        return parser.parse(CONTENT_DISPOSITION, ';');
+    }
+
+    @Benchmark
+    public void partInfo_map(final Blackhole blackhole) {
+        // What the parser does for each part
+        blackhole.consume(MultipartUtils.isFormField(headers));
+        blackhole.consume(MultipartUtils.getFieldName(headers));
+        blackhole.consume(MultipartUtils.getCharEncoding(headers));
+    }
+
+    @Benchmark
+    public void partInfo_partHeaders(final Blackhole blackhole) {
+        final PartHeaders partHeaders = new PartHeaders(headers);
+        blackhole.consume(MultipartUtils.isFormField(partHeaders));
+        blackhole.consume(MultipartUtils.getFieldName(partHeaders));
+        blackhole.consume(MultipartUtils.getCharEncoding(partHeaders));
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart.benchmarks;
+
+import org.synchronoss.cloud.nio.multipart.MultipartContext;
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * <p> Utilities to generate the multipart bodies and the chunking used by the benchmarks.
+ *
+ * @author Silvano Riz.
+ */
+public class MultipartBodies {
+
+    public static final String BOUNDARY = "MUEYT2qJT0_ZzYUvVQLy_DlrLeADyxzmsA";
+    public static final String CONTENT_TYPE = "multipart/form-data;boundary=" + BOUNDARY;
+
+    private MultipartBodies(){}
+
+    /**
+     * <p> Generates a multipart/form-data body with the given number of file parts, each of them with a random body.
+     *
+     * @param partCount The number of parts
+     * @param partSize The size of each part body
+     * @return The multipart body
+     */
+    public static byte[] multipartBody(final int partCount, final int partSize) {
+        final Random random = new Random(42);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(partCount * (partSize + 256));
+        try {
+            for (int i = 0; i < partCount; i++) {
+                baos.write(("--" + BOUNDARY + "\r\n" +
+                        "Content-Disposition: form-data; name=\"file" + i + "\"; filename=\"file" + i + ".bin\"\r\n" +
+                        "Content-Type: application/octet-stream\r\n" +
+                        "\r\n").getBytes("US-ASCII"));
+                final byte[] partBody = new byte[partSize];
+                random.nextBytes(partBody);
+                baos.write(partBody);
+                baos.write("\r\n".getBytes("US-ASCII"));
+            }
+            baos.write(("--" + BOUNDARY + "--\r\n").getBytes("US-ASCII"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to generate the multipart body", e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * <p> Splits a body in chunks with a random size between {@code minChunkSize} and {@code minChunkSize + maxChunkSize}, like the
+     *     {@code ChunksFileReader} used by the functional tests. The random generator is seeded, so the chunking is the same at each run.
+     *
+     * @param bodyLength The length of the body
+     * @param minChunkSize The minimum chunk size
+     * @param maxChunkSize The maximum chunk size (added to the minimum)
+     * @return The end index of each chunk
+     */
+    public static int[] chunkEnds(final int bodyLength, final int minChunkSize, final int maxChunkSize) {
+        final Random random = new Random(7);
+        int[] ends = new int[16];
+        int count = 0;
+        int end = 0;
+        while (end < bodyLength) {
+            end = Math.min(bodyLength, end + minChunkSize + random.nextInt(maxChunkSize + 1));
+            if (count == ends.length) {
+                final int[] newEnds = new int[ends.length * 2];
+                System.arraycopy(ends, 0, newEnds, 0, count);
+                ends = newEnds;
+            }
+            ends[count++] = end;
+        }
+        final int[] result = new int[count];
+        System.arraycopy(ends, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * <p> Creates a {@code MultipartContext} for the bodies generated by {@link #multipartBody(int, int)}.
+     *
+     * @param contentLength The content length
+     * @return The {@code MultipartContext}
+     */
+    public static MultipartContext multipartContext(final int contentLength) {
+        return new MultipartContext(CONTENT_TYPE, contentLength, "UTF-8");
+    }
+
+    /**
+     * <p> A {@code ByteStore} that just counts the bytes written. Used to measure the parser without the cost of storing the data.
+     */
+    public static class CountingByteStore extends ByteStore {
+
+        long count = 0;
+
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(final ByteBuffer src) {
+            count += src.remaining();
+            src.position(src.limit());
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return null;
+        }
+
+        @Override
+        public boolean dismiss() {
+            return true;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart.benchmarks;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUpload;
+import org.apache.commons.fileupload.RequestContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.synchronoss.cloud.nio.multipart.AbstractNioMultipartListener;
+import org.synchronoss.cloud.nio.multipart.MultipartContext;
+import org.synchronoss.cloud.nio.multipart.NioMultipartParser;
+import org.synchronoss.cloud.nio.multipart.PartBodyByteStoreFactory;
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+import org.synchronoss.cloud.nio.multipart.util.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Throughput of the {@code NioMultipartParser} across part sizes, part counts and chunk sizes, compared with the commons-fileupload streaming API.
+ *     The data is fed to the NIO parser in chunks of random size (see {@link MultipartBodies#chunkEnds(int, int, int)}) to simulate the servlet 3.1
+ *     {@code onDataAvailable} callbacks. The part bodies are not stored, so the numbers measure the parsing only.
+ *
+ * @author Silvano Riz.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NioMultipartParserBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    int partSize;
+
+    @Param({"1", "10"})
+    int partCount;
+
+    @Param({"1024", "8192", "65536"})
+    int chunkSize;
+
+    byte[] body;
+    int[] chunkEnds;
+    MultipartContext context;
+    MultipartBodies.CountingByteStore byteStore;
+    PartBodyByteStoreFactory byteStoreFactory;
+    FileUpload fileUpload;
+    byte[] readBuffer;
+
+    @Setup
+    public void setup() {
+        body = MultipartBodies.multipartBody(partCount, partSize);
+        chunkEnds = MultipartBodies.chunkEnds(body.length, chunkSize / 2, chunkSize / 2);
+        context = MultipartBodies.multipartContext(body.length);
+        byteStore = new MultipartBodies.CountingByteStore();
+        byteStoreFactory = new PartBodyByteStoreFactory() {
+            @Override
+            public ByteStore newByteStoreForPartBody(Map<String, List<String>> headers, int partIndex) {
+                return byteStore;
+            }
+        };
+        fileUpload = new FileUpload();
+        readBuffer = new byte[chunkSize];
+    }
+
+    @Benchmark
+    public void nioMultipartParser(final Blackhole blackhole) throws IOException {
+        final int[] parts = new int[1];
+        final NioMultipartParser parser = new NioMultipartParser(context, new AbstractNioMultipartListener() {
+            @Override
+            public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+                parts[0]++;
+            }
+        }, byteStoreFactory);
+
+        int start = 0;
+        for (int end : chunkEnds) {
+            parser.write(body, start, end);
+            start = end;
+        }
+        parser.close();
+        blackhole.consume(parts[0]);
+        blackhole.consume(byteStore.getCount());
+    }
+
+    @Benchmark
+    public void commonsFileUpload(final Blackhole blackhole) throws Exception {
+        final FileItemIterator iterator = fileUpload.getItemIterator(new ByteArrayRequestContext(body));
+        int parts = 0;
+        long count = 0;
+        while (iterator.hasNext()) {
+            final FileItemStream item = iterator.next();
+            final InputStream inputStream = item.openStream();
+            try {
+                int read;
+                while ((read = inputStream.read(readBuffer)) != -1) {
+                    count += read;
+                }
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+            parts++;
+        }
+        blackhole.consume(parts);
+        blackhole.consume(count);
+    }
+
+    static class ByteArrayRequestContext implements RequestContext {
+
+        final byte[] body;
+
+        ByteArrayRequestContext(final byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            return "UTF-8";
+        }
+
+        @Override
+        public String getContentType() {
+            return MultipartBodies.CONTENT_TYPE;
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ByteArrayInputStream(body);
+        }
+    }
+
+}
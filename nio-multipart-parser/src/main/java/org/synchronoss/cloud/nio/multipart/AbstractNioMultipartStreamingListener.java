@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p> {@code NioMultipartParserStreamingListener} providing empty implementation of all the callbacks.
+ *
+ * @author Silvano Riz
+ */
+public class AbstractNioMultipartStreamingListener extends AbstractNioMultipartListener implements NioMultipartParserStreamingListener {
+
+    @Override
+    public void onPartStarted(Map<String, List<String>> headersFromPart) {
+        // Empty implementation
+    }
+
+    @Override
+    public void onPartData(ByteBuffer partBodyChunk) {
+        // Empty implementation
+    }
+
+    @Override
+    public void onPartEnd(Map<String, List<String>> headersFromPart) {
+        // Empty implementation
+    }
+}
@@ -23,10 +23,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
 
 import static org.synchronoss.cloud.nio.multipart.NioMultipartParser.DEFAULT_BUFFER_SIZE;
 import static org.synchronoss.cloud.nio.multipart.NioMultipartParser.DEFAULT_HEADERS_SECTION_SIZE;
@@ -43,6 +48,11 @@ public class BlockingIOAdapter {
 
     private static final Logger log = LoggerFactory.getLogger(BlockingIOAdapter.class);
 
+    /**
+     * Default size of the chunks read from the {@code InputStream}.
+     */
+    public static final int DEFAULT_READ_SIZE = 16384;// 16kb
+
     /**
      * <p>
      *     Parses the multipart stream and it returns the parts in form of {@code CloseableIterator}.
@@ -116,9 +126,17 @@ public class BlockingIOAdapter {
                 return null;
             }
         };
-        private Queue<PartItem> partItems = new ConcurrentLinkedQueue<>();
-        private final NioMultipartParser parser;
+        private final Queue<PartItem> partItems;
+        final NioMultipartParser parser;
         private final InputStream inputStream;
+        private final byte[] readBuffer;
+
+        // Read ahead mode. The reader task parses the stream on a thread of the executor, the consumer takes the parts from the bounded queue.
+        private final Executor readAheadExecutor;
+        private boolean readAheadStarted = false;
+        private volatile boolean closed = false;
+        private volatile boolean allPartsFinished = false;
+        private Thread reader;
 
         public PartItemsIterator(final InputStream inputStream,
                                  final MultipartContext multipartContext,
@@ -126,33 +144,60 @@ public class BlockingIOAdapter {
                                  final int bufferSize,
                                  final int maxHeadersSectionSize,
                                  final int maxLevelOfNestedMultipart) {
+            this(inputStream, multipartContext, partBodyByteStoreFactory, bufferSize, maxHeadersSectionSize, maxLevelOfNestedMultipart, DEFAULT_READ_SIZE, null, 0);
+        }
+
+        public PartItemsIterator(final InputStream inputStream,
+                                 final MultipartContext multipartContext,
+                                 final PartBodyByteStoreFactory partBodyByteStoreFactory,
+                                 final int bufferSize,
+                                 final int maxHeadersSectionSize,
+                                 final int maxLevelOfNestedMultipart,
+                                 final int readSize,
+                                 final Executor readAheadExecutor,
+                                 final int maxReadAheadParts) {
+
+            if (readSize <= 0){
+                throw new IllegalArgumentException("Read size must be greater than zero");
+            }
+            if (readAheadExecutor != null && maxReadAheadParts <= 0){
+                throw new IllegalArgumentException("The number of parts parsed ahead must be greater than zero");
+            }
 
             this.inputStream = inputStream;
+            this.readBuffer = new byte[readSize];
+            this.readAheadExecutor = readAheadExecutor;
+            if (readAheadExecutor != null) {
+                this.partItems = new ArrayBlockingQueue<PartItem>(maxReadAheadParts);
+            } else {
+                this.partItems = new ArrayDeque<PartItem>();
+            }
 
             final NioMultipartParserListener listener = new NioMultipartParserListener() {
                 @Override
                 public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
-                    partItems.add(new Attachment(headersFromPart, partBodyByteStore));
+                    add(new Attachment(headersFromPart, partBodyByteStore));
                 }
 
                 @Override
                 public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
-                    partItems.add(new FormParameter(headersFromPart, fieldName, fieldValue));
+                    add(new FormParameter(headersFromPart, fieldName, fieldValue));
                 }
 
                 @Override
                 public void onAllPartsFinished() {
-                    partItems.add(END_OF_DATA);
+                    allPartsFinished = true;
+                    add(END_OF_DATA);
                 }
 
                 @Override
                 public void onNestedPartStarted(Map<String, List<String>> headersFromParentPart) {
-                    partItems.add(new NestedStart(headersFromParentPart));
+                    add(new NestedStart(headersFromParentPart));
                 }
 
                 @Override
                 public void onNestedPartFinished() {
-                    partItems.add(new NestedEnd());
+                    add(new NestedEnd());
                 }
 
                 @Override
@@ -164,9 +209,46 @@ public class BlockingIOAdapter {
             this.parser = new NioMultipartParser(multipartContext, listener, partBodyByteStoreFactory, bufferSize, maxHeadersSectionSize, maxLevelOfNestedMultipart);
         }
 
+        void add(final PartItem partItem) {
+            if (readAheadExecutor == null) {
+                partItems.add(partItem);
+            } else {
+                try {
+                    // Blocks the reader when the consumer is too far behind
+                    ((BlockingQueue<PartItem>) partItems).put(partItem);
+                } catch (InterruptedException e) {
+                    dismiss(partItem);
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the parts to be consumed", e);
+                }
+                if (closed) {
+                    // Put after the close drained the queue, nobody is going to consume it
+                    dismissPartItems();
+                }
+            }
+        }
+
+        /*
+         * Dismisses the parts parsed ahead and not consumed, so the part bodies stored on disk are deleted.
+         */
+        void dismissPartItems() {
+            PartItem partItem;
+            while (null != (partItem = partItems.poll())) {
+                dismiss(partItem);
+            }
+        }
+
+        static void dismiss(final PartItem partItem) {
+            if (partItem instanceof Attachment) {
+                ((Attachment) partItem).partBodyByteStore.dismiss();
+            }
+        }
+
         @Override
         protected PartItem computeNext() {
-            byte[] buffer = new byte[1024];
+            if (readAheadExecutor != null) {
+                return computeNextReadAhead();
+            }
             int read;
             try {
 
@@ -179,8 +261,8 @@ public class BlockingIOAdapter {
                     return next;
                 }
 
-                while (null == (next = partItems.poll()) && -1 != (read = inputStream.read(buffer))) {
-                    parser.write(buffer, 0, read);
+                while (null == (next = partItems.poll()) && -1 != (read = inputStream.read(readBuffer))) {
+                    parser.write(readBuffer, 0, read);
                 }
 
                 if (next != null && next.getType() == null){
@@ -197,9 +279,348 @@ public class BlockingIOAdapter {
             }
         }
 
+        PartItem computeNextReadAhead() {
+            if (!readAheadStarted) {
+                readAheadStarted = true;
+                readAheadExecutor.execute(new Reader());
+            }
+            final PartItem next;
+            try {
+                next = ((BlockingQueue<PartItem>) partItems).take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the next part", e);
+            }
+            if (next instanceof ReadAheadError) {
+                throw new IllegalStateException("Error parsing the multipart stream", ((ReadAheadError) next).cause);
+            }
+            if (next.getType() == null) {
+                return endOfData();
+            }
+            return next;
+        }
+
         @Override
         public void close() throws IOException {
+            if (readAheadStarted) {
+                // The parser is owned by the reader, which closes it when it stops.
+                closed = true;
+                synchronized (this) {
+                    if (reader != null) {
+                        reader.interrupt();
+                    }
+                }
+                dismissPartItems();
+            } else {
                 parser.close();
+            }
+        }
+
+        /*
+         * Parses the stream ahead of the consumer. It stops when all the parts have been read, when the stream ends,
+         * on errors or when the iterator is closed.
+         */
+        private class Reader implements Runnable {
+
+            @Override
+            public void run() {
+                synchronized (PartItemsIterator.this) {
+                    reader = Thread.currentThread();
+                }
+                try {
+                    int read;
+                    while (!closed && !allPartsFinished && -1 != (read = inputStream.read(readBuffer))) {
+                        parser.write(readBuffer, 0, read);
+                    }
+                    if (!closed && !allPartsFinished) {
+                        throw new IllegalStateException("Error parsing the multipart stream. Stream ended unexpectedly");
+                    }
+                } catch (Exception e) {
+                    if (!closed) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Error parsing the multipart stream ahead of the consumer", e);
+                        }
+                        try {
+                            // After the parts already parsed
+                            ((BlockingQueue<PartItem>) partItems).put(new ReadAheadError(e));
+                        } catch (InterruptedException ie) {
+                            // Closed in the meantime
+                        }
+                    }
+                } finally {
+                    synchronized (PartItemsIterator.this) {
+                        reader = null;
+                        // Do not leak the interrupt to the next task of the executor
+                        Thread.interrupted();
+                    }
+                    try {
+                        parser.close();
+                    } catch (Exception e) {
+                        // Nothing to do
+                    }
+                }
+            }
+        }
+    }
+
+    static class StreamingPartItemsIterator extends AbstractIterator<PartItem> implements CloseableIterator<PartItem> {
+
+        private static final PartItem END_OF_DATA = new PartItem() {
+            @Override
+            public Type getType() {
+                return null;
+            }
+        };
+        private final Queue<PartItem> partItems = new ArrayDeque<PartItem>();
+        final NioMultipartParser parser;
+        private final InputStream inputStream;
+        private final ByteBuffer readBuffer;
+
+        // The attachment being streamed and where to copy its data. The data not fitting the target is kept in the overflow.
+        private StreamingAttachment currentAttachment;
+        private byte[] target;
+        private int targetOffset;
+        private int targetLength;
+        private int delivered;
+        private byte[] overflow = new byte[0];
+        private int overflowStart;
+        private int overflowEnd;
+
+        public StreamingPartItemsIterator(final InputStream inputStream,
+                                          final MultipartContext multipartContext,
+                                          final PartBodyByteStoreFactory partBodyByteStoreFactory,
+                                          final int bufferSize,
+                                          final int maxHeadersSectionSize,
+                                          final int maxLevelOfNestedMultipart,
+                                          final int readSize) {
+
+            if (readSize <= 0){
+                throw new IllegalArgumentException("Read size must be greater than zero");
+            }
+
+            this.inputStream = inputStream;
+            this.readBuffer = ByteBuffer.allocate(readSize);
+            this.readBuffer.limit(0);
+
+            // Every event suspends the parser, so the consumer sees it before the parser moves forward.
+            final NioMultipartParserStreamingListener listener = new NioMultipartParserStreamingListener() {
+                @Override
+                public void onPartStarted(Map<String, List<String>> headersFromPart) {
+                    currentAttachment = new StreamingAttachment(headersFromPart);
+                    add(currentAttachment);
+                }
+
+                @Override
+                public void onPartData(ByteBuffer partBodyChunk) {
+                    deliver(partBodyChunk);
+                    parser.suspend();
+                }
+
+                @Override
+                public void onPartEnd(Map<String, List<String>> headersFromPart) {
+                    currentAttachment.ended = true;
+                    parser.suspend();
+                }
+
+                @Override
+                public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+                    // Never called, the part bodies are streamed
+                    add(new Attachment(headersFromPart, partBodyByteStore));
+                }
+
+                @Override
+                public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                    add(new FormParameter(headersFromPart, fieldName, fieldValue));
+                }
+
+                @Override
+                public void onAllPartsFinished() {
+                    add(END_OF_DATA);
+                }
+
+                @Override
+                public void onNestedPartStarted(Map<String, List<String>> headersFromParentPart) {
+                    add(new NestedStart(headersFromParentPart));
+                }
+
+                @Override
+                public void onNestedPartFinished() {
+                    add(new NestedEnd());
+                }
+
+                @Override
+                public void onError(String message, Throwable cause) {
+                    throw new IllegalStateException("Error parsing the multipart stream: " + message, cause);
+                }
+            };
+
+            this.parser = new NioMultipartParser(multipartContext, listener, partBodyByteStoreFactory, bufferSize, maxHeadersSectionSize, maxLevelOfNestedMultipart);
+        }
+
+        void add(final PartItem partItem) {
+            partItems.add(partItem);
+            parser.suspend();
+        }
+
+        @Override
+        protected PartItem computeNext() {
+            try {
+                if (currentAttachment != null) {
+                    // Moving to the next part. Whatever is left of the current body is skipped.
+                    currentAttachment.skipped = true;
+                    while (!currentAttachment.ended) {
+                        pump();
+                    }
+                    overflowStart = overflowEnd = 0;
+                    currentAttachment = null;
+                }
+
+                PartItem next;
+                while (null == (next = partItems.poll())) {
+                    pump();
+                }
+                if (next.getType() == null) {
+                    return endOfData();
+                }
+                return next;
+
+            }catch (Exception e){
+                throw new IllegalStateException("Error parsing the multipart stream", e);
+            }
+        }
+
+        /*
+         * Lets the parser move forward to the next event, reading more data from the InputStream if needed.
+         */
+        void pump() throws IOException {
+            if (parser.isSuspended()) {
+                parser.resume();
+                return;
+            }
+            if (!readBuffer.hasRemaining()) {
+                final int read = inputStream.read(readBuffer.array());
+                if (read == -1) {
+                    throw new IllegalStateException("Error parsing the multipart stream. Stream ended unexpectedly");
+                }
+                readBuffer.clear();
+                readBuffer.limit(read);
+            }
+            parser.write(readBuffer);
+        }
+
+        void deliver(final ByteBuffer partBodyChunk) {
+            if (target != null) {
+                final int length = Math.min(partBodyChunk.remaining(), targetLength - delivered);
+                partBodyChunk.get(target, targetOffset + delivered, length);
+                delivered += length;
+            }
+            final int remaining = partBodyChunk.remaining();
+            if (remaining > 0 && !currentAttachment.skipped && !currentAttachment.closed) {
+                if (overflow.length - overflowEnd < remaining) {
+                    overflow = Arrays.copyOf(overflow, overflowEnd + remaining);
+                }
+                partBodyChunk.get(overflow, overflowEnd, remaining);
+                overflowEnd += remaining;
+            }
+        }
+
+        int read(final StreamingAttachment attachment, final byte[] b, final int off, final int len) throws IOException {
+            if (attachment.skipped) {
+                throw new IOException("The part body has been skipped, the iterator moved to the next part.");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (overflowEnd > overflowStart) {
+                final int length = Math.min(len, overflowEnd - overflowStart);
+                System.arraycopy(overflow, overflowStart, b, off, length);
+                overflowStart += length;
+                if (overflowStart == overflowEnd) {
+                    overflowStart = overflowEnd = 0;
+                }
+                return length;
+            }
+            target = b;
+            targetOffset = off;
+            targetLength = len;
+            delivered = 0;
+            try {
+                while (delivered == 0 && !attachment.ended) {
+                    pump();
+                }
+                return delivered > 0 ? delivered : -1;
+            } catch (IllegalStateException e) {
+                throw new IOException("Error parsing the multipart stream", e);
+            } finally {
+                target = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+
+        /*
+         * An Attachment whose body is read straight from the multipart stream.
+         */
+        private class StreamingAttachment extends Attachment {
+
+            boolean ended = false;
+            boolean skipped = false;
+            boolean closed = false;
+            private InputStream partBody;
+            // Reused by the single byte reads of the part body
+            private final byte[] singleByte = new byte[1];
+
+            StreamingAttachment(final Map<String, List<String>> headers) {
+                super(headers, null);
+            }
+
+            @Override
+            public InputStream getPartBody() {
+                if (partBody == null) {
+                    partBody = new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            final int read = read(singleByte, 0, 1);
+                            return read == -1 ? -1 : singleByte[0] & 0xFF;
+                        }
+
+                        @Override
+                        public int read(final byte[] b, final int off, final int len) throws IOException {
+                            if (closed) {
+                                throw new IOException("The part body InputStream is closed.");
+                            }
+                            return StreamingPartItemsIterator.this.read(StreamingAttachment.this, b, off, len);
+                        }
+
+                        @Override
+                        public void close() {
+                            // The rest of the body is skipped when the iterator moves to the next part
+                            closed = true;
+                        }
+                    };
+                }
+                return partBody;
+            }
+        }
+    }
+
+    /*
+     * Queued by the reader, in read ahead mode, to hand over an error to the consumer.
+     */
+    private static class ReadAheadError implements PartItem {
+
+        final Exception cause;
+
+        ReadAheadError(final Exception cause) {
+            this.cause = cause;
+        }
+
+        @Override
+        public Type getType() {
+            return null;
         }
     }
 
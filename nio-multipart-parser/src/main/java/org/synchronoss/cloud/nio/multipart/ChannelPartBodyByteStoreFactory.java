@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart;
+
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+import org.synchronoss.cloud.nio.multipart.io.ChannelByteStore;
+import org.synchronoss.cloud.nio.multipart.io.MemoryBudget;
+import org.synchronoss.cloud.nio.multipart.io.SegmentPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p> {@code PartBodyByteStoreFactory} creating {@link ChannelByteStore}s instead of
+ *     {@link org.synchronoss.cloud.nio.multipart.io.DeferredFileByteStore}s. Temporary folder, memory threshold, {@link SegmentPool}
+ *     and {@link MemoryBudget} are handled as in the {@link DefaultPartBodyByteStoreFactory}.
+ * <p> The factory is resumable: when a {@link NioMultipartParser.Checkpoint} is taken in the middle of a part body, the data is moved to the
+ *     temporary file and the checkpoint records the file path and its size. The file must be reachable when the parsing is resumed.
+ *     The parser does not delete the file when it's closed or dismissed afterwards, see {@link NioMultipartParser#close()}.
+ *
+ * @author Silvano Riz.
+ */
+public class ChannelPartBodyByteStoreFactory extends DefaultPartBodyByteStoreFactory implements ResumablePartBodyByteStoreFactory {
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tempFolderPath The path where to store the temporary files
+     * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
+     * @param metrics The {@code MultipartMetrics} passed to the {@code ByteStore}s. If null no metrics are collected.
+     */
+    public ChannelPartBodyByteStoreFactory(final String tempFolderPath, final int maxSizeThreshold, final MultipartMetrics metrics) {
+        this(tempFolderPath, maxSizeThreshold, metrics, null, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tempFolderPath The path where to store the temporary files
+     * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
+     * @param metrics The {@code MultipartMetrics} passed to the {@code ByteStore}s. If null no metrics are collected.
+     * @param segmentPool The {@code SegmentPool} providing the memory to the {@code ByteStore}s. If null the {@link SegmentPool#getSharedPool()} is used.
+     * @param memoryBudget The {@code MemoryBudget} shared by the {@code ByteStore}s. See {@link DefaultPartBodyByteStoreFactory#DefaultPartBodyByteStoreFactory(String, int, MultipartMetrics, SegmentPool, MemoryBudget)}. If null there is no budget.
+     */
+    public ChannelPartBodyByteStoreFactory(final String tempFolderPath, final int maxSizeThreshold, final MultipartMetrics metrics, final SegmentPool segmentPool, final MemoryBudget memoryBudget) {
+        super(tempFolderPath, maxSizeThreshold, metrics, segmentPool, memoryBudget);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tempFolderPath The path where to store the temporary files
+     * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
+     */
+    public ChannelPartBodyByteStoreFactory(final String tempFolderPath, final int maxSizeThreshold) {
+        this(tempFolderPath, maxSizeThreshold, null);
+    }
+
+    /**
+     * <p> Constructor that uses a default threshold of 10kb and a default folder ${java.io.tmpdir}/nio-file-upload
+     */
+    public ChannelPartBodyByteStoreFactory() {
+        this(DEFAULT_TEMP_FOLDER, DEFAULT_MAX_THRESHOLD);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteStore newByteStoreForPartBody(final Map<String, List<String>> partHeaders, final int partIndex) {
+        return new ChannelByteStore(getTempFile(partIndex), getThreshold(partHeaders), true, metrics, segmentPool, getMemoryBudget(partHeaders));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Serializable checkpointByteStore(final ByteStore byteStore) throws IOException {
+        final ChannelByteStore channelByteStore = (ChannelByteStore) byteStore;
+        channelByteStore.moveToFile();
+        return new ByteStoreCheckpoint(channelByteStore.getFile().getAbsolutePath(), channelByteStore.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteStore resumeByteStoreForPartBody(final Map<String, List<String>> partHeaders, final int partIndex, final Serializable byteStoreCheckpoint) {
+        final ByteStoreCheckpoint checkpoint = (ByteStoreCheckpoint) byteStoreCheckpoint;
+        try {
+            return ChannelByteStore.resume(new File(checkpoint.path), checkpoint.size, true, metrics);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to resume the part body stored in " + checkpoint.path, e);
+        }
+    }
+
+    static class ByteStoreCheckpoint implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String path;
+        final long size;
+
+        ByteStoreCheckpoint(final String path, final long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart;
+
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+import org.synchronoss.cloud.nio.multipart.io.ContentAddressedByteStore;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p> {@code PartBodyByteStoreFactory} creating {@link ContentAddressedByteStore}s. The part bodies written to disk are stored once
+ *     under their digest in a sharded folder structure rooted at the store folder, so identical part bodies share one file.
+ *     The temporary files are created in the {@code tmp} sub folder of the store folder, so they can be moved atomically to their
+ *     final location.
+ *
+ * @author Silvano Riz.
+ */
+public class ContentAddressedByteStoreFactory extends DefaultPartBodyByteStoreFactory {
+
+    final File storeFolder;
+    final String digestAlgorithm;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param storeFolderPath The path of the root folder where the content files are stored.
+     * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
+     * @param digestAlgorithm The digest algorithm used to address the content, for example {@value ContentAddressedByteStore#DEFAULT_DIGEST_ALGORITHM}.
+     * @param metrics The {@code MultipartMetrics} passed to the {@code ByteStore}s. If null no metrics are collected.
+     */
+    public ContentAddressedByteStoreFactory(final String storeFolderPath, final int maxSizeThreshold, final String digestAlgorithm, final MultipartMetrics metrics) {
+        super(new File(storeFolderPath, "tmp").getPath(), maxSizeThreshold, metrics);
+        this.storeFolder = new File(storeFolderPath);
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * <p> Constructor that uses the {@value ContentAddressedByteStore#DEFAULT_DIGEST_ALGORITHM} digest algorithm.
+     *
+     * @param storeFolderPath The path of the root folder where the content files are stored.
+     * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
+     */
+    public ContentAddressedByteStoreFactory(final String storeFolderPath, final int maxSizeThreshold) {
+        this(storeFolderPath, maxSizeThreshold, ContentAddressedByteStore.DEFAULT_DIGEST_ALGORITHM, null);
+    }
+
+    /**
+     * <p> Constructor that uses the {@value ContentAddressedByteStore#DEFAULT_DIGEST_ALGORITHM} digest algorithm and a default threshold of 10kb.
+     *
+     * @param storeFolderPath The path of the root folder where the content files are stored.
+     */
+    public ContentAddressedByteStoreFactory(final String storeFolderPath) {
+        this(storeFolderPath, DEFAULT_MAX_THRESHOLD);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteStore newByteStoreForPartBody(final Map<String, List<String>> partHeaders, final int partIndex) {
+        return new ContentAddressedByteStore(getTempFile(partIndex), storeFolder, getThreshold(partHeaders), digestAlgorithm, metrics, segmentPool, getMemoryBudget(partHeaders));
+    }
+
+}
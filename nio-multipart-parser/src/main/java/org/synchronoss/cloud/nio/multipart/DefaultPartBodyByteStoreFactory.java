@@ -18,6 +18,8 @@ package org.synchronoss.cloud.nio.multipart;
 
 import org.synchronoss.cloud.nio.multipart.io.ByteStore;
 import org.synchronoss.cloud.nio.multipart.io.DeferredFileByteStore;
+import org.synchronoss.cloud.nio.multipart.io.MemoryBudget;
+import org.synchronoss.cloud.nio.multipart.io.SegmentPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +45,9 @@ public class DefaultPartBodyByteStoreFactory implements PartBodyByteStoreFactory
     static final String DEFAULT_TEMP_FOLDER = System.getProperty("java.io.tmpdir") + "/nio-file-upload";
     final File tempFolder;
     final int maxSizeThreshold;
+    final MultipartMetrics metrics;
+    final SegmentPool segmentPool;
+    final MemoryBudget memoryBudget;
 
     /**
      * <p> Constructor.
@@ -51,6 +56,45 @@ public class DefaultPartBodyByteStoreFactory implements PartBodyByteStoreFactory
      * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
      */
     public DefaultPartBodyByteStoreFactory(final String tempFolderPath, final int maxSizeThreshold) {
+        this(tempFolderPath, maxSizeThreshold, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tempFolderPath The path where to store the temporary files
+     * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
+     * @param metrics The {@code MultipartMetrics} passed to the {@code ByteStore}s. If null no metrics are collected.
+     */
+    public DefaultPartBodyByteStoreFactory(final String tempFolderPath, final int maxSizeThreshold, final MultipartMetrics metrics) {
+        this(tempFolderPath, maxSizeThreshold, metrics, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tempFolderPath The path where to store the temporary files
+     * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
+     * @param metrics The {@code MultipartMetrics} passed to the {@code ByteStore}s. If null no metrics are collected.
+     * @param segmentPool The {@code SegmentPool} providing the memory to the {@code ByteStore}s. If null the {@link SegmentPool#getSharedPool()} is used.
+     */
+    public DefaultPartBodyByteStoreFactory(final String tempFolderPath, final int maxSizeThreshold, final MultipartMetrics metrics, final SegmentPool segmentPool) {
+        this(tempFolderPath, maxSizeThreshold, metrics, segmentPool, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tempFolderPath The path where to store the temporary files
+     * @param maxSizeThreshold The maximum amount of bytes that will be kept in memory for each part. If zero or negative no memory will be used.
+     * @param metrics The {@code MultipartMetrics} passed to the {@code ByteStore}s. If null no metrics are collected.
+     * @param segmentPool The {@code SegmentPool} providing the memory to the {@code ByteStore}s. If null the {@link SegmentPool#getSharedPool()} is used.
+     * @param memoryBudget The {@code MemoryBudget} shared by the {@code ByteStore}s. When the budget is exhausted the parts are moved to disk before reaching the {@code maxSizeThreshold}, unless they declare a small {@code Content-Length} (see {@link MemoryBudget#isSmallPart(long)}). If null there is no budget.
+     */
+    public DefaultPartBodyByteStoreFactory(final String tempFolderPath, final int maxSizeThreshold, final MultipartMetrics metrics, final SegmentPool segmentPool, final MemoryBudget memoryBudget) {
+        this.metrics = metrics;
+        this.segmentPool = segmentPool != null ? segmentPool : SegmentPool.getSharedPool();
+        this.memoryBudget = memoryBudget;
         this.maxSizeThreshold = maxSizeThreshold > 0 ? maxSizeThreshold : 0;
         this.tempFolder = new File(tempFolderPath);
         if (!tempFolder.exists()){
@@ -91,7 +135,14 @@ public class DefaultPartBodyByteStoreFactory implements PartBodyByteStoreFactory
      */
     @Override
     public ByteStore newByteStoreForPartBody(final Map<String, List<String>> partHeaders, final int partIndex) {
-        return new DeferredFileByteStore(getTempFile(partIndex), getThreshold(partHeaders));
+        return new DeferredFileByteStore(getTempFile(partIndex), getThreshold(partHeaders), true, metrics, segmentPool, getMemoryBudget(partHeaders));
+    }
+
+    protected MemoryBudget getMemoryBudget(final Map<String, List<String>> partHeaders){
+        if (memoryBudget == null || memoryBudget.isSmallPart(MultipartUtils.getContentLength(partHeaders))){
+            return null;
+        }
+        return memoryBudget;
     }
 
     protected int getThreshold(final Map<String, List<String>> partHeaders){
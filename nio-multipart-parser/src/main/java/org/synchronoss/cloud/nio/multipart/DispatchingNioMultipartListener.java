@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p> {@code NioMultipartParserListener} that hands the part completion callbacks ({@link #onPartFinished(ByteStore, Map)} and
+ *     {@link #onFormFieldPartFinished(String, String, Map)}) over to an {@code Executor}, so the processing of a part overlaps with
+ *     the parsing of the next ones instead of running on the thread writing to the parser (usually a container I/O thread).
+ * <p> The part completion callbacks of the delegate can run concurrently and in any order, depending on the {@code Executor}.
+ *     The nested part callbacks and {@link #onAllPartsFinished()} are instead sequenced with them: they are invoked once all the callbacks
+ *     of the previous parts have completed, and the callbacks of the following parts are dispatched only after them. If nothing is
+ *     pending they are invoked straight away on the parser thread, otherwise on the thread completing the last pending callback.
+ *     If a dispatched callback throws an exception, the delegate is notified via {@link #onError(String, Throwable)} instead of
+ *     {@link #onAllPartsFinished()}. The errors raised by the parser are notified straight away.
+ * <p> {@link #onAllPartsFinished()} usually runs on an executor thread, while the parser thread is still processing the rest of the data
+ *     (the epilogue). Closing the parser from there is safe: the parser completes the close, and returns to its pool if any, only when
+ *     the processing exits. See {@link NioMultipartParser#close()}.
+ * <p> The delegate cannot be a {@link NioMultipartParserStreamingListener}, because the body chunks are only valid during the callback.
+ *     If the delegate is a {@link PartFilter} the filter is invoked on the parser thread.
+ *
+ * @author Silvano Riz.
+ */
+public class DispatchingNioMultipartListener implements NioMultipartParserListener, PartFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(DispatchingNioMultipartListener.class);
+
+    final NioMultipartParserListener delegate;
+    final Executor executor;
+
+    // The callbacks not started yet, in the order they have been notified by the parser. Guarded by this.
+    final Queue<Callback> waitingCallbacks = new ArrayDeque<Callback>();
+    // Number of callbacks started and not completed yet. Guarded by this.
+    int runningCallbacks = 0;
+    // True while a sequenced callback (nested part or end of the parts) runs. Guarded by this.
+    boolean sequencedCallbackRunning = false;
+    // Number of part completion callbacks not completed yet. Guarded by this.
+    int pendingPartCallbacks = 0;
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final AtomicBoolean errorNotified = new AtomicBoolean(false);
+
+    /**
+     * <p> Constructor.
+     *
+     * @param delegate The {@code NioMultipartParserListener} notified.
+     * @param executor The {@code Executor} running the part completion callbacks.
+     */
+    public DispatchingNioMultipartListener(final NioMultipartParserListener delegate, final Executor executor) {
+        if (delegate == null){
+            throw new IllegalArgumentException("Listener cannot be null");
+        }
+        if (executor == null){
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+        if (delegate instanceof NioMultipartParserStreamingListener){
+            throw new IllegalArgumentException("The callbacks of a NioMultipartParserStreamingListener cannot be dispatched to an Executor");
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onPartFinished(final ByteStore partBodyByteStore, final Map<String, List<String>> headersFromPart) {
+        submit(new Callback(false) {
+            @Override
+            public void run() {
+                delegate.onPartFinished(partBodyByteStore, headersFromPart);
+            }
+        });
+    }
+
+    @Override
+    public void onFormFieldPartFinished(final String fieldName, final String fieldValue, final Map<String, List<String>> headersFromPart) {
+        submit(new Callback(false) {
+            @Override
+            public void run() {
+                delegate.onFormFieldPartFinished(fieldName, fieldValue, headersFromPart);
+            }
+        });
+    }
+
+    @Override
+    public void onAllPartsFinished() {
+        submit(new Callback(true) {
+            @Override
+            public void run() {
+                final Throwable cause = failure.get();
+                if (cause == null){
+                    delegate.onAllPartsFinished();
+                }else{
+                    onError("Unable to process the part", cause);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onNestedPartStarted(final Map<String, List<String>> headersFromParentPart) {
+        submit(new Callback(true) {
+            @Override
+            public void run() {
+                delegate.onNestedPartStarted(headersFromParentPart);
+            }
+        });
+    }
+
+    @Override
+    public void onNestedPartFinished() {
+        submit(new Callback(true) {
+            @Override
+            public void run() {
+                delegate.onNestedPartFinished();
+            }
+        });
+    }
+
+    @Override
+    public void onError(final String message, final Throwable cause) {
+        if (errorNotified.compareAndSet(false, true)){
+            delegate.onError(message, cause);
+        }
+    }
+
+    @Override
+    public boolean acceptPart(final Map<String, List<String>> headers, final int partIndex) {
+        return !(delegate instanceof PartFilter) || ((PartFilter) delegate).acceptPart(headers, partIndex);
+    }
+
+    /**
+     * <p> Returns the number of part completion callbacks that have not completed yet.
+     *
+     * @return the number of part completion callbacks that have not completed yet.
+     */
+    public synchronized int getPendingCallbacks() {
+        return pendingPartCallbacks;
+    }
+
+    void submit(final Callback callback) {
+        final List<Callback> ready;
+        synchronized (this) {
+            if (!callback.sequenced) {
+                pendingPartCallbacks++;
+            }
+            waitingCallbacks.add(callback);
+            ready = nextReadyCallbacks();
+        }
+        start(ready);
+    }
+
+    /*
+     * Must be called holding the lock. The part callbacks are started as long as there is no sequenced callback ahead of them,
+     * a sequenced callback only when nothing else is running.
+     */
+    List<Callback> nextReadyCallbacks() {
+        final List<Callback> ready = new ArrayList<Callback>();
+        while (!sequencedCallbackRunning && !waitingCallbacks.isEmpty()) {
+            final Callback next = waitingCallbacks.peek();
+            if (next.sequenced) {
+                if (runningCallbacks > 0) {
+                    break;
+                }
+                sequencedCallbackRunning = true;
+            }
+            waitingCallbacks.poll();
+            runningCallbacks++;
+            ready.add(next);
+        }
+        return ready;
+    }
+
+    List<Callback> completed(final Callback callback) {
+        synchronized (this) {
+            runningCallbacks--;
+            if (callback.sequenced) {
+                sequencedCallbackRunning = false;
+            } else {
+                pendingPartCallbacks--;
+            }
+            return nextReadyCallbacks();
+        }
+    }
+
+    void start(List<Callback> ready) {
+        // A sequenced callback is always the last one ready. It runs on the current thread and then the following callbacks are started.
+        while (!ready.isEmpty()) {
+            List<Callback> next = Collections.emptyList();
+            for (final Callback callback : ready) {
+                if (callback.sequenced) {
+                    callback.runSafely();
+                    next = completed(callback);
+                } else {
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.runSafely();
+                                start(completed(callback));
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        // The callback has been rejected, it will never run.
+                        failure.compareAndSet(null, e);
+                        next = completed(callback);
+                    }
+                }
+            }
+            ready = next;
+        }
+    }
+
+    abstract class Callback implements Runnable {
+
+        final boolean sequenced;
+
+        Callback(final boolean sequenced) {
+            this.sequenced = sequenced;
+        }
+
+        void runSafely() {
+            try {
+                run();
+            } catch (Throwable t) {
+                if (log.isDebugEnabled()) log.debug("Dispatched callback failed", t);
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+
+}
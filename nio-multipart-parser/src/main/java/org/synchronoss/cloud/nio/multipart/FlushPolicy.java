@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+/**
+ * <p> Defines when the {@code NioMultipartParser} calls {@link java.io.OutputStream#flush()} on the {@link org.synchronoss.cloud.nio.multipart.io.ByteStore}
+ *     of a part body. The {@code ByteStore} is always closed at the end of the part, whatever the policy.
+ *
+ * @author Silvano Riz.
+ */
+public class FlushPolicy {
+
+    /**
+     * The {@code ByteStore} is never flushed by the parser, it's up to the {@code ByteStore} to flush its data when it is closed.
+     */
+    public static final FlushPolicy NONE = new FlushPolicy(false, 0);
+
+    /**
+     * The {@code ByteStore} is flushed once, when the end of the part body is reached. This is the default.
+     */
+    public static final FlushPolicy ON_PART_END = new FlushPolicy(true, 0);
+
+    final boolean flushOnPartEnd;
+    final long flushInterval;
+
+    private FlushPolicy(final boolean flushOnPartEnd, final long flushInterval) {
+        this.flushOnPartEnd = flushOnPartEnd;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * <p> Returns a {@code FlushPolicy} flushing the {@code ByteStore} every time the given amount of bytes has been written to it
+     *     and when the end of the part body is reached.
+     *
+     * @param bytes The number of bytes between two flushes. Must be greater than zero.
+     * @return the {@code FlushPolicy}
+     */
+    public static FlushPolicy every(final long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("The number of bytes between two flushes must be greater than zero");
+        }
+        return new FlushPolicy(true, bytes);
+    }
+
+    /**
+     * <p> Returns whether the {@code ByteStore} is flushed when the end of the part body is reached.
+     *
+     * @return true if the {@code ByteStore} is flushed at the end of the part body, false otherwise.
+     */
+    public boolean isFlushOnPartEnd() {
+        return flushOnPartEnd;
+    }
+
+    /**
+     * <p> Returns the number of bytes between two flushes, or 0 if the {@code ByteStore} is not flushed while the part body is written.
+     *
+     * @return the number of bytes between two flushes.
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy{" +
+                "flushOnPartEnd=" + flushOnPartEnd +
+                ", flushInterval=" + flushInterval +
+                '}';
+    }
+}
@@ -17,9 +17,12 @@
 package org.synchronoss.cloud.nio.multipart;
 
 import org.synchronoss.cloud.nio.multipart.BlockingIOAdapter.PartItem;
+import org.synchronoss.cloud.nio.multipart.io.MemoryBudget;
+import org.synchronoss.cloud.nio.multipart.io.SegmentPool;
 import org.synchronoss.cloud.nio.multipart.util.collect.CloseableIterator;
 
 import java.io.InputStream;
+import java.util.concurrent.Executor;
 
 /**
  * <p> Easy to use fluent api to build an {@code NioMultipartParser} (for Nio parsing) or to obtain a {@code CloseableIterator} (for Blocking IO parsing)
@@ -41,6 +44,19 @@ public class Multipart {
         private String tempFolder = DefaultPartBodyByteStoreFactory.DEFAULT_TEMP_FOLDER;
         private int bodySizeThreshold = DefaultPartBodyByteStoreFactory.DEFAULT_MAX_THRESHOLD;
         private PartBodyByteStoreFactory partBodyByteStoreFactory;
+        private MultipartParserPool parserPool;
+        private MultipartMetrics metrics;
+        private SegmentPool segmentPool;
+        private MemoryBudget memoryBudget;
+        private boolean decodeContentTransferEncoding = false;
+        private FlushPolicy flushPolicy = FlushPolicy.ON_PART_END;
+        private int writeCoalescingSize = 0;
+        private int readSize = BlockingIOAdapter.DEFAULT_READ_SIZE;
+        private Executor readAheadExecutor;
+        private int maxReadAheadParts;
+        private boolean streamPartBodies = false;
+        private PartFilter partFilter;
+        private Executor partCallbacksExecutor;
         private MultipartContext context;
 
         private Builder(final MultipartContext context) {
@@ -131,9 +147,190 @@ public class Multipart {
             return this;
         }
 
+        /**
+         * <p> Configures a {@code MultipartParserPool} from where the {@code NioMultipartParser} is borrowed.
+         *     The parsers of the pool share the configuration of the pool itself, so the other options of the builder (except the metrics, the Content-Transfer-Encoding decoding, the flush policy, the write coalescing and the part filter)
+         *     have no effect on {@link #forNIO(NioMultipartParserListener)}. The pool is not used when parsing in blocking IO mode.
+         *
+         * @param parserPool The {@code MultipartParserPool} to use
+         * @return the {@code Builder} itself.
+         */
+        public Builder withParserPool(final MultipartParserPool parserPool){
+            this.parserPool = parserPool;
+            return this;
+        }
+
+        /**
+         * <p> Configures the {@code SegmentPool} providing the memory where the part bodies are kept until the threshold configured via
+         *     {@link #withMaxMemoryUsagePerBodyPart(int)} is reached. By default all the parsers share {@link SegmentPool#getSharedPool()}.
+         *     This configuration is only valid if the default {@code PartBodyByteStoreFactory} is used.
+         *
+         * @param segmentPool The {@code SegmentPool} to use
+         * @return the {@code Builder} itself.
+         */
+        public Builder withSegmentPool(final SegmentPool segmentPool){
+            this.segmentPool = segmentPool;
+            return this;
+        }
+
+        /**
+         * <p> Configures a {@code MemoryBudget} limiting the memory used by the part bodies across all the parsers sharing the same budget.
+         *     When the budget is exhausted the part bodies are moved to disk before reaching the threshold configured via
+         *     {@link #withMaxMemoryUsagePerBodyPart(int)}. This configuration is only valid if the default {@code PartBodyByteStoreFactory} is used.
+         *
+         * @param memoryBudget The {@code MemoryBudget} to use
+         * @return the {@code Builder} itself.
+         */
+        public Builder withMemoryBudget(final MemoryBudget memoryBudget){
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * <p> Enables the decoding of the part bodies with a {@code base64} or {@code quoted-printable} Content-Transfer-Encoding.
+         *     The body is decoded while it is parsed, so the {@code ByteStore} (or the streaming listener) gets the decoded data.
+         *     The part headers are left untouched. By default the bodies are stored as they are received.
+         *
+         * @return the {@code Builder} itself.
+         */
+        public Builder decodeContentTransferEncoding(){
+            this.decodeContentTransferEncoding = true;
+            return this;
+        }
+
+        /**
+         * <p> Configures when the parser flushes the {@code ByteStore} of a part body. By default it is flushed once, at the end of the part.
+         *     The policy has no effect on the part bodies streamed to a {@link NioMultipartParserStreamingListener}.
+         *
+         * @param flushPolicy The {@code FlushPolicy} to use
+         * @return the {@code Builder} itself.
+         */
+        public Builder withFlushPolicy(final FlushPolicy flushPolicy){
+            if (flushPolicy == null){
+                throw new IllegalArgumentException("Flush policy cannot be null");
+            }
+            this.flushPolicy = flushPolicy;
+            return this;
+        }
+
+        /**
+         * <p> Coalesces the fragments of a part body smaller than the given size into larger writes to its {@code ByteStore}.
+         *     Useful when the data is received in small chunks and the {@code ByteStore} issues a system call per write, as a file does.
+         *     Each parser allocates one buffer of the given size. By default the writes are not coalesced.
+         *     Coalescing has no effect on the part bodies streamed to a {@link NioMultipartParserStreamingListener}.
+         *
+         * @param writeCoalescingSize The size in bytes of the buffer used to coalesce the writes.
+         * @return the {@code Builder} itself.
+         */
+        public Builder coalesceWritesUpTo(final int writeCoalescingSize){
+            if (writeCoalescingSize < 0){
+                throw new IllegalArgumentException("Write coalescing size cannot be lower than zero");
+            }
+            this.writeCoalescingSize = writeCoalescingSize;
+            return this;
+        }
+
+        /**
+         * <p> Configures the size of the chunks read from the {@code InputStream} when parsing in blocking IO mode.
+         *     The buffer is allocated once per {@code CloseableIterator}. It has no effect on {@link #forNIO(NioMultipartParserListener)}.
+         *
+         * @param readSize The read size in bytes.
+         * @return the {@code Builder} itself.
+         */
+        public Builder withReadSize(final int readSize){
+            if (readSize <= 0){
+                throw new IllegalArgumentException("Read size must be greater than zero");
+            }
+            this.readSize = readSize;
+            return this;
+        }
+
+        /**
+         * <p> Enables the read ahead mode when parsing in blocking IO mode. The first time the {@code CloseableIterator} is asked for a part,
+         *     a task is submitted to the executor that reads and parses the whole stream, while the parts are handed over to the consumer via a
+         *     bounded queue. The reads from the {@code InputStream} and the processing of the parts overlap. When the queue is full, the reader
+         *     waits for the consumer to catch up.
+         * <p> Closing the {@code CloseableIterator} stops the reader, at the latest once the current read from the {@code InputStream} returns.
+         *     The parts parsed ahead and not consumed yet are dismissed, so their bodies are not left on disk.
+         *     The executor can run the task on a dedicated thread, or on a virtual thread if the JVM supports them.
+         *
+         * @param executor The {@code Executor} running the reader.
+         * @param maxReadAheadParts How many parts can be parsed ahead of the consumer.
+         * @return the {@code Builder} itself.
+         */
+        public Builder readAhead(final Executor executor, final int maxReadAheadParts){
+            if (executor == null){
+                throw new IllegalArgumentException("Executor cannot be null");
+            }
+            if (maxReadAheadParts <= 0){
+                throw new IllegalArgumentException("The number of parts parsed ahead must be greater than zero");
+            }
+            this.readAheadExecutor = executor;
+            this.maxReadAheadParts = maxReadAheadParts;
+            return this;
+        }
+
+        /**
+         * <p> Streams the attachments when parsing in blocking IO mode. The {@code CloseableIterator} returns an {@link BlockingIOAdapter.Attachment}
+         *     as soon as the headers of the part have been parsed, and the {@code InputStream} of its body reads the data straight from the
+         *     multipart stream through the parser. The bodies are never written to a {@code ByteStore}, so there are no temporary files.
+         * <p> The parts must be consumed sequentially: when the iterator moves to the next part the rest of the current body is skipped
+         *     and its {@code InputStream} cannot be read anymore. Form fields are still collected in memory and returned as
+         *     {@link BlockingIOAdapter.FormParameter}. The streaming mode cannot be combined with {@link #readAhead(Executor, int)}.
+         *
+         * @return the {@code Builder} itself.
+         */
+        public Builder streamPartBodies(){
+            this.streamPartBodies = true;
+            return this;
+        }
+
+        /**
+         * <p> Configures a {@code PartFilter} deciding which parts are processed. The body of the parts discarded by the filter is skipped
+         *     without being stored. In NIO mode the {@link NioMultipartParserListener} can implement {@link PartFilter} instead,
+         *     the filter configured here takes precedence.
+         *
+         * @param partFilter The {@code PartFilter} to use
+         * @return the {@code Builder} itself.
+         */
+        public Builder withPartFilter(final PartFilter partFilter){
+            this.partFilter = partFilter;
+            return this;
+        }
+
+        /**
+         * <p> Dispatches the part completion callbacks of the {@link NioMultipartParserListener} to an {@code Executor}, so the processing
+         *     of a part (scanning, hashing, thumbnailing...) overlaps with the parsing of the next ones instead of running on the thread
+         *     writing to the parser. The callbacks can run concurrently and {@link NioMultipartParserListener#onAllPartsFinished()} is
+         *     invoked only after all of them have completed. See {@link DispatchingNioMultipartListener}.
+         * <p> It has no effect on {@link #forBlockingIO(InputStream)}.
+         *
+         * @param executor The {@code Executor} running the part completion callbacks.
+         * @return the {@code Builder} itself.
+         */
+        public Builder dispatchPartCallbacksTo(final Executor executor){
+            if (executor == null){
+                throw new IllegalArgumentException("Executor cannot be null");
+            }
+            this.partCallbacksExecutor = executor;
+            return this;
+        }
+
+        /**
+         * <p> Installs a {@code MultipartMetrics} to collect metrics about the parsing. The metrics about the part bodies (memory to disk switches,
+         *     temporary files written and deleted) are collected only if the default {@code PartBodyByteStoreFactory} is used.
+         *
+         * @param metrics The {@code MultipartMetrics} to use
+         * @return the {@code Builder} itself.
+         */
+        public Builder withMetrics(final MultipartMetrics metrics){
+            this.metrics = metrics;
+            return this;
+        }
+
         private PartBodyByteStoreFactory partStreamsFactory(){
             if (partBodyByteStoreFactory == null){
-                return new DefaultPartBodyByteStoreFactory(tempFolder, bodySizeThreshold);
+                return new DefaultPartBodyByteStoreFactory(tempFolder, bodySizeThreshold, metrics, segmentPool, memoryBudget);
             }else{
                 return partBodyByteStoreFactory;
             }
@@ -146,7 +343,24 @@ public class Multipart {
          * @return The {@code NioMultipartParser}
          */
         public NioMultipartParser forNIO(final NioMultipartParserListener listener){
-            return new NioMultipartParser(context, listener, partStreamsFactory(), bufferSize, headersSizeLimit, nestedMultipartsAllowed);
+            final NioMultipartParserListener parserListener;
+            if (partCallbacksExecutor != null){
+                parserListener = new DispatchingNioMultipartListener(listener, partCallbacksExecutor);
+            }else{
+                parserListener = listener;
+            }
+            final NioMultipartParser parser;
+            if (parserPool != null){
+                parser = parserPool.borrow(context, parserListener);
+            }else {
+                parser = new NioMultipartParser(context, parserListener, partStreamsFactory(), bufferSize, headersSizeLimit, nestedMultipartsAllowed);
+            }
+            parser.setMetrics(metrics);
+            parser.setDecodeContentTransferEncoding(decodeContentTransferEncoding);
+            parser.setFlushPolicy(flushPolicy);
+            parser.setWriteCoalescingSize(writeCoalescingSize);
+            parser.setPartFilter(partFilter);
+            return parser;
         }
 
         /**
@@ -156,7 +370,28 @@ public class Multipart {
          * @return The {@code CloseableIterator}
          */
         public CloseableIterator<PartItem> forBlockingIO(final InputStream inputStream){
-            return BlockingIOAdapter.parse(inputStream, context, partStreamsFactory(), bufferSize, headersSizeLimit, nestedMultipartsAllowed);
+            final NioMultipartParser parser;
+            final CloseableIterator<PartItem> partItemsIterator;
+            if (streamPartBodies){
+                if (readAheadExecutor != null){
+                    throw new IllegalStateException("The part bodies cannot be streamed in read ahead mode");
+                }
+                final BlockingIOAdapter.StreamingPartItemsIterator streamingPartItemsIterator = new BlockingIOAdapter.StreamingPartItemsIterator(inputStream, context,
+                        partStreamsFactory(), bufferSize, headersSizeLimit, nestedMultipartsAllowed, readSize);
+                parser = streamingPartItemsIterator.parser;
+                partItemsIterator = streamingPartItemsIterator;
+            }else{
+                final BlockingIOAdapter.PartItemsIterator bufferingPartItemsIterator = new BlockingIOAdapter.PartItemsIterator(inputStream, context,
+                        partStreamsFactory(), bufferSize, headersSizeLimit, nestedMultipartsAllowed, readSize, readAheadExecutor, maxReadAheadParts);
+                parser = bufferingPartItemsIterator.parser;
+                partItemsIterator = bufferingPartItemsIterator;
+            }
+            parser.setMetrics(metrics);
+            parser.setDecodeContentTransferEncoding(decodeContentTransferEncoding);
+            parser.setFlushPolicy(flushPolicy);
+            parser.setWriteCoalescingSize(writeCoalescingSize);
+            parser.setPartFilter(partFilter);
+            return partItemsIterator;
         }
     }
 
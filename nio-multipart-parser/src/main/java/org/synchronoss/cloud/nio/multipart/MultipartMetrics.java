@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+/**
+ * <p> Service provider interface to collect metrics about the multipart parsing. An implementation can be installed via
+ *     {@link Multipart.Builder#withMetrics(MultipartMetrics)} and it is typically an adapter towards the monitoring library in use
+ *     (counters, histograms, ...). When no implementation is installed {@link NoOpMultipartMetrics} is used.
+ *
+ * <p> The same instance is shared by all the parsers and {@code ByteStore}s created via the {@code Builder}, so implementations must be thread-safe.
+ *     The methods are called on the parsing thread, so they should be quick and never block.
+ *
+ * @author Silvano Riz.
+ */
+public interface MultipartMetrics {
+
+    /**
+     * <p> Called every time the parser consumes data.
+     *
+     * @param bytes The number of bytes consumed.
+     */
+    void recordBytesParsed(final int bytes);
+
+    /**
+     * <p> Called when the headers section of a part has been read.
+     *
+     * @param bytes The size of the headers section in bytes.
+     */
+    void recordHeadersSectionSize(final int bytes);
+
+    /**
+     * <p> Called when all the parts of a multipart stream have been read.
+     *
+     * @param parts The number of parts, including the ones of the nested multiparts.
+     */
+    void recordPartsPerRequest(final int parts);
+
+    /**
+     * <p> Called every time the parser completes a step of its final state machine. A state can be executed several times for the same part,
+     *     for example a part body is read in several steps if the data arrives in several chunks.
+     *
+     * @param state The name of the state.
+     * @param nanos The time spent in the state, in nanoseconds.
+     */
+    void recordStateTime(final String state, final long nanos);
+
+    /**
+     * <p> Called when a part body stored in memory exceeds the threshold and it is moved to a temporary file.
+     *
+     * @param bytesInMemory The bytes that were in memory when the switch happened.
+     */
+    void recordPartSwitchedToDisk(final long bytesInMemory);
+
+    /**
+     * <p> Called when a temporary file has been completely written.
+     *
+     * @param bytes The number of bytes written to the file.
+     */
+    void recordTempFileBytesWritten(final long bytes);
+
+    /**
+     * <p> Called when a temporary file has been deleted.
+     *
+     * @param bytes The size of the deleted file.
+     */
+    void recordTempFileDeleted(final long bytes);
+
+    /**
+     * <p> Called when the parser encounters an error, before notifying the listener.
+     *
+     * @param message The error message.
+     * @param cause The error cause or null if there is no cause.
+     */
+    void recordError(final String message, final Throwable cause);
+
+}
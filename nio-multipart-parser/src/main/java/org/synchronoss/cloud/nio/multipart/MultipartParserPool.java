@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p> A thread-safe pool of {@code NioMultipartParser}s. Creating a parser allocates its buffers (the circular buffer, the headers buffer, ...)
+ *     and at high request rates this can be a considerable amount of short lived objects. The buffers of a pooled parser are instead reused.
+ *     Every borrow returns a new {@code NioMultipartParser} instance taking over the buffers of a parser returned to the pool, so a client
+ *     closing its parser more than once (for example from {@code AsyncListener.onError} and then from {@code onComplete}) cannot affect
+ *     the client that borrowed the buffers next.
+ *
+ * <p> A parser is obtained via {@link #borrow(MultipartContext, NioMultipartParserListener)} (or using the fluent API, see {@link Multipart.Builder#withParserPool(MultipartParserPool)})
+ *     and it is returned to the pool when it's closed. After {@code close()} (or {@code dismiss()}) the client must not use the parser anymore.
+ *     The pool keeps at most {@code maxIdleParsers} idle parsers, the parsers returned when the pool is full are just discarded.
+ *
+ * <p> All the parsers created by the pool share the same configuration (buffer size, headers section size, nested multipart limit and
+ *     {@link PartBodyByteStoreFactory}). If leak detection is enabled, the pool logs a warning every time a borrowed parser is garbage collected
+ *     without being closed.
+ *
+ * @author Silvano Riz.
+ */
+public class MultipartParserPool {
+
+    private static final Logger log = LoggerFactory.getLogger(MultipartParserPool.class);
+
+    /**
+     * Default number of idle parsers kept by the pool.
+     */
+    public static final int DEFAULT_MAX_IDLE_PARSERS = 64;
+
+    final int maxIdleParsers;
+    final PartBodyByteStoreFactory partBodyByteStoreFactory;
+    final int bufferSize;
+    final int maxHeadersSectionSize;
+    final int maxLevelOfNestedMultipart;
+    final boolean leakDetection;
+
+    final Queue<NioMultipartParser> idleParsers = new ConcurrentLinkedQueue<NioMultipartParser>();
+    final AtomicInteger idleParsersCount = new AtomicInteger(0);
+
+    final ReferenceQueue<NioMultipartParser> leakedParsers = new ReferenceQueue<NioMultipartParser>();
+    final Set<Reference<NioMultipartParser>> borrowedParsers = Collections.newSetFromMap(new ConcurrentHashMap<Reference<NioMultipartParser>, Boolean>());
+    final AtomicLong leaksCount = new AtomicLong(0);
+
+    /**
+     * <p> Constructs a {@code MultipartParserPool} creating parsers with the default configuration. Leak detection is enabled.
+     *
+     * @param maxIdleParsers The maximum number of idle parsers kept by the pool.
+     */
+    public MultipartParserPool(final int maxIdleParsers) {
+        this(maxIdleParsers, null, NioMultipartParser.DEFAULT_BUFFER_SIZE, NioMultipartParser.DEFAULT_HEADERS_SECTION_SIZE, NioMultipartParser.DEFAULT_MAX_LEVEL_OF_NESTED_MULTIPART, true);
+    }
+
+    /**
+     * <p> Constructs a {@code MultipartParserPool}.
+     *
+     * @param maxIdleParsers The maximum number of idle parsers kept by the pool.
+     * @param partBodyByteStoreFactory The {@code PartBodyByteStoreFactory} used by the parsers. If null the {@link DefaultPartBodyByteStoreFactory} is used.
+     * @param bufferSize The buffer size
+     * @param maxHeadersSectionSize The max size of the headers section
+     * @param maxLevelOfNestedMultipart the max number of nested multipart
+     * @param leakDetection If true, the parsers that are garbage collected without being closed are reported.
+     */
+    public MultipartParserPool(final int maxIdleParsers,
+                               final PartBodyByteStoreFactory partBodyByteStoreFactory,
+                               final int bufferSize,
+                               final int maxHeadersSectionSize,
+                               final int maxLevelOfNestedMultipart,
+                               final boolean leakDetection) {
+        if (maxIdleParsers < 0){
+            throw new IllegalArgumentException("The maximum number of idle parsers cannot be lower than zero");
+        }
+        this.maxIdleParsers = maxIdleParsers;
+        this.partBodyByteStoreFactory = partBodyByteStoreFactory != null ? partBodyByteStoreFactory : new DefaultPartBodyByteStoreFactory();
+        this.bufferSize = bufferSize;
+        this.maxHeadersSectionSize = maxHeadersSectionSize;
+        this.maxLevelOfNestedMultipart = maxLevelOfNestedMultipart;
+        this.leakDetection = leakDetection;
+    }
+
+    /**
+     * <p> Obtains a parser ready to process a new multipart stream. The buffers of an idle parser are reused if available, otherwise a new parser is created.
+     *     The parser is returned to the pool when it's closed.
+     *
+     * @param multipartContext The multipart context
+     * @param nioMultipartParserListener The listener that will be notified
+     * @return The {@code NioMultipartParser}
+     */
+    public NioMultipartParser borrow(final MultipartContext multipartContext, final NioMultipartParserListener nioMultipartParserListener) {
+        if (leakDetection) {
+            reportLeaks();
+        }
+        final NioMultipartParser released = idleParsers.poll();
+        final NioMultipartParser parser;
+        if (released != null) {
+            idleParsersCount.decrementAndGet();
+            parser = new NioMultipartParser(released, multipartContext, nioMultipartParserListener);
+        } else {
+            parser = new NioMultipartParser(multipartContext, nioMultipartParserListener, partBodyByteStoreFactory, bufferSize, maxHeadersSectionSize, maxLevelOfNestedMultipart);
+            parser.pool = this;
+        }
+        if (leakDetection) {
+            final Reference<NioMultipartParser> reference = new WeakReference<NioMultipartParser>(parser, leakedParsers);
+            borrowedParsers.add(reference);
+            parser.poolReference = reference;
+        }
+        return parser;
+    }
+
+    /**
+     * <p> Returns the number of idle parsers currently in the pool.
+     *
+     * @return the number of idle parsers.
+     */
+    public int getIdleParsersCount() {
+        return idleParsersCount.get();
+    }
+
+    /**
+     * <p> Returns the number of borrowed parsers that have been garbage collected without being closed, as detected so far.
+     *     It's always zero if the leak detection is disabled.
+     *
+     * @return the number of leaked parsers.
+     */
+    public long getLeaksCount() {
+        reportLeaks();
+        return leaksCount.get();
+    }
+
+    /**
+     * <p> Discards all the idle parsers.
+     */
+    public void clear() {
+        NioMultipartParser parser;
+        while ((parser = idleParsers.poll()) != null) {
+            idleParsersCount.decrementAndGet();
+            parser.pool = null;
+        }
+    }
+
+    void release(final NioMultipartParser parser) {
+        final Reference<NioMultipartParser> reference = parser.poolReference;
+        if (reference != null) {
+            parser.poolReference = null;
+            borrowedParsers.remove(reference);
+            reference.clear();
+        }
+        if (parser.partBodyByteStore != null) {
+            // The parser has been closed while writing a part body, nobody is going to read it (unless it's saved in a checkpoint).
+            parser.dismissPartBodyByteStore(parser.partBodyByteStore);
+        }
+        // Do not hold on to the client objects while idle
+        parser.nioMultipartParserListener = null;
+        parser.partBodyByteStore = null;
+        parser.checkpointedPartBodyByteStore = null;
+        parser.headers = null;
+
+        if (idleParsersCount.incrementAndGet() <= maxIdleParsers) {
+            idleParsers.offer(parser);
+        } else {
+            idleParsersCount.decrementAndGet();
+            parser.pool = null;
+        }
+    }
+
+    void reportLeaks() {
+        Reference<? extends NioMultipartParser> reference;
+        while ((reference = leakedParsers.poll()) != null) {
+            if (borrowedParsers.remove(reference)) {
+                leaksCount.incrementAndGet();
+                log.warn("A NioMultipartParser borrowed from the pool has been garbage collected without being closed. " +
+                        "Parsers must be closed (or dismissed) to be returned to the pool.");
+            }
+        }
+    }
+
+}
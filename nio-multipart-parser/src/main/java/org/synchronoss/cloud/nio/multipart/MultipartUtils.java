@@ -93,6 +93,9 @@ public class MultipartUtils {
      * @return true if the request is a multipart request, false otherwise.
      */
     public static boolean hasMultipartContentType(final Map<String, List<String>> headers){
+        if (headers instanceof PartHeaders){
+            return ((PartHeaders) headers).isMultipart();
+        }
         return isMultipart(getHeader(CONTENT_TYPE, headers));
     }
 
@@ -103,6 +106,9 @@ public class MultipartUtils {
      * @return the value of the content length header if present. -1 if the header is not present or if the value cannot be converted to a long
      */
     public static long getContentLength(final Map<String, List<String>> headers) {
+        if (headers instanceof PartHeaders){
+            return ((PartHeaders) headers).getContentLength();
+        }
         long contentLength = -1;
         String contentLengthHeaderValue = getHeader(CONTENT_LENGTH, headers);
         if (contentLengthHeaderValue != null && contentLengthHeaderValue.length() > 0){
@@ -122,6 +128,9 @@ public class MultipartUtils {
      * @return the charset parameter value from the content type header or null if the header is not present of the charset parameter not defined
      */
     public static String getCharEncoding(final Map<String, List<String>> headers) {
+        if (headers instanceof PartHeaders){
+            return ((PartHeaders) headers).getCharset();
+        }
         String contentType = getHeader(CONTENT_TYPE, headers);
         if (contentType != null) {
             ParameterParser parser = new ParameterParser();
@@ -165,6 +174,9 @@ public class MultipartUtils {
      * @return true if the part is a form field, false otherwise.
      */
     public static boolean isFormField(final Map<String, List<String>> headers){
+        if (headers instanceof PartHeaders){
+            return ((PartHeaders) headers).isFormField();
+        }
         final String fileName = getFileName(headers);
         final String fieldName = getFieldName(headers);
 
@@ -178,6 +190,9 @@ public class MultipartUtils {
      * @return The 'filename' parameter of the Content-disposition header or null
      */
     public static String getFileName(final Map<String, List<String>> headers) {
+        if (headers instanceof PartHeaders){
+            return ((PartHeaders) headers).getFileName();
+        }
 
         final String contentDisposition = getHeader(CONTENT_DISPOSITION, headers);
         String fileName = null;
@@ -210,6 +225,9 @@ public class MultipartUtils {
      * @return The 'name' parameter of the Content-disposition header or null
      */
     public static String getFieldName(final Map<String, List<String>> headers) {
+        if (headers instanceof PartHeaders){
+            return ((PartHeaders) headers).getFieldName();
+        }
 
         final String contentDisposition = getHeader(CONTENT_DISPOSITION, headers);
         String fieldName = null;
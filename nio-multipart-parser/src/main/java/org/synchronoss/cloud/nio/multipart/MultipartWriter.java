@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart;
+
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+import org.synchronoss.cloud.nio.multipart.io.ChannelByteStore;
+import org.synchronoss.cloud.nio.multipart.util.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p> Writes a multipart body (for example a {@code multipart/mixed} or a {@code multipart/byteranges} response) into a {@code WritableByteChannel}.
+ *     The parts are added via the {@code addPart} methods, each one with its headers and a body that can be a {@code ByteBuffer}, a region of
+ *     a {@code FileChannel}, a {@link ByteStore} or an {@code InputStream}. The delimiters and the header sections are encoded when the part is added.
+ *     Header names cannot contain CR, LF or ':' and header values cannot contain CR or LF, otherwise an {@code IllegalArgumentException} is thrown.
+ * <p> The writer is non blocking: {@link #writeTo(WritableByteChannel)} writes as much as the channel accepts and returns false if the channel
+ *     did not accept all the data. In that case the method has to be called again, typically when the channel becomes writable again
+ *     (for example from the {@code onWritePossible()} of a Servlet 3.1 {@code WriteListener}), and the writing resumes from where it stopped.
+ * <p> The bodies stored in a file ({@code FileChannel} and {@link ChannelByteStore}) are sent via {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ *     so the operating system can move the data to the target without copying it in the Java heap. Reading an {@code InputStream} (or a generic
+ *     {@code ByteStore}) might block, if the stream itself blocks.
+ * <p> The writer is not thread safe and it can be written only once.
+ *
+ * @author Silvano Riz.
+ */
+public class MultipartWriter implements Closeable {
+
+    private static final Charset HEADERS_CHARSET = Charset.forName("UTF-8");
+    private static final byte[] CRLF = {0x0D, 0x0A};
+    private static final byte[] DASH_DASH = {0x2D, 0x2D};
+    private static final char[] BOUNDARY_CHARS = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_-".toCharArray();
+    private static final int BOUNDARY_LENGTH = 32;
+    // The boundary characters (RFC 2046 bchars) other than letters and digits, and the ones that require the boundary to be quoted in the Content-Type
+    private static final String BOUNDARY_SPECIAL_CHARS = "'()+_,-./:=? ";
+    private static final String BOUNDARY_TSPECIAL_CHARS = "(),/:=? ";
+    private static final int STREAM_CHUNK_SIZE = 8192;
+
+    private final String boundary;
+    private final List<Source> sources = new ArrayList<Source>();
+    private int currentSource = 0;
+    private boolean closeDelimiterAdded = false;
+
+    /**
+     * <p> Constructs a {@code MultipartWriter} with a random boundary.
+     */
+    public MultipartWriter() {
+        this(randomBoundary());
+    }
+
+    /**
+     * <p> Constructs a {@code MultipartWriter} with the given boundary. The boundary must be between 1 and 70 characters allowed by RFC 2046
+     *     (letters, digits and {@code '()+_,-./:=?} or space), it must not end with a space and it must not appear in the bodies.
+     *
+     * @param boundary The boundary.
+     */
+    public MultipartWriter(final String boundary) {
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            throw new IllegalArgumentException("The boundary must be between 1 and 70 characters");
+        }
+        for (int i = 0; i < boundary.length(); i++) {
+            final char c = boundary.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9') && BOUNDARY_SPECIAL_CHARS.indexOf(c) == -1) {
+                throw new IllegalArgumentException("Invalid character in the boundary at index " + i);
+            }
+        }
+        if (boundary.charAt(boundary.length() - 1) == ' ') {
+            throw new IllegalArgumentException("The boundary must not end with a space");
+        }
+        this.boundary = boundary;
+    }
+
+    /**
+     * <p> Returns the boundary.
+     *
+     * @return the boundary.
+     */
+    public String getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * <p> Returns the value of the Content-Type header for the multipart body. For example {@code multipart/mixed; boundary=...}.
+     *     The boundary is quoted if it contains characters not allowed in a token.
+     *
+     * @param mediaType The media type of the multipart body. For example {@code multipart/mixed} or {@code multipart/byteranges}.
+     * @return the value of the Content-Type header.
+     */
+    public String getContentType(final String mediaType) {
+        for (int i = 0; i < boundary.length(); i++) {
+            if (BOUNDARY_TSPECIAL_CHARS.indexOf(boundary.charAt(i)) != -1) {
+                return mediaType + "; boundary=\"" + boundary + "\"";
+            }
+        }
+        return mediaType + "; boundary=" + boundary;
+    }
+
+    /**
+     * <p> Adds a part with the body held in a {@code ByteBuffer}. The bytes between the position and the limit of the buffer are written,
+     *     without changing its position.
+     *
+     * @param headers The part headers.
+     * @param body The part body.
+     * @return the {@code MultipartWriter} itself.
+     */
+    public MultipartWriter addPart(final Map<String, List<String>> headers, final ByteBuffer body) {
+        addHeaders(headers);
+        sources.add(new ByteBufferSource(body.duplicate()));
+        return this;
+    }
+
+    /**
+     * <p> Adds a part with the body stored in a region of a file. The {@code FileChannel} is not closed by the writer.
+     *
+     * @param headers The part headers.
+     * @param body The {@code FileChannel} of the file.
+     * @param position The position of the first byte of the body in the file.
+     * @param count The length of the body.
+     * @return the {@code MultipartWriter} itself.
+     */
+    public MultipartWriter addPart(final Map<String, List<String>> headers, final FileChannel body, final long position, final long count) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("Position and count must be non negative");
+        }
+        addHeaders(headers);
+        sources.add(new FileChannelSource(body, position, count));
+        return this;
+    }
+
+    /**
+     * <p> Adds a part with the body stored in a file. The whole content of the file, as it is when the method is called, is written.
+     *     The {@code FileChannel} is not closed by the writer.
+     *
+     * @param headers The part headers.
+     * @param body The {@code FileChannel} of the file.
+     * @return the {@code MultipartWriter} itself.
+     * @throws IOException If the size of the file cannot be read.
+     */
+    public MultipartWriter addPart(final Map<String, List<String>> headers, final FileChannel body) throws IOException {
+        return addPart(headers, body, 0, body.size());
+    }
+
+    /**
+     * <p> Adds a part with the body held in a {@code ByteStore}, for example a part body received by the parser. The {@code ByteStore}
+     *     must be readable. A {@link ChannelByteStore} is transferred via a {@code FileChannel}, opened once and kept open until the body
+     *     has been written, any other {@code ByteStore} is read via its {@code InputStream}, which is closed once the body has been written.
+     * <p> As when reading the {@code InputStream}, if the {@code ByteStore} has been configured to purge the data after the read is complete
+     *     (like the stores created by the default factories), the data is purged once the body has been written or the writer is closed.
+     *     Otherwise it's up to the caller to dismiss the {@code ByteStore}.
+     *
+     * @param headers The part headers.
+     * @param body The part body.
+     * @return the {@code MultipartWriter} itself.
+     */
+    public MultipartWriter addPart(final Map<String, List<String>> headers, final ByteStore body) {
+        addHeaders(headers);
+        if (body instanceof ChannelByteStore) {
+            sources.add(new ChannelByteStoreSource((ChannelByteStore) body));
+        } else {
+            sources.add(new InputStreamSource(null, body));
+        }
+        return this;
+    }
+
+    /**
+     * <p> Adds a part with the body read from an {@code InputStream}. The {@code InputStream} is closed once the body has been written.
+     *
+     * @param headers The part headers.
+     * @param body The part body.
+     * @return the {@code MultipartWriter} itself.
+     */
+    public MultipartWriter addPart(final Map<String, List<String>> headers, final InputStream body) {
+        addHeaders(headers);
+        sources.add(new InputStreamSource(body, null));
+        return this;
+    }
+
+    /**
+     * <p> Returns the length of the multipart body, that can be used as Content-Length. The length is known only if
+     *     none of the bodies is an {@code InputStream} or a {@code ByteStore} other than a {@link ChannelByteStore}.
+     *
+     * @return the length of the multipart body or -1 if it is not known.
+     */
+    public long getContentLength() {
+        long contentLength = closeDelimiterAdded ? 0 : closeDelimiter().remaining();
+        for (Source source : sources) {
+            final long length = source.length();
+            if (length < 0) {
+                return -1;
+            }
+            contentLength += length;
+        }
+        return contentLength;
+    }
+
+    /**
+     * <p> Writes the multipart body into the channel. With a non blocking channel the method returns as soon as the channel
+     *     does not accept more data, and it has to be called again to resume the writing. No parts can be added after the first call.
+     *
+     * @param channel The target channel.
+     * @return true if the whole multipart body has been written, false if the method has to be called again.
+     * @throws IOException If the write fails.
+     */
+    public boolean writeTo(final WritableByteChannel channel) throws IOException {
+        if (!closeDelimiterAdded) {
+            closeDelimiterAdded = true;
+            sources.add(new ByteBufferSource(closeDelimiter()));
+        }
+        while (currentSource < sources.size()) {
+            final Source source = sources.get(currentSource);
+            if (!source.writeTo(channel)) {
+                return false;
+            }
+            source.close();
+            currentSource++;
+        }
+        return true;
+    }
+
+    /**
+     * <p> Returns whether the whole multipart body has been written.
+     *
+     * @return true if the whole multipart body has been written, false otherwise.
+     */
+    public boolean isComplete() {
+        return closeDelimiterAdded && currentSource == sources.size();
+    }
+
+    /**
+     * <p> Closes the {@code InputStream}s and the {@code FileChannel}s of the parts not completely written. To be called if the writing is abandoned, for example
+     *     because the client went away.
+     */
+    @Override
+    public void close() {
+        for (int i = currentSource; i < sources.size(); i++) {
+            sources.get(i).close();
+        }
+        currentSource = sources.size();
+    }
+
+    void addHeaders(final Map<String, List<String>> headers) {
+        if (closeDelimiterAdded) {
+            throw new IllegalStateException("Cannot add a part, the multipart body is already being written");
+        }
+        final ByteArrayOutputStream headersSection = new ByteArrayOutputStream();
+        if (!sources.isEmpty()) {
+            // The CRLF preceding a delimiter is part of the delimiter
+            headersSection.write(CRLF, 0, CRLF.length);
+        }
+        headersSection.write(DASH_DASH, 0, DASH_DASH.length);
+        final byte[] boundaryBytes = boundary.getBytes(HEADERS_CHARSET);
+        headersSection.write(boundaryBytes, 0, boundaryBytes.length);
+        headersSection.write(CRLF, 0, CRLF.length);
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                assertValidHeaderName(header.getKey());
+                for (String value : header.getValue()) {
+                    assertValidHeaderValue(header.getKey(), value);
+                    final byte[] headerBytes = (header.getKey() + ": " + value).getBytes(HEADERS_CHARSET);
+                    headersSection.write(headerBytes, 0, headerBytes.length);
+                    headersSection.write(CRLF, 0, CRLF.length);
+                }
+            }
+        }
+        headersSection.write(CRLF, 0, CRLF.length);
+        sources.add(new ByteBufferSource(ByteBuffer.wrap(headersSection.toByteArray())));
+    }
+
+    /*
+     * A CR or LF in a header (for example in a file name coming from a client) would let the caller inject headers or delimiters.
+     */
+    static void assertValidHeaderName(final String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("The header name cannot be empty");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == '\r' || c == '\n' || c == ':') {
+                throw new IllegalArgumentException("Invalid character in the header name: " + name.replace("\r", "\\r").replace("\n", "\\n"));
+            }
+        }
+    }
+
+    static void assertValidHeaderValue(final String name, final String value) {
+        if (value.indexOf('\r') != -1 || value.indexOf('\n') != -1) {
+            throw new IllegalArgumentException("The value of the header " + name + " contains CR or LF");
+        }
+    }
+
+    ByteBuffer closeDelimiter() {
+        return ByteBuffer.wrap(((sources.isEmpty() ? "" : "\r\n") + "--" + boundary + "--\r\n").getBytes(HEADERS_CHARSET));
+    }
+
+    static String randomBoundary() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final char[] boundary = new char[BOUNDARY_LENGTH];
+        for (int i = 0; i < boundary.length; i++) {
+            boundary[i] = BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)];
+        }
+        return new String(boundary);
+    }
+
+    /*
+     * A piece of the multipart body: a delimiter with the headers section or a part body.
+     */
+    static abstract class Source implements Closeable {
+
+        /*
+         * Writes as much as the channel accepts. Returns true when all the data has been written.
+         */
+        abstract boolean writeTo(final WritableByteChannel channel) throws IOException;
+
+        /*
+         * The number of bytes of the source or -1 if not known.
+         */
+        abstract long length();
+
+        @Override
+        public void close() {
+            // Nothing to release by default
+        }
+    }
+
+    static class ByteBufferSource extends Source {
+
+        final ByteBuffer buffer;
+        final long length;
+
+        ByteBufferSource(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.length = buffer.remaining();
+        }
+
+        @Override
+        boolean writeTo(final WritableByteChannel channel) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        long length() {
+            return length;
+        }
+    }
+
+    static class FileChannelSource extends Source {
+
+        final FileChannel fileChannel;
+        final long position;
+        final long count;
+        long transferred = 0;
+
+        FileChannelSource(final FileChannel fileChannel, final long position, final long count) {
+            this.fileChannel = fileChannel;
+            this.position = position;
+            this.count = count;
+        }
+
+        @Override
+        boolean writeTo(final WritableByteChannel channel) throws IOException {
+            while (transferred < count) {
+                final long written = fileChannel.transferTo(position + transferred, count - transferred, channel);
+                if (written == 0) {
+                    if (position + transferred >= fileChannel.size()) {
+                        throw new IOException("The file is shorter than expected. Expected " + count + " bytes from position " + position + ", file size: " + fileChannel.size());
+                    }
+                    return false;
+                }
+                transferred += written;
+            }
+            return true;
+        }
+
+        @Override
+        long length() {
+            return count;
+        }
+    }
+
+    static class ChannelByteStoreSource extends Source {
+
+        final ChannelByteStore byteStore;
+        // Opened on the first write and kept open until the source is closed. Null if the data is in memory.
+        FileChannel readChannel;
+        long transferred = 0;
+
+        ChannelByteStoreSource(final ChannelByteStore byteStore) {
+            this.byteStore = byteStore;
+        }
+
+        @Override
+        boolean writeTo(final WritableByteChannel channel) throws IOException {
+            final long size = byteStore.size();
+            if (readChannel == null && !byteStore.isInMemory()) {
+                // When the data is on disk the readable channel is a FileChannel, which purges the file when closed if the store is configured to do so.
+                readChannel = (FileChannel) byteStore.getReadableChannel();
+            }
+            while (transferred < size) {
+                final long written = readChannel != null
+                        ? readChannel.transferTo(transferred, size - transferred, channel)
+                        : byteStore.transferTo(transferred, size - transferred, channel);
+                if (written == 0) {
+                    return false;
+                }
+                transferred += written;
+            }
+            return true;
+        }
+
+        @Override
+        long length() {
+            return byteStore.size();
+        }
+
+        @Override
+        public void close() {
+            if (readChannel != null) {
+                try {
+                    readChannel.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+    static class InputStreamSource extends Source {
+
+        final ByteStore byteStore;
+        InputStream inputStream;
+        ByteBuffer chunk;
+
+        InputStreamSource(final InputStream inputStream, final ByteStore byteStore) {
+            this.inputStream = inputStream;
+            this.byteStore = byteStore;
+        }
+
+        @Override
+        boolean writeTo(final WritableByteChannel channel) throws IOException {
+            if (inputStream == null) {
+                inputStream = byteStore.getInputStream();
+            }
+            if (chunk == null) {
+                chunk = ByteBuffer.allocate(STREAM_CHUNK_SIZE);
+                chunk.limit(0);
+            }
+            while (true) {
+                // First the data read and not written yet
+                while (chunk.hasRemaining()) {
+                    if (channel.write(chunk) == 0) {
+                        return false;
+                    }
+                }
+                final int read = inputStream.read(chunk.array());
+                if (read == -1) {
+                    return true;
+                }
+                chunk.clear();
+                chunk.limit(read);
+            }
+        }
+
+        @Override
+        long length() {
+            return -1;
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+}
@@ -20,24 +20,33 @@ import org.synchronoss.cloud.nio.multipart.io.ByteStore;
 import org.synchronoss.cloud.nio.multipart.io.Dismissable;
 import org.synchronoss.cloud.nio.multipart.io.FixedSizeByteArrayOutputStream;
 import org.synchronoss.cloud.nio.multipart.io.buffer.EndOfLineBuffer;
+import org.synchronoss.cloud.nio.multipart.util.Base64DecodingOutputStream;
 import org.synchronoss.cloud.nio.multipart.util.HeadersParser;
 import org.synchronoss.cloud.nio.multipart.util.IOUtils;
 import org.synchronoss.cloud.nio.multipart.util.ParameterParser;
+import org.synchronoss.cloud.nio.multipart.util.QuotedPrintableDecodingOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p> The main class for parsing a multipart stream in an NIO mode. A new instance can be created and the
- *     data can be written invoking the {@link #write(byte[], int, int)}, {@link #write(byte[])} or {@link #write(int)} methods.
+ *     data can be written invoking the {@link #write(byte[], int, int)}, {@link #write(byte[])}, {@link #write(int)} or {@link #write(ByteBuffer)} methods.
  *     As data is written, the parser is identifying the various parts and notifying the client via the {@link NioMultipartParserListener} listener.
  *
  * <p> The class extends {@code OutputStream} and it can be seen as a 'splitter' where the main stream (the multipart body) is saved into different streams (one for each part).
  *     Each individual stream can be read back by the client when it's notified about the part completion.
  *     For more information about the events raised by the parser see {@link NioMultipartParserListener}.
+ *     If the listener is a {@link NioMultipartParserStreamingListener}, the part bodies are not stored, but streamed to the listener as they are parsed.
+ *
+ * <p> The parser is not thread safe and it must be used by one thread at a time. Its state is held in plain fields, so if the writes
+ *     can move from one thread to another (like the callbacks of a Servlet {@code ReadListener}) without any other synchronization in
+ *     between, the thread leaving the parser must call {@link #handOff()} and the thread picking it up must call {@link #takeOver()}.
  *
  * @author Silvano Riz.
  */
@@ -76,6 +85,9 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
      */
     public static final byte[] HEADER_DELIMITER = {CR, LF, CR, LF};
 
+    // Used to run the FSM steps that do not need any data
+    private static final byte[] EMPTY = new byte[0];
+
     /**
      * Default number of nested multiparts body.
      */
@@ -131,25 +143,55 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
         private int currentIndex;
         private int indexEnd;
         private byte[] data;
+        private ByteBuffer buffer;
         private boolean finished;
+        private boolean suspendable;
 
-        void init(final int currentIndex, final int indexEnd, final byte[] data, final boolean finished) {
+        void init(final int currentIndex, final int indexEnd, final byte[] data, final boolean finished, final boolean suspendable) {
             this.currentIndex = currentIndex;
             this.indexEnd = indexEnd;
             this.data = data;
+            this.buffer = null;
             this.finished = finished;
+            this.suspendable = suspendable;
+        }
+
+        void init(final ByteBuffer buffer, final boolean finished, final boolean suspendable) {
+            this.currentIndex = buffer.position();
+            this.indexEnd = buffer.limit();
+            this.data = null;
+            this.buffer = buffer;
+            this.finished = finished;
+            this.suspendable = suspendable;
         }
 
         int read() {
             if (currentIndex >= indexEnd) {
                 return -1;
             } else {
-                byte ret = data[currentIndex];
+                byte ret = data != null ? data[currentIndex] : buffer.get(currentIndex);
                 currentIndex++;
                 return ret & 0xff;
             }
         }
 
+        /*
+         * Writes all the remaining data into the EndOfLineBuffer in one go. The buffer stops consuming right
+         * after an end of line sequence, so the rest of the data is left for the next state.
+         * Returns true if the end of line sequence has been encountered.
+         */
+        boolean write(final EndOfLineBuffer endOfLineBuffer) {
+            if (currentIndex < indexEnd) {
+                if (data != null) {
+                    currentIndex += endOfLineBuffer.write(data, currentIndex, indexEnd - currentIndex);
+                } else {
+                    buffer.position(currentIndex);
+                    currentIndex += endOfLineBuffer.write(buffer);
+                }
+            }
+            return endOfLineBuffer.isEndOfLine();
+        }
+
         void setNotFinished() {
             finished = false;
         }
@@ -163,6 +205,291 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
         }
     }
 
+    /**
+     * {@code ByteStore} used in place of the one provided by the {@link PartBodyByteStoreFactory} when the listener is a
+     * {@link NioMultipartParserStreamingListener}. Nothing is stored, every write is forwarded to the listener as a {@code ByteBuffer}.
+     */
+    private static class PartBodyStreamer extends ByteStore {
+
+        private NioMultipartParserStreamingListener listener;
+
+        PartBodyStreamer init(final NioMultipartParserStreamingListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        @Override
+        public void write(final int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            if (len > 0) {
+                listener.onPartData(ByteBuffer.wrap(b, off, len));
+            }
+        }
+
+        @Override
+        public void write(final ByteBuffer src) {
+            if (src.hasRemaining()) {
+                listener.onPartData(src);
+                src.position(src.limit());
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            throw new IllegalStateException("The part body has been streamed to the listener and it cannot be read back.");
+        }
+
+        @Override
+        public boolean dismiss() {
+            return true;
+        }
+    }
+
+    /**
+     * {@code ByteStore} decoding the data of a part body with a base64 or quoted-printable Content-Transfer-Encoding before
+     * writing it to the actual {@code ByteStore}. The parser writes to it, while the listener gets the actual {@code ByteStore}.
+     */
+    private static class DecodingByteStore extends ByteStore {
+
+        final ByteStore target;
+        final OutputStream decoder;
+
+        DecodingByteStore(final ByteStore target, final OutputStream decoder) {
+            this.target = target;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            decoder.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            decoder.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            decoder.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            decoder.close();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return target.getInputStream();
+        }
+
+        @Override
+        public boolean dismiss() {
+            return target.dismiss();
+        }
+    }
+
+    /**
+     * {@code ByteStore} coalescing the small fragments of a part body written by the parser into larger writes to the actual {@code ByteStore}.
+     * It also flushes the actual {@code ByteStore} every time the amount of bytes configured in the {@link FlushPolicy} has been written.
+     * The instance is reused for all the parts, so the buffer is allocated only once.
+     */
+    private static class CoalescingByteStore extends ByteStore {
+
+        final byte[] buffer;
+        int count;
+        ByteStore target;
+        long flushInterval;
+        long bytesSinceFlush;
+
+        CoalescingByteStore(final int size) {
+            this.buffer = new byte[size];
+        }
+
+        CoalescingByteStore init(final ByteStore target, final FlushPolicy flushPolicy) {
+            this.target = target;
+            this.flushInterval = flushPolicy.getFlushInterval();
+            this.count = 0;
+            this.bytesSinceFlush = 0;
+            return this;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (buffer.length == 0) {
+                target.write(b);
+            } else {
+                if (count == buffer.length) {
+                    drain();
+                }
+                buffer[count++] = (byte) b;
+            }
+            written(1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len >= buffer.length) {
+                // Nothing to gain copying it, write it straight away
+                drain();
+                target.write(b, off, len);
+            } else {
+                if (len > buffer.length - count) {
+                    drain();
+                }
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+            written(len);
+        }
+
+        @Override
+        public void write(final ByteBuffer src) throws IOException {
+            final int len = src.remaining();
+            if (len >= buffer.length) {
+                drain();
+                target.write(src);
+            } else {
+                if (len > buffer.length - count) {
+                    drain();
+                }
+                src.get(buffer, count, len);
+                count += len;
+            }
+            written(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                target.close();
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return target.getInputStream();
+        }
+
+        @Override
+        public boolean dismiss() {
+            count = 0;
+            return target.dismiss();
+        }
+
+        void written(final int len) throws IOException {
+            if (flushInterval > 0) {
+                bytesSinceFlush += len;
+                if (bytesSinceFlush >= flushInterval) {
+                    flush();
+                    bytesSinceFlush = 0;
+                }
+            }
+        }
+
+        void drain() throws IOException {
+            if (count > 0) {
+                target.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * <p> A serializable snapshot of the status of a {@code NioMultipartParser}, taken via {@link #checkpoint()}. A new parser,
+     *     possibly in a different process, can be restored from it via {@link #restore(Checkpoint)} and continue the parsing
+     *     from the byte at {@link #getPosition()}, without parsing the data before it again.
+     * <p> The checkpoint holds the status of the state machine, the delimiters of the (nested) multipart, the data buffered and not processed yet,
+     *     the partial headers section and, if the parser is in the middle of a part body, the status of the part body {@code ByteStore}
+     *     as saved by the {@link ResumablePartBodyByteStoreFactory}.
+     */
+    public static final class Checkpoint implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String state;
+        // From the innermost to the outermost delimiter
+        final ArrayList<byte[]> delimiterPrefixes;
+        final byte[] endOfLineSequence;
+        final byte[] bufferedData;
+        final int endOfLineSequenceMatchingLength;
+        final byte[] delimiterSuffix;
+        final int delimiterSuffixIndex;
+        final byte[] partialHeadersSection;
+        final LinkedHashMap<String, List<String>> headers;
+        final int partIndex;
+        final boolean skippingPart;
+        final boolean streamingPartBody;
+        final Serializable partBodyByteStoreCheckpoint;
+        final long position;
+
+        Checkpoint(final NioMultipartParser parser, final Serializable partBodyByteStoreCheckpoint) {
+            this.state = parser.currentState.name();
+            this.delimiterPrefixes = new ArrayList<byte[]>(parser.delimiterPrefixes);
+            this.endOfLineSequence = parser.endOfLineBuffer.getEndOfLineSequence();
+            this.bufferedData = parser.endOfLineBuffer.getBufferedData();
+            this.endOfLineSequenceMatchingLength = parser.endOfLineBuffer.getEndOfLineSequenceMatchingLength();
+            this.delimiterSuffix = parser.delimiterType.delimiterSuffix.clone();
+            this.delimiterSuffixIndex = parser.delimiterType.index;
+            this.partialHeadersSection = parser.headersByteArrayOutputStream.toByteArray();
+            if (parser.headers != null) {
+                this.headers = new LinkedHashMap<String, List<String>>();
+                for (Map.Entry<String, List<String>> header : parser.headers.entrySet()) {
+                    this.headers.put(header.getKey(), new ArrayList<String>(header.getValue()));
+                }
+            } else {
+                this.headers = null;
+            }
+            this.partIndex = parser.partIndex;
+            this.skippingPart = parser.skippingPart;
+            this.streamingPartBody = parser.partBodyByteStore == parser.partBodyStreamer;
+            this.partBodyByteStoreCheckpoint = partBodyByteStoreCheckpoint;
+            this.position = parser.position;
+        }
+
+        /**
+         * <p> Returns the position in the multipart stream of the first byte not processed by the parser when the checkpoint was taken.
+         *     A restored parser has to be fed with the data starting from this position.
+         *
+         * @return the position of the first byte not processed.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * <p> Returns the index of the part the parser was processing when the checkpoint was taken, starting from 1.
+         *
+         * @return the index of the current part.
+         */
+        public int getPartIndex() {
+            return partIndex;
+        }
+
+        /**
+         * <p> Returns the status of the part body {@code ByteStore}, as saved by the {@link ResumablePartBodyByteStoreFactory}, or null
+         *     if the parser was not writing a part body into a {@code ByteStore} when the checkpoint was taken.
+         *
+         * @return the status of the part body {@code ByteStore} or null.
+         */
+        public Serializable getPartBodyByteStoreCheckpoint() {
+            return partBodyByteStoreCheckpoint;
+        }
+    }
+
     // FSM States
     private enum State {
         SKIP_PREAMBLE,
@@ -183,12 +510,12 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
     /*
      * The multipart context. Content-Type, Content-Length and Char Cncoding
      */
-    final MultipartContext multipartContext;
+    MultipartContext multipartContext;
 
     /*
      * Listener to notify
      */
-    final NioMultipartParserListener nioMultipartParserListener;
+    NioMultipartParserListener nioMultipartParserListener;
 
     /*
      * Factory that will be used to get an OutputStream where to store a multipart body and retrieve its related
@@ -218,8 +545,9 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
 
     /*
     * Stack of delimiters. Using a stack to support nested multipart requests.
+    * The stack is accessed by one thread at a time, so it does not need the synchronization of a java.util.Stack.
     */
-    final Stack<byte[]> delimiterPrefixes = new Stack<byte[]>();
+    final Deque<byte[]> delimiterPrefixes = new ArrayDeque<byte[]>();
 
     /*
      * If debug mode is enabled it keeps track of the FSM transitions
@@ -232,32 +560,123 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
      */
     final WriteContext wCtx = new WriteContext();
 
+    /*
+     * Forwards the part bodies to the listener, if it's a NioMultipartParserStreamingListener
+     */
+    final PartBodyStreamer partBodyStreamer = new PartBodyStreamer();
+
     /*
      * Current state of the ASF
      */
-    volatile State currentState = State.SKIP_PREAMBLE;
+    State currentState = State.SKIP_PREAMBLE;
 
     /*
      * Current output stream where to flush the body data.
      * It will be instantiated for each part via {@link BodyStreamFactory#getOutputStream(Map, int)} )}
      */
-    volatile ByteStore partBodyByteStore = null;
+    ByteStore partBodyByteStore = null;
 
     /*
      * The current headers.
      */
-    volatile Map<String, List<String>> headers = null;
+    Map<String, List<String>> headers = null;
 
 
     /*
      * Keeps track of how many parts we encountered
      */
-    volatile int partIndex = 1;
+    int partIndex = 1;
 
     /**
      * Close/open status of the output stram
      */
-    volatile AtomicBoolean closed = new AtomicBoolean(false);
+    final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /*
+     * Written by handOff() and read by takeOver() to publish the state of the parser to the next thread using it.
+     */
+    volatile int handOffs = 0;
+
+    /*
+     * True if the client asked to stop the processing of the data. See {@link #suspend()}
+     */
+    boolean suspended = false;
+
+    /*
+     * The pool the parser has been borrowed from, if any. When closed the parser is returned to the pool.
+     */
+    MultipartParserPool pool = null;
+
+    /*
+     * Reference used by the pool to detect parsers that are never returned.
+     */
+    Reference<NioMultipartParser> poolReference = null;
+
+    /*
+     * Collects the metrics. See {@link MultipartMetrics}
+     */
+    MultipartMetrics metrics = NoOpMultipartMetrics.INSTANCE;
+
+    /*
+     * Measuring the time spent in the states has a cost, so it's done only when metrics are installed.
+     */
+    boolean stateTimingEnabled = false;
+
+    /*
+     * If true, part bodies with a base64 or quoted-printable Content-Transfer-Encoding are decoded before being stored.
+     */
+    boolean decodeContentTransferEncoding = false;
+
+    /*
+     * When the ByteStore of a part body is flushed. See {@link FlushPolicy}
+     */
+    FlushPolicy flushPolicy = FlushPolicy.ON_PART_END;
+
+    /*
+     * Size of the buffer used to coalesce the writes to the ByteStore of a part body. 0 means no coalescing.
+     */
+    int writeCoalescingSize = 0;
+
+    /*
+     * Coalesces the writes to the ByteStore of a part body. Created on demand and reused.
+     */
+    CoalescingByteStore coalescingByteStore = null;
+
+    /*
+     * Number of bytes of the multipart stream processed so far. See {@link Checkpoint#getPosition()}
+     */
+    long position = 0;
+
+    /*
+     * Decides which parts are processed. If null and the listener is a PartFilter, the listener is used. See {@link PartFilter}
+     */
+    PartFilter partFilter = null;
+
+    /*
+     * True while the body of a part discarded by the PartFilter is skipped.
+     */
+    boolean skippingPart = false;
+
+    /*
+     * True while the FSM is running. Used to avoid re-entrant processing when resume() is called from a callback and
+     * to defer the completion of a close() called while the data is processed (from a callback or from another thread).
+     */
+    volatile boolean processing = false;
+
+    /*
+     * Set once the ByteStore being written has been closed and the parser returned to the pool. See {@link #close()}
+     */
+    final AtomicBoolean closeCompleted = new AtomicBoolean(false);
+
+    /*
+     * If true, a close deferred until the end of the processing dismisses the ByteStore being written instead of closing it.
+     */
+    volatile boolean dismissOnClose = false;
+
+    /*
+     * The part body ByteStore saved in the last checkpoint. The parser never dismisses it, the data is needed to resume the parsing.
+     */
+    volatile ByteStore checkpointedPartBodyByteStore;
 
     // ------------
     // Constructors
@@ -335,28 +754,168 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
         this.endOfLineBuffer = new EndOfLineBuffer(bufferSize, getPreambleDelimiterPrefix(delimiterPrefixes.peek()), null);
     }
 
+    /*
+     * Constructs a parser taking over the buffers of a parser returned to the pool. Every borrow gets a new instance (a lease), so a late
+     * close() of the previous client (e.g. onComplete after onError) finds its own instance already closed and it cannot return to the pool
+     * the parser of the next client.
+     */
+    NioMultipartParser(final NioMultipartParser released, final MultipartContext multipartContext, final NioMultipartParserListener nioMultipartParserListener) {
+        this.multipartContext = multipartContext;
+        this.nioMultipartParserListener = nioMultipartParserListener;
+        this.delimiterPrefixes.push(getDelimiterPrefix(multipartContext.getContentType()));
+        this.maxLevelOfNestedMultipart = released.maxLevelOfNestedMultipart;
+        this.partBodyByteStoreFactory = released.partBodyByteStoreFactory;
+        this.headersByteArrayOutputStream = released.headersByteArrayOutputStream;
+        this.headersByteArrayOutputStream.reset();
+        this.endOfLineBuffer = released.endOfLineBuffer;
+        this.endOfLineBuffer.reset(getPreambleDelimiterPrefix(delimiterPrefixes.peek()), null);
+        this.coalescingByteStore = released.coalescingByteStore;
+        this.pool = released.pool;
+
+        // The released parser stays closed forever, reset() rejects closed parsers
+        released.coalescingByteStore = null;
+        released.pool = null;
+    }
+
+    /**
+     * <p> Resets the parser so that it can be reused to process a new multipart stream, keeping the buffers allocated for the previous one.
+     *     Whatever the state of the parser, it goes back to the initial state. If a part body was being written, its {@link ByteStore} is dismissed,
+     *     while the {@code ByteStore}s already passed to the previous listener are left untouched. The {@link MultipartMetrics}, if any, are removed,
+     *     the Content-Transfer-Encoding decoding is disabled, the {@link PartFilter} is removed and the default {@link FlushPolicy} without
+     *     write coalescing is restored.
+     * <p> The parser cannot be reset once closed (a parser borrowed from a {@link MultipartParserPool} hands its buffers over to the next
+     *     borrower when closed) nor while it is processing data, for example from a callback.
+     *
+     * <p> The parser must not be used by the previous client anymore after this method is called.
+     *
+     * @param multipartContext The multipart context of the new stream
+     * @param nioMultipartParserListener The listener that will be notified
+     */
+    public void reset(final MultipartContext multipartContext, final NioMultipartParserListener nioMultipartParserListener) {
+        if (processing) {
+            throw new IllegalStateException("Cannot reset the parser while it is processing data.");
+        }
+        if (closed.get()) {
+            throw new IllegalStateException("Cannot reset the parser, the parser is closed.");
+        }
+        final byte[] delimiterPrefix = getDelimiterPrefix(multipartContext.getContentType());
+        if (partBodyByteStore != null) {
+            dismissPartBodyByteStore(partBodyByteStore);
+        }
+        this.checkpointedPartBodyByteStore = null;
+        this.multipartContext = multipartContext;
+        this.nioMultipartParserListener = nioMultipartParserListener;
+        this.delimiterPrefixes.clear();
+        this.delimiterPrefixes.push(delimiterPrefix);
+        this.delimiterType.reset();
+        this.fsmTransitions.clear();
+        this.headersByteArrayOutputStream.reset();
+        this.endOfLineBuffer.reset(getPreambleDelimiterPrefix(delimiterPrefix), null);
+        this.partBodyByteStore = null;
+        this.headers = null;
+        this.partIndex = 1;
+        this.suspended = false;
+        setMetrics(null);
+        this.decodeContentTransferEncoding = false;
+        this.flushPolicy = FlushPolicy.ON_PART_END;
+        this.writeCoalescingSize = 0;
+        this.partFilter = null;
+        this.skippingPart = false;
+        this.position = 0;
+        this.currentState = State.SKIP_PREAMBLE;
+    }
+
+    /**
+     * <p> Closes the parser. If the parser has been borrowed from a {@link MultipartParserPool}, it is returned to the pool.
+     *     Calling it more than once, or from different threads, has no effect after the first call.
+     * <p> If the parser is processing data (the method is called from a callback of the parser, or from another thread while a write is
+     *     in progress) the {@code ByteStore} being written is closed, and the parser returned to the pool, when the processing exits.
+     * <p> If a {@link Checkpoint} has been taken in the middle of a part body, the {@code ByteStore} of the part body is kept, even if the parser
+     *     is dismissed or returned to a pool, so the parsing can be resumed via {@link #restore(Checkpoint)}. If the parsing is not going to
+     *     be resumed, it's up to the application to remove the data saved in the checkpoint.
+     *
+     * @throws IOException if the {@code ByteStore} being written cannot be closed.
+     */
     @Override
     public void close() throws IOException {
-        if (closed.compareAndSet(false, true)) {
-            if (partBodyByteStore != null) {
-                partBodyByteStore.close();
-            }
+        // close() can be called from other threads (e.g. AsyncListener callbacks), the parser must be returned to the pool only once
+        if (closed.compareAndSet(false, true) && !processing) {
+            completeClose(false);
         }
     }
 
     @Override
     public boolean dismiss() {
+        // Once closed a pooled parser can be handed to another client, so the ByteStore is captured beforehand
+        final ByteStore partBodyByteStore = this.partBodyByteStore;
+        final boolean checkpointed = isCheckpointed(partBodyByteStore);
+        dismissOnClose = true;
         try {
             close();
         } catch(IOException e) {
             // Do nothing
         }
-        if (partBodyByteStore != null) {
+        if (!closeCompleted.get()) {
+            // The parser is processing data, the ByteStore is dismissed when the processing exits.
+            return true;
+        }
+        if (partBodyByteStore != null && !checkpointed) {
             return partBodyByteStore.dismiss();
         }
         return true;
     }
 
+    /*
+     * Completes the close() once the parser is not processing data. The closed flag is written before the processing flag is read by close()
+     * and the other way round by process(), so at least one of the two completes the close. The CAS makes sure it's done only once.
+     */
+    void completeClose(final boolean dismissPartBody) throws IOException {
+        if (closeCompleted.compareAndSet(false, true)) {
+            try {
+                if (partBodyByteStore != null) {
+                    if (dismissPartBody) {
+                        dismissPartBodyByteStore(partBodyByteStore);
+                    } else {
+                        partBodyByteStore.close();
+                    }
+                }
+            } finally {
+                if (pool != null) {
+                    pool.release(this);
+                }
+            }
+        }
+    }
+
+    boolean isCheckpointed(final ByteStore byteStore) {
+        final ByteStore target = byteStore instanceof CoalescingByteStore ? ((CoalescingByteStore) byteStore).target : byteStore;
+        return target != null && target == checkpointedPartBodyByteStore;
+    }
+
+    /*
+     * Dismisses the ByteStore of a part body nobody is going to read. The ByteStore saved in a checkpoint is only closed instead,
+     * the data written up to the checkpoint is needed to resume the parsing.
+     */
+    boolean dismissPartBodyByteStore(final ByteStore byteStore) {
+        if (isCheckpointed(byteStore)) {
+            try {
+                checkpointedPartBodyByteStore.close();
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) log.debug("Unable to close the checkpointed part body ByteStore", e);
+            }
+            return true;
+        }
+        return byteStore.dismiss();
+    }
+
+    void completeDeferredClose() {
+        try {
+            completeClose(dismissOnClose);
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) log.debug("Unable to close the part body ByteStore", e);
+        }
+    }
+
     @Override
     public void flush() throws IOException {
         if (partBodyByteStore != null) {
@@ -405,69 +964,360 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
             throw new IllegalArgumentException("The end index cannot be greater than the size of the data. End index: " + indexEnd + ", Data length: " + data.length);
         }
 
-        wCtx.init(indexStart, indexEnd, data, false);
-        while (!wCtx.finished) {
-            switch (currentState) {
+        wCtx.init(indexStart, indexEnd, data, false, false);
+        process(wCtx);
+    }
 
-                case SKIP_PREAMBLE:
-                    skipPreamble(wCtx);
-                    break;
+    /**
+     * <p> Writes the remaining bytes of a {@code ByteBuffer}. Heap and direct buffers are both processed without copying the data into
+     *     an intermediate array. The data of a part body is handed to the part {@link ByteStore} as {@code ByteBuffer} slices via {@link ByteStore#write(ByteBuffer)}.
+     *
+     * <p> Unlike the {@code OutputStream} write methods, this method honours {@link #suspend()}: if the parser is (or becomes) suspended
+     *     while the data is processed, the method returns early and the position of the buffer is left on the first byte not consumed.
+     *     Otherwise, when the method returns, the position of the buffer is equal to its limit.
+     *
+     * @param data The {@code ByteBuffer} with the data.
+     * @return The number of bytes consumed.
+     */
+    public int write(final ByteBuffer data) {
 
-                case IDENTIFY_PREAMBLE_DELIMITER:
-                    identifyPreambleDelimiter(wCtx);
-                    break;
+        if (closed.get()){
+            throw new IllegalStateException("Cannot write, the parser is closed.");
+        }
 
-                case GET_READY_FOR_HEADERS:
-                    getReadyForHeaders(wCtx);
-                    break;
+        if (data == null) {
+            goToState(State.ERROR);
+            throw new IllegalArgumentException("Data cannot be null");
+        }
 
-                case READ_HEADERS:
-                    readHeaders(wCtx);
-                    break;
+        final int start = data.position();
+        if (!data.hasRemaining() || suspended) {
+            return 0;
+        }
 
-                case GET_READY_FOR_BODY:
-                    getReadyForBody(wCtx);
-                    break;
+        if (data.hasArray()) {
+            final int arrayOffset = data.arrayOffset();
+            wCtx.init(arrayOffset + start, arrayOffset + data.limit(), data.array(), false, true);
+            process(wCtx);
+            data.position(wCtx.currentIndex - arrayOffset);
+        } else {
+            wCtx.init(data, false, true);
+            process(wCtx);
+            data.position(wCtx.currentIndex);
+        }
+        return data.position() - start;
+    }
 
-                case READ_BODY:
-                    readBody(wCtx);
-                    break;
+    /**
+     * <p> Asks the parser to stop consuming data. It is meant to be called when a downstream component ({@link ByteStore} or listener) is
+     *     slower than the producer of the data, typically from within one of the listener callbacks or a {@code ByteStore} write.
+     *     The parser stops at the end of the current step of the processing (a part body slice, a headers section, a delimiter, ...)
+     *     and {@link #write(ByteBuffer)} returns the number of bytes consumed so far, leaving the rest in the buffer.
+     *     Until {@link #resume()} is called, {@link #write(ByteBuffer)} does not consume any data.
+     *
+     * <p> The {@code OutputStream} write methods cannot do partial writes, so they keep consuming all the data. Clients using them can still
+     *     check {@link #isSuspended()} after each write to stop reading from the source.
+     */
+    public void suspend() {
+        suspended = true;
+    }
 
-                case IDENTIFY_BODY_DELIMITER:
-                    identifyBodyDelimiter(wCtx);
-                    break;
+    /**
+     * <p> Allows the parser to consume data again after a {@link #suspend()}. If the parser was suspended before completing a step that
+     *     does not need more data (for example the notification of the end of the multipart after the close delimiter), the step is
+     *     executed before returning, unless the method is called from within a callback of the parser itself.
+     *     Like the write methods, this method must not be called concurrently with a write.
+     */
+    public void resume() {
+        suspended = false;
+        if (!processing && !closed.get() && currentState != State.ERROR) {
+            wCtx.init(0, 0, EMPTY, false, true);
+            process(wCtx);
+        }
+    }
 
-                case PART_COMPLETE:
-                    partComplete(wCtx);
-                    break;
+    /**
+     * <p> Returns whether the parser has been suspended via {@link #suspend()}.
+     *
+     * @return true if the parser is suspended, false otherwise.
+     */
+    public boolean isSuspended() {
+        return suspended;
+    }
 
-                case GET_READY_FOR_NESTED_MULTIPART:
-                    getReadyForNestedMultipart(wCtx);
-                    break;
+    /**
+     * <p> Publishes the state of the parser before the parsing continues on another thread. To be called by the thread that wrote
+     *     the last data, before the next thread calls {@link #takeOver()}.
+     * <p> Not needed if the threads are already synchronized, for example when the next write is submitted to an {@code ExecutorService}
+     *     or the parser is returned to a {@link MultipartParserPool} and borrowed again.
+     */
+    public void handOff() {
+        handOffs = handOffs + 1;
+    }
 
-                case NESTED_PART_READ:
-                    nestedPartRead(wCtx);
-                    break;
+    /**
+     * <p> Makes visible the state of the parser published by the last {@link #handOff()}. To be called by the thread continuing the
+     *     parsing, before writing data. The returned number of hand-offs lets a thread wait for its turn, if the threads have no other
+     *     way to synchronize.
+     *
+     * @return the number of times {@link #handOff()} has been called so far.
+     */
+    public int takeOver() {
+        // The volatile read pairs with the volatile write in handOff()
+        return handOffs;
+    }
 
-                case ALL_PARTS_READ:
-                    allPartsRead(wCtx);
-                    break;
+    /**
+     * <p> Takes a {@link Checkpoint} of the parser. The checkpoint can be taken between two writes, but not from within a callback of the parser.
+     *     If the parser is in the middle of a part body, the data written so far is flushed and the status of the part body {@code ByteStore}
+     *     is saved via the {@link ResumablePartBodyByteStoreFactory}, so the {@code PartBodyByteStoreFactory} must be resumable. The parser
+     *     can continue the processing after the checkpoint.
+     *
+     * @return the {@code Checkpoint}.
+     * @throws IOException If the status of the part body {@code ByteStore} cannot be saved.
+     */
+    public Checkpoint checkpoint() throws IOException {
+        if (processing) {
+            throw new IllegalStateException("Cannot take a checkpoint while the parser is processing data.");
+        }
+        if (closed.get() || currentState == State.ERROR) {
+            throw new IllegalStateException("Cannot take a checkpoint, the parser is closed or in an error state.");
+        }
+        Serializable partBodyByteStoreCheckpoint = null;
+        if (isWritingPartBody() && partBodyByteStore != partBodyStreamer) {
+            if (partBodyByteStore instanceof DecodingByteStore) {
+                throw new IllegalStateException("Cannot take a checkpoint while decoding the Content-Transfer-Encoding of a part body.");
+            }
+            if (!(partBodyByteStoreFactory instanceof ResumablePartBodyByteStoreFactory)) {
+                throw new IllegalStateException("Cannot take a checkpoint in the middle of a part body, the PartBodyByteStoreFactory is not resumable.");
+            }
+            partBodyByteStore.flush();
+            final ByteStore byteStore = partBodyByteStore instanceof CoalescingByteStore ? ((CoalescingByteStore) partBodyByteStore).target : partBodyByteStore;
+            partBodyByteStoreCheckpoint = ((ResumablePartBodyByteStoreFactory) partBodyByteStoreFactory).checkpointByteStore(byteStore);
+            checkpointedPartBodyByteStore = byteStore;
+        }
+        return new Checkpoint(this, partBodyByteStoreCheckpoint);
+    }
+
+    /**
+     * <p> Restores the status saved in a {@link Checkpoint}. The parser then expects the data of the multipart stream starting from
+     *     {@link Checkpoint#getPosition()}. It is meant to be called on a new parser, built with the same configuration of the parser
+     *     the checkpoint was taken from. If the checkpoint was taken in the middle of a part body, the {@code ByteStore} where to write
+     *     the rest of the body is obtained via {@link ResumablePartBodyByteStoreFactory#resumeByteStoreForPartBody(Map, int, Serializable)}.
+     *
+     * @param checkpoint The {@code Checkpoint} to restore.
+     */
+    public void restore(final Checkpoint checkpoint) {
+        if (processing) {
+            throw new IllegalStateException("Cannot restore a checkpoint while the parser is processing data.");
+        }
+        if (closed.get()) {
+            throw new IllegalStateException("Cannot restore a checkpoint, the parser is closed.");
+        }
+        if (partBodyByteStore != null) {
+            dismissPartBodyByteStore(partBodyByteStore);
+        }
+        this.checkpointedPartBodyByteStore = null;
+        this.currentState = State.valueOf(checkpoint.state);
+        this.delimiterPrefixes.clear();
+        for (byte[] delimiterPrefix : checkpoint.delimiterPrefixes) {
+            this.delimiterPrefixes.addLast(delimiterPrefix);
+        }
+        this.delimiterType.reset();
+        for (int i = 0; i < checkpoint.delimiterSuffixIndex; i++) {
+            this.delimiterType.addDelimiterByte(checkpoint.delimiterSuffix[i]);
+        }
+        this.headersByteArrayOutputStream.reset();
+        this.headersByteArrayOutputStream.write(checkpoint.partialHeadersSection, 0, checkpoint.partialHeadersSection.length);
+        this.headers = checkpoint.headers != null ? new PartHeaders(checkpoint.headers) : null;
+        this.partIndex = checkpoint.partIndex;
+        this.skippingPart = checkpoint.skippingPart;
+        this.position = checkpoint.position;
+        this.partBodyByteStore = null;
+        if (isWritingPartBody()) {
+            if (checkpoint.streamingPartBody) {
+                partBodyByteStore = partBodyStreamer.init((NioMultipartParserStreamingListener) nioMultipartParserListener);
+            } else if (partBodyByteStoreFactory instanceof ResumablePartBodyByteStoreFactory) {
+                partBodyByteStore = withCoalescing(((ResumablePartBodyByteStoreFactory) partBodyByteStoreFactory)
+                        .resumeByteStoreForPartBody(headers, partIndex, checkpoint.partBodyByteStoreCheckpoint));
+            } else {
+                throw new IllegalStateException("Cannot restore a checkpoint taken in the middle of a part body, the PartBodyByteStoreFactory is not resumable.");
+            }
+        }
+        final OutputStream flushOutputStream;
+        if (currentState == State.READ_HEADERS) {
+            flushOutputStream = headersByteArrayOutputStream;
+        } else {
+            flushOutputStream = partBodyByteStore;
+        }
+        endOfLineBuffer.restore(sameEndOfLineSequence(checkpoint.endOfLineSequence), flushOutputStream, checkpoint.bufferedData, checkpoint.endOfLineSequenceMatchingLength);
+    }
 
-                case SKIP_EPILOGUE:
-                    skipEpilogue(wCtx);
-                    break;
+    /*
+     * True if the parser is writing the body of a part into the part body ByteStore (or streaming it to the listener)
+     */
+    boolean isWritingPartBody() {
+        return !skippingPart && (isReadingBody() || currentState == State.PART_COMPLETE);
+    }
+
+    /*
+     * The end of line sequences restored from a checkpoint are replaced by the ones used by the parser,
+     * so the lookup tables of the end of line buffer are computed just once per sequence.
+     */
+    byte[] sameEndOfLineSequence(final byte[] endOfLineSequence) {
+        if (Arrays.equals(endOfLineSequence, HEADER_DELIMITER)) {
+            return HEADER_DELIMITER;
+        }
+        for (byte[] delimiterPrefix : delimiterPrefixes) {
+            if (Arrays.equals(endOfLineSequence, delimiterPrefix)) {
+                return delimiterPrefix;
+            }
+        }
+        return endOfLineSequence;
+    }
+
+    /*
+     * Enables the Content-Transfer-Encoding decoding. Used by the Multipart.Builder
+     */
+    void setDecodeContentTransferEncoding(final boolean decodeContentTransferEncoding) {
+        this.decodeContentTransferEncoding = decodeContentTransferEncoding;
+    }
+
+    /*
+     * Sets when the ByteStore of a part body is flushed. Used by the Multipart.Builder
+     */
+    void setFlushPolicy(final FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy != null ? flushPolicy : FlushPolicy.ON_PART_END;
+    }
 
-                case ERROR:
-                    throw new IllegalStateException("Parser is in an error state.");
+    /*
+     * Sets the size of the buffer used to coalesce the writes to the ByteStore of a part body. Used by the Multipart.Builder
+     */
+    void setWriteCoalescingSize(final int writeCoalescingSize) {
+        this.writeCoalescingSize = writeCoalescingSize;
+    }
 
-                default:
-                    // This should never happen...
-                    throw new IllegalStateException("Unknown state");
+    /*
+     * Installs the filter deciding which parts are processed. Used by the Multipart.Builder
+     */
+    void setPartFilter(final PartFilter partFilter) {
+        this.partFilter = partFilter;
+    }
 
+    /*
+     * Installs the metrics. Used by the Multipart.Builder
+     */
+    void setMetrics(final MultipartMetrics metrics) {
+        this.metrics = metrics != null ? metrics : NoOpMultipartMetrics.INSTANCE;
+        this.stateTimingEnabled = this.metrics != NoOpMultipartMetrics.INSTANCE;
+    }
+
+    void notifyError(final String message, final Throwable cause) {
+        metrics.recordError(message, cause);
+        nioMultipartParserListener.onError(message, cause);
+    }
+
+    boolean isReadingBody() {
+        return currentState == State.READ_BODY || currentState == State.IDENTIFY_BODY_DELIMITER;
+    }
+
+    void process(final WriteContext wCtx) {
+        final int startIndex = wCtx.currentIndex;
+        processing = true;
+        if (closed.get()) {
+            // Closed by another thread after the check done by the write
+            processing = false;
+            completeDeferredClose();
+            throw new IllegalStateException("Cannot write, the parser is closed.");
+        }
+        try {
+            doProcess(wCtx);
+        } finally {
+            if (wCtx.currentIndex > startIndex) {
+                position += wCtx.currentIndex - startIndex;
+                metrics.recordBytesParsed(wCtx.currentIndex - startIndex);
+            }
+            processing = false;
+            if (closed.get()) {
+                completeDeferredClose();
             }
         }
     }
 
+    void doProcess(final WriteContext wCtx) {
+        while (!wCtx.finished && !(wCtx.suspendable && suspended)) {
+            if (stateTimingEnabled) {
+                final State state = currentState;
+                final long start = System.nanoTime();
+                executeState(wCtx);
+                metrics.recordStateTime(state.name(), System.nanoTime() - start);
+            } else {
+                executeState(wCtx);
+            }
+        }
+    }
+
+    void executeState(final WriteContext wCtx) {
+        switch (currentState) {
+
+            case SKIP_PREAMBLE:
+                skipPreamble(wCtx);
+                break;
+
+            case IDENTIFY_PREAMBLE_DELIMITER:
+                identifyPreambleDelimiter(wCtx);
+                break;
+
+            case GET_READY_FOR_HEADERS:
+                getReadyForHeaders(wCtx);
+                break;
+
+            case READ_HEADERS:
+                readHeaders(wCtx);
+                break;
+
+            case GET_READY_FOR_BODY:
+                getReadyForBody(wCtx);
+                break;
+
+            case READ_BODY:
+                readBody(wCtx);
+                break;
+
+            case IDENTIFY_BODY_DELIMITER:
+                identifyBodyDelimiter(wCtx);
+                break;
+
+            case PART_COMPLETE:
+                partComplete(wCtx);
+                break;
+
+            case GET_READY_FOR_NESTED_MULTIPART:
+                getReadyForNestedMultipart(wCtx);
+                break;
+
+            case NESTED_PART_READ:
+                nestedPartRead(wCtx);
+                break;
+
+            case ALL_PARTS_READ:
+                allPartsRead(wCtx);
+                break;
+
+            case SKIP_EPILOGUE:
+                skipEpilogue(wCtx);
+                break;
+
+            case ERROR:
+                throw new IllegalStateException("Parser is in an error state.");
+
+            default:
+                // This should never happen...
+                throw new IllegalStateException("Unknown state");
+
+        }
+    }
+
     // Convenience method to switch state. If debug is enabled il will save the transition sequence.
     void goToState(final State nextState) {
         if (log.isDebugEnabled()) {
@@ -477,13 +1327,8 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
     }
 
     void skipPreamble(final WriteContext wCtx) {
-        int byteOfData;
-        while ((byteOfData = wCtx.read()) != -1) {
-            if (endOfLineBuffer.write((byte)byteOfData)) {
-                goToState(State.IDENTIFY_PREAMBLE_DELIMITER);
-                wCtx.setFinishedIfNoMoreData();
-                return;
-            }
+        if (wCtx.write(endOfLineBuffer)) {
+            goToState(State.IDENTIFY_PREAMBLE_DELIMITER);
         }
         wCtx.setFinishedIfNoMoreData();
     }
@@ -498,45 +1343,99 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
 
 
     void readHeaders(final WriteContext wCtx) {
-        int byteOfData;
-        while ((byteOfData = wCtx.read()) != -1) {
-            if (endOfLineBuffer.write((byte)byteOfData)) {
-                parseHeaders();
-                String contentType = MultipartUtils.getHeader(MultipartUtils.CONTENT_TYPE, headers);
-                if (MultipartUtils.isMultipart(contentType)) {
-                    goToState(State.GET_READY_FOR_NESTED_MULTIPART);
-                } else {
-                    goToState(State.GET_READY_FOR_BODY);
-                }
-                wCtx.setFinishedIfNoMoreData();
+        if (wCtx.write(endOfLineBuffer)) {
+            parseHeaders();
+            if (currentState == State.ERROR) {
+                wCtx.setFinished();
                 return;
             }
+            skippingPart = !acceptPart();
+            if (!skippingPart && MultipartUtils.hasMultipartContentType(headers)) {
+                goToState(State.GET_READY_FOR_NESTED_MULTIPART);
+            } else {
+                goToState(State.GET_READY_FOR_BODY);
+            }
         }
         wCtx.setFinishedIfNoMoreData();
     }
 
     void parseHeaders() {
         try {
-            headers = HeadersParser.parseHeaders(new ByteArrayInputStream(headersByteArrayOutputStream.toByteArray()), multipartContext.getCharEncoding());
+            final byte[] headersSection;
+            if (headersByteArrayOutputStream instanceof FixedSizeByteArrayOutputStream) {
+                headersSection = ((FixedSizeByteArrayOutputStream) headersByteArrayOutputStream).getBuffer();
+            } else {
+                headersSection = headersByteArrayOutputStream.toByteArray();
+            }
+            metrics.recordHeadersSectionSize(headersByteArrayOutputStream.size());
+            headers = new PartHeaders(HeadersParser.parseHeaders(headersSection, 0, headersByteArrayOutputStream.size(), multipartContext.getCharEncoding()));
             headersByteArrayOutputStream.reset();
         } catch (Exception e) {
             goToState(State.ERROR);
-            nioMultipartParserListener.onError("Error parsing the part headers", e);
+            notifyError("Error parsing the part headers", e);
+        }
+    }
+
+    boolean acceptPart() {
+        if (partFilter != null) {
+            return partFilter.acceptPart(headers, partIndex);
+        } else if (nioMultipartParserListener instanceof PartFilter) {
+            return ((PartFilter) nioMultipartParserListener).acceptPart(headers, partIndex);
         }
+        return true;
     }
 
     void getReadyForBody(final WriteContext wCtx) {
-        partBodyByteStore = partBodyByteStoreFactory.newByteStoreForPartBody(headers, partIndex);
+        if (skippingPart) {
+            // Scan past the body without storing it
+            partBodyByteStore = null;
+            endOfLineBuffer.recycle(delimiterPrefixes.peek(), null);
+            delimiterType.reset();
+            goToState(State.READ_BODY);
+            wCtx.setFinishedIfNoMoreData();
+            return;
+        }
+        if (nioMultipartParserListener instanceof NioMultipartParserStreamingListener && !MultipartUtils.isFormField(headers)) {
+            final NioMultipartParserStreamingListener streamingListener = (NioMultipartParserStreamingListener) nioMultipartParserListener;
+            partBodyByteStore = partBodyStreamer.init(streamingListener);
+            streamingListener.onPartStarted(headers);
+        } else {
+            partBodyByteStore = withCoalescing(partBodyByteStoreFactory.newByteStoreForPartBody(headers, partIndex));
+        }
+        if (decodeContentTransferEncoding) {
+            partBodyByteStore = withDecoder(partBodyByteStore);
+        }
         endOfLineBuffer.recycle(delimiterPrefixes.peek(), partBodyByteStore);
         delimiterType.reset();
         goToState(State.READ_BODY);
         wCtx.setFinishedIfNoMoreData();
     }
 
+    ByteStore withCoalescing(final ByteStore byteStore) {
+        if (writeCoalescingSize <= 0 && flushPolicy.getFlushInterval() <= 0) {
+            return byteStore;
+        }
+        if (coalescingByteStore == null || coalescingByteStore.buffer.length != writeCoalescingSize) {
+            coalescingByteStore = new CoalescingByteStore(Math.max(writeCoalescingSize, 0));
+        }
+        return coalescingByteStore.init(byteStore, flushPolicy);
+    }
+
+    ByteStore withDecoder(final ByteStore byteStore) {
+        final String contentTransferEncoding = MultipartUtils.getHeader(MultipartUtils.CONTENT_TRANSFER_ENCODING, headers);
+        if ("base64".equalsIgnoreCase(contentTransferEncoding)) {
+            return new DecodingByteStore(byteStore, new Base64DecodingOutputStream(byteStore));
+        } else if ("quoted-printable".equalsIgnoreCase(contentTransferEncoding)) {
+            return new DecodingByteStore(byteStore, new QuotedPrintableDecodingOutputStream(byteStore));
+        } else {
+            return byteStore;
+        }
+    }
+
     void getReadyForNestedMultipart(final WriteContext wCtx) {
         if (delimiterPrefixes.size() > maxLevelOfNestedMultipart + 1) {
             goToState(State.ERROR);
-            nioMultipartParserListener.onError("Reached maximum number of nested multiparts: " + maxLevelOfNestedMultipart, null);
+            notifyError("Reached maximum number of nested multiparts: " + maxLevelOfNestedMultipart, null);
         } else {
             byte[] delimiter = getDelimiterPrefix(MultipartUtils.getHeader(MultipartUtils.CONTENT_TYPE, headers));
             delimiterType.reset();
@@ -549,13 +1448,8 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
     }
 
     void readBody(final WriteContext wCtx) {
-        int byteOfData;
-        while ((byteOfData = wCtx.read()) != -1) {
-            if (endOfLineBuffer.write((byte)byteOfData)) {
-                goToState(State.IDENTIFY_BODY_DELIMITER);
-                wCtx.setFinishedIfNoMoreData();
-                return;
-            }
+        if (wCtx.write(endOfLineBuffer)) {
+            goToState(State.IDENTIFY_BODY_DELIMITER);
         }
         wCtx.setFinishedIfNoMoreData();
     }
@@ -592,7 +1486,7 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
                     return;
                 } else {
                     goToState(State.ERROR);
-                    nioMultipartParserListener.onError("Unexpected characters follow a boundary", null);
+                    notifyError("Unexpected characters follow a boundary", null);
                     wCtx.setFinished();
                     return;
                 }
@@ -604,32 +1498,42 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
 
     void allPartsRead(final WriteContext wCtx) {
         goToState(State.SKIP_EPILOGUE);
+        metrics.recordPartsPerRequest(partIndex - 1);
         nioMultipartParserListener.onAllPartsFinished();
         wCtx.setFinishedIfNoMoreData();
     }
 
     void partComplete(final WriteContext wCtx){
 
-        // First flush the output stream and close it...
+        if (skippingPart) {
+            skippingPart = false;
+            goToStateAfterPart();
+            partIndex++;
+            wCtx.setFinishedIfNoMoreData();
+            return;
+        }
+
+        // First flush the output stream (if the policy says so) and close it...
         try{
-            partBodyByteStore.flush();
+            if (flushPolicy.isFlushOnPartEnd()) {
+                partBodyByteStore.flush();
+            }
             partBodyByteStore.close();
         }catch (Exception e){
             goToState(State.ERROR);
-            nioMultipartParserListener.onError("Unable to read/write the body data", e);
+            notifyError("Unable to read/write the body data", e);
             return;
         }
+        if (partBodyByteStore instanceof DecodingByteStore) {
+            // From now on the decoded data is accessed via the actual ByteStore
+            partBodyByteStore = ((DecodingByteStore) partBodyByteStore).target;
+        }
+        if (partBodyByteStore instanceof CoalescingByteStore) {
+            partBodyByteStore = ((CoalescingByteStore) partBodyByteStore).target;
+        }
 
         // Switch state
-        if (delimiterType.getDelimiterType() == DelimiterType.Type.CLOSE){
-            if (delimiterPrefixes.size() > 1){
-                goToState(State.NESTED_PART_READ);
-            }else {
-                goToState(State.ALL_PARTS_READ);
-            }
-        }else {
-            goToState(State.GET_READY_FOR_HEADERS);
-        }
+        goToStateAfterPart();
 
         // Notify
         if (MultipartUtils.isFormField(headers)){
@@ -641,22 +1545,39 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
                 nioMultipartParserListener.onFormFieldPartFinished(fieldName, value, headers);
             }catch (Exception e){
                 goToState(State.ERROR);
-                nioMultipartParserListener.onError("Unable to read the form parameters", e);
+                notifyError("Unable to read the form parameters", e);
                 return;
             }finally {
                 IOUtils.closeQuietly(partBodyInputStream);
             }
 
+        }else if (partBodyByteStore == partBodyStreamer){
+            // Not a form field and the body has already been streamed to the client.
+            ((NioMultipartParserStreamingListener) nioMultipartParserListener).onPartEnd(headers);
         }else{
             // Not a form field. Provide the raw input stream to the client.
             nioMultipartParserListener.onPartFinished(partBodyByteStore, headers);
         }
+        // From now on the ByteStore belongs to the listener
+        partBodyByteStore = null;
 
         partIndex++;
         wCtx.setFinishedIfNoMoreData();
 
     }
 
+    void goToStateAfterPart() {
+        if (delimiterType.getDelimiterType() == DelimiterType.Type.CLOSE){
+            if (delimiterPrefixes.size() > 1){
+                goToState(State.NESTED_PART_READ);
+            }else {
+                goToState(State.ALL_PARTS_READ);
+            }
+        }else {
+            goToState(State.GET_READY_FOR_HEADERS);
+        }
+    }
+
     void nestedPartRead(final WriteContext wCtx){
         delimiterPrefixes.pop();
         delimiterType.reset();
@@ -667,6 +1588,8 @@ public class NioMultipartParser extends OutputStream implements Dismissable {
     }
 
     void skipEpilogue(final WriteContext wCtx){
+        // The epilogue is ignored, but the data is consumed.
+        wCtx.currentIndex = wCtx.indexEnd;
         wCtx.setFinished();
     }
 
@@ -24,6 +24,7 @@ import java.util.Map;
 
 /**
  * <p> Listener that will be notified with the progress of the multipart parsing.
+ *     The part headers passed to the callbacks are {@link PartHeaders}, giving typed access to the most common headers.
  *
  * @author Silvano Riz.
  */
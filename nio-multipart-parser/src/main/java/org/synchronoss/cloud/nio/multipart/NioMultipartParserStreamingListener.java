@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p> Listener that receives the body of the parts as a stream of events instead of a {@code ByteStore}.
+ *     When the {@link NioMultipartParser} is notifying a {@code NioMultipartParserStreamingListener}, the body of a part
+ *     is not stored at all: the listener gets the part headers via {@link #onPartStarted(Map)} as soon as they are parsed,
+ *     then the body data via {@link #onPartData(ByteBuffer)} as it is written into the parser and finally {@link #onPartEnd(Map)}.
+ *     This allows to pipe a part straight into its final destination (a storage service, a digest...) without any temporary file.
+ * <p> Form fields are still collected and notified via {@link #onFormFieldPartFinished(String, String, Map)} and {@link #onPartFinished(org.synchronoss.cloud.nio.multipart.io.ByteStore, Map)}
+ *     is never called.
+ *
+ * @author Silvano Riz.
+ */
+public interface NioMultipartParserStreamingListener extends NioMultipartParserListener {
+
+    /**
+     * <p> Called when the headers of a part have been parsed and the parser is about to read its body.
+     *
+     * @param headersFromPart The part headers.
+     */
+    void onPartStarted(final Map<String, List<String>> headersFromPart);
+
+    /**
+     * <p> Called with a chunk of the body of the current part. The {@code ByteBuffer} is a view over the data written into the parser,
+     *     no copy is made. For this reason the {@code ByteBuffer} is only valid for the duration of the call and it must not be modified.
+     *     If the data needs to be kept, it must be copied.
+     *
+     * @param partBodyChunk The chunk of body data, between the {@code ByteBuffer} position and limit.
+     */
+    void onPartData(final ByteBuffer partBodyChunk);
+
+    /**
+     * <p> Called when the body of the current part has been completely read.
+     *
+     * @param headersFromPart The part headers.
+     */
+    void onPartEnd(final Map<String, List<String>> headersFromPart);
+
+}
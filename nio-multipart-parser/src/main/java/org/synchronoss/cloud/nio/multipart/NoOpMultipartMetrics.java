@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+/**
+ * <p> A {@link MultipartMetrics} that does nothing. It's the default used when no metrics are installed.
+ *     It can be extended to collect just a subset of the metrics.
+ *
+ * @author Silvano Riz.
+ */
+public class NoOpMultipartMetrics implements MultipartMetrics {
+
+    /**
+     * The shared instance. When the parser uses it, the timing of the states is disabled altogether.
+     */
+    public static final NoOpMultipartMetrics INSTANCE = new NoOpMultipartMetrics();
+
+    @Override
+    public void recordBytesParsed(final int bytes) {
+        // no-op
+    }
+
+    @Override
+    public void recordHeadersSectionSize(final int bytes) {
+        // no-op
+    }
+
+    @Override
+    public void recordPartsPerRequest(final int parts) {
+        // no-op
+    }
+
+    @Override
+    public void recordStateTime(final String state, final long nanos) {
+        // no-op
+    }
+
+    @Override
+    public void recordPartSwitchedToDisk(final long bytesInMemory) {
+        // no-op
+    }
+
+    @Override
+    public void recordTempFileBytesWritten(final long bytes) {
+        // no-op
+    }
+
+    @Override
+    public void recordTempFileDeleted(final long bytes) {
+        // no-op
+    }
+
+    @Override
+    public void recordError(final String message, final Throwable cause) {
+        // no-op
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p> Decides, as soon as the headers of a part have been parsed, if the part has to be processed or if its body has to be discarded.
+ *     The body of a discarded part is scanned until the next delimiter without being stored anywhere: no {@code ByteStore} is requested
+ *     to the {@link PartBodyByteStoreFactory} and the listener is not notified about it. A discarded part that is a nested multipart is
+ *     skipped as a whole.
+ * <p> The filter can be implemented by the {@link NioMultipartParserListener} itself, or it can be configured via
+ *     {@link Multipart.Builder#withPartFilter(PartFilter)}.
+ *
+ * @author Silvano Riz.
+ */
+public interface PartFilter {
+
+    /**
+     * <p> Called when the headers of a part have been parsed, before the body is read.
+     *
+     * @param headersFromPart The part headers.
+     * @param partIndex The index of the part, starting from 1.
+     * @return true if the part has to be processed, false if its body has to be discarded.
+     */
+    boolean acceptPart(final Map<String, List<String>> headersFromPart, final int partIndex);
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+import org.synchronoss.cloud.nio.multipart.util.ParameterParser;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p> The headers of a part. It is a {@code Map} having as keys the lower case header names and as values the list of the header values,
+ *     so it can be used wherever the raw headers map is expected. On top of that it gives typed access to the information that is
+ *     needed for every part (disposition type, field name, file name, content type, charset, transfer encoding and content length).
+ *     The Content-Disposition and Content-Type headers are parsed lazily, at most once, and the results are cached.
+ *
+ * <p> The headers passed by the {@link NioMultipartParser} to the {@link NioMultipartParserListener} callbacks are {@code PartHeaders}
+ *     and the {@link MultipartUtils} methods use the cached values when given a {@code PartHeaders}.
+ *
+ * <p> Modifying the map through {@link #put(Object, Object)}, {@link #remove(Object)} or {@link #clear()} invalidates the cached values, while
+ *     changes made via the entry set or directly on the value lists are not detected.
+ *
+ * @author Silvano Riz.
+ */
+public class PartHeaders extends AbstractMap<String, List<String>> {
+
+    private static final String CONTENT_DISPOSITION = MultipartUtils.CONTENT_DISPOSITION.toLowerCase();
+    private static final String CONTENT_TYPE = MultipartUtils.CONTENT_TYPE.toLowerCase();
+    private static final String CONTENT_TRANSFER_ENCODING = MultipartUtils.CONTENT_TRANSFER_ENCODING.toLowerCase();
+    private static final String CONTENT_LENGTH = MultipartUtils.CONTENT_LENGTH.toLowerCase();
+
+    final Map<String, List<String>> headers;
+
+    // Content-Disposition
+    boolean contentDispositionParsed = false;
+    String dispositionType;
+    String fieldName;
+    String fileName;
+
+    // Content-Type
+    boolean contentTypeParsed = false;
+    String charset;
+
+    // Content-Length
+    boolean contentLengthParsed = false;
+    long contentLength;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param headers The headers map having as keys the lower case header names. The map is not copied.
+     */
+    public PartHeaders(final Map<String, List<String>> headers) {
+        if (headers == null){
+            throw new IllegalArgumentException("Headers cannot be null");
+        }
+        this.headers = headers;
+    }
+
+    /**
+     * <p> Returns the given headers as {@code PartHeaders}. If they are already an instance of {@code PartHeaders} they are returned as they are.
+     *
+     * @param headers The headers map
+     * @return The {@code PartHeaders}
+     */
+    public static PartHeaders of(final Map<String, List<String>> headers) {
+        if (headers instanceof PartHeaders){
+            return (PartHeaders) headers;
+        }
+        return new PartHeaders(headers);
+    }
+
+    /**
+     * <p> Returns the first value of a header.
+     *
+     * @param headerName The header name (case insensitive)
+     * @return The first value of the header or null
+     */
+    public String getHeader(final String headerName) {
+        return firstValue(headerName.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * <p> Returns the disposition type of the part (e.g. form-data or attachment), in lower case.
+     *
+     * @return The disposition type or null if the Content-Disposition header is not present.
+     */
+    public String getDispositionType() {
+        parseContentDisposition();
+        return dispositionType;
+    }
+
+    /**
+     * <p> Returns the 'name' parameter of the Content-disposition header. See {@link MultipartUtils#getFieldName(Map)}
+     *
+     * @return The 'name' parameter of the Content-disposition header or null
+     */
+    public String getFieldName() {
+        parseContentDisposition();
+        return fieldName;
+    }
+
+    /**
+     * <p> Returns the 'filename' parameter of the Content-disposition header. See {@link MultipartUtils#getFileName(Map)}
+     *
+     * @return The 'filename' parameter of the Content-disposition header or null
+     */
+    public String getFileName() {
+        parseContentDisposition();
+        return fileName;
+    }
+
+    /**
+     * <p> Checks if the part is a form field.
+     *
+     * @return true if the part is a form field, false otherwise.
+     */
+    public boolean isFormField() {
+        parseContentDisposition();
+        return fieldName != null && fileName == null;
+    }
+
+    /**
+     * <p> Returns the value of the Content-Type header.
+     *
+     * @return The value of the Content-Type header or null
+     */
+    public String getContentType() {
+        return firstValue(CONTENT_TYPE);
+    }
+
+    /**
+     * <p> Checks if the Content-Type header defines a multipart.
+     *
+     * @return true if the part is a multipart, false otherwise.
+     */
+    public boolean isMultipart() {
+        return MultipartUtils.isMultipart(getContentType());
+    }
+
+    /**
+     * <p> Returns the charset parameter of the Content-Type header.
+     *
+     * @return the charset parameter value from the content type header or null if the header is not present of the charset parameter not defined
+     */
+    public String getCharset() {
+        if (!contentTypeParsed){
+            final String contentType = getContentType();
+            if (contentType != null) {
+                ParameterParser parser = new ParameterParser();
+                parser.setLowerCaseNames(true);
+                charset = parser.parse(contentType, ';').get("charset");
+            }
+            contentTypeParsed = true;
+        }
+        return charset;
+    }
+
+    /**
+     * <p> Returns the value of the Content-Transfer-Encoding header.
+     *
+     * @return The value of the Content-Transfer-Encoding header or null
+     */
+    public String getContentTransferEncoding() {
+        return firstValue(CONTENT_TRANSFER_ENCODING);
+    }
+
+    /**
+     * <p> Returns the value of the Content-Length header.
+     *
+     * @return the value of the content length header if present. -1 if the header is not present or if the value cannot be converted to a long
+     */
+    public long getContentLength() {
+        if (!contentLengthParsed){
+            contentLength = -1;
+            final String contentLengthHeaderValue = firstValue(CONTENT_LENGTH);
+            if (contentLengthHeaderValue != null && contentLengthHeaderValue.length() > 0){
+                try {
+                    contentLength = Long.parseLong(contentLengthHeaderValue);
+                } catch (Exception e) {
+                    contentLength = -1;
+                }
+            }
+            contentLengthParsed = true;
+        }
+        return contentLength;
+    }
+
+    @Override
+    public List<String> get(final Object key) {
+        return headers.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return headers.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return headers.size();
+    }
+
+    @Override
+    public List<String> put(final String key, final List<String> value) {
+        invalidate();
+        return headers.put(key, value);
+    }
+
+    @Override
+    public List<String> remove(final Object key) {
+        invalidate();
+        return headers.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        invalidate();
+        headers.clear();
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        return headers.entrySet();
+    }
+
+    void invalidate() {
+        contentDispositionParsed = false;
+        contentTypeParsed = false;
+        contentLengthParsed = false;
+        dispositionType = null;
+        fieldName = null;
+        fileName = null;
+        charset = null;
+    }
+
+    String firstValue(final String lowerCaseHeaderName) {
+        final List<String> values = headers.get(lowerCaseHeaderName);
+        if (values == null || values.size() == 0){
+            return null;
+        }
+        return values.get(0);
+    }
+
+    void parseContentDisposition() {
+        if (contentDispositionParsed){
+            return;
+        }
+        final String contentDisposition = firstValue(CONTENT_DISPOSITION);
+        if (contentDisposition != null) {
+            final int separator = contentDisposition.indexOf(';');
+            dispositionType = (separator < 0 ? contentDisposition : contentDisposition.substring(0, separator)).trim().toLowerCase(Locale.ENGLISH);
+
+            final boolean formData = startsWithIgnoreCase(contentDisposition, MultipartUtils.FORM_DATA);
+            if (formData || startsWithIgnoreCase(contentDisposition, MultipartUtils.ATTACHMENT)) {
+                ParameterParser parser = new ParameterParser();
+                parser.setLowerCaseNames(true);
+                final Map<String, String> params = parser.parse(contentDisposition, ';');
+                if (params.containsKey("filename")) {
+                    final String fileNameParam = params.get("filename");
+                    // Even if there is no value, the parameter is present, so we return an empty file name rather than no file name.
+                    fileName = fileNameParam != null ? fileNameParam.trim() : "";
+                }
+                if (formData) {
+                    final String fieldNameParam = params.get("name");
+                    fieldName = fieldNameParam != null ? fieldNameParam.trim() : null;
+                }
+            }
+        }
+        contentDispositionParsed = true;
+    }
+
+    static boolean startsWithIgnoreCase(final String value, final String prefix) {
+        return value.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart;
+
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p> A {@link PartBodyByteStoreFactory} whose {@code ByteStore}s can be saved in a {@link NioMultipartParser.Checkpoint} while
+ *     they are being written, and resumed later, possibly by a different process. It is needed to take a checkpoint of a parser
+ *     while it is in the middle of a part body.
+ *
+ * @author Silvano Riz.
+ */
+public interface ResumablePartBodyByteStoreFactory extends PartBodyByteStoreFactory {
+
+    /**
+     * <p> Saves the status of a {@code ByteStore} created by this factory and still being written. All the data written so far has
+     *     already been flushed. The returned object identifies the {@code ByteStore} and how many bytes it holds, so that
+     *     {@link #resumeByteStoreForPartBody(Map, int, Serializable)} can return a {@code ByteStore} that continues from there.
+     *
+     * @param byteStore The {@code ByteStore}.
+     * @return The serializable status of the {@code ByteStore}.
+     * @throws IOException If the status cannot be saved.
+     */
+    Serializable checkpointByteStore(final ByteStore byteStore) throws IOException;
+
+    /**
+     * <p> Returns a {@code ByteStore} holding the data of a {@code ByteStore} saved via {@link #checkpointByteStore(ByteStore)},
+     *     ready to receive the rest of the part body.
+     *
+     * @param partHeaders The part headers.
+     * @param partIndex The part index.
+     * @param byteStoreCheckpoint The status returned by {@link #checkpointByteStore(ByteStore)}.
+     * @return The {@code ByteStore} where to write the rest of the part body.
+     */
+    ByteStore resumeByteStoreForPartBody(final Map<String, List<String>> partHeaders, final int partIndex, final Serializable byteStoreCheckpoint);
+
+}
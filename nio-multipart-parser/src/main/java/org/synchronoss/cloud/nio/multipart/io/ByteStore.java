@@ -17,8 +17,10 @@
 package org.synchronoss.cloud.nio.multipart.io;
 
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * <p> Defines a storage that allows to store bytes and read them back.
@@ -32,6 +34,15 @@ import java.io.OutputStream;
  */
 public abstract class ByteStore extends OutputStream implements Dismissable {
 
+    // Scratch array used by the default write(ByteBuffer) to copy the data of a direct buffer. One per thread, so it is
+    // allocated once instead of at every write.
+    private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+
     /**
      * <p> Returns the {@code InputStream} to read back data from the store.
      *
@@ -39,4 +50,28 @@ public abstract class ByteStore extends OutputStream implements Dismissable {
      */
     public abstract InputStream getInputStream();
 
+    /**
+     * <p> Writes the remaining bytes of a {@code ByteBuffer} into the store. When the method returns the position of the
+     *     buffer is equal to its limit.
+     * <p> The default implementation writes the backing array straight away if the buffer has one, otherwise it copies the
+     *     data through a scratch array reused by the calling thread. Implementations able to consume a {@code ByteBuffer} natively (for example via a
+     *     {@code FileChannel}) should override it, so direct buffers can be stored without being copied on the heap.
+     *
+     * @param src The {@code ByteBuffer} to write.
+     * @throws IOException If the write fails.
+     */
+    public void write(final ByteBuffer src) throws IOException {
+        if (src.hasArray()) {
+            write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+        } else {
+            final byte[] chunk = COPY_BUFFER.get();
+            while (src.hasRemaining()) {
+                final int chunkSize = Math.min(src.remaining(), chunk.length);
+                src.get(chunk, 0, chunkSize);
+                write(chunk, 0, chunkSize);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import org.synchronoss.cloud.nio.multipart.MultipartMetrics;
+import org.synchronoss.cloud.nio.multipart.NoOpMultipartMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p> A {@code ByteStore} that, like the {@link DeferredFileByteStore}, keeps the data in memory until a configurable threshold
+ *     is reached and then moves it to a file, but it accesses the file via a {@code FileChannel} instead of a {@code FileOutputStream}.
+ * <p> Once on disk all the writes are positional bulk writes of the incoming buffers, so a direct {@code ByteBuffer} goes to the
+ *     file without being copied on the heap. The data can be read back as:
+ * <ul>
+ *     <li>an {@code InputStream} via {@link #getInputStream()}</li>
+ *     <li>a {@code ReadableByteChannel} via {@link #getReadableChannel()}</li>
+ *     <li>a read only {@code ByteBuffer}, memory mapped if the data is on disk, via {@link #map()}</li>
+ * </ul>
+ * <p> Via {@link #transferTo(WritableByteChannel)} the data can be forwarded to a socket or another file using
+ *     {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets the operating system move the bytes without
+ *     passing through the Java heap at all.
+ * <p> As the {@code DeferredFileByteStore}, the {@code ChannelByteStore} starts in a <i>write</i> state and switches to a
+ *     <i>read</i> state when {@link #close()} is called. The data can be read only in the <i>read</i> state.
+ * <p> The data kept in memory is stored in segments acquired from a {@link SegmentPool} and, if a {@link MemoryBudget} is configured, reserved
+ *     from the budget, as for the {@code DeferredFileByteStore}. The memory is released when the data is moved to disk, when the store is
+ *     dismissed or, if the store purges the data after the read is complete, once read.
+ *
+ * @author Silvano Riz.
+ */
+public class ChannelByteStore extends ByteStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ChannelByteStore.class);
+
+    final File file;
+    final int threshold;
+    final boolean purgeFileAfterReadComplete;
+    final MultipartMetrics metrics;
+    final SegmentPool segmentPool;
+    final MemoryBudget memoryBudget;
+
+    volatile DeferredFileByteStore.ReadWriteStatus readWriteStatus;
+    volatile SegmentedOutputStream segmentedOutputStream;
+    volatile FileChannel fileChannel;
+
+    // Number of bytes stored. When the data is on disk it is also the position of the next write.
+    long size = 0;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes. Data will be kept in memory until the threshold is reached, then it is moved to the file and the subsequent writes go straight to disk. A threshold set to 0 or a negative value means that no memory will be used at all.
+     * @param purgeFileAfterReadComplete boolean flag that if true it will purge the file after the data has been read. The purge happens when the {@code InputStream} or the {@code ReadableByteChannel} served by the instance is closed or when a {@link #transferTo(WritableByteChannel)} completes.
+     * @param metrics The {@code MultipartMetrics} notified when the data is switched to disk and when the file is written and deleted. If null no metrics are collected.
+     */
+    public ChannelByteStore(final File file, final int threshold, final boolean purgeFileAfterReadComplete, final MultipartMetrics metrics) {
+        this(file, threshold, purgeFileAfterReadComplete, metrics, null, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes. See {@link #ChannelByteStore(File, int, boolean, MultipartMetrics)}.
+     * @param purgeFileAfterReadComplete boolean flag that if true it will purge the file, or release the memory, after the data has been read.
+     * @param metrics The {@code MultipartMetrics} notified when the data is switched to disk and when the file is written and deleted. If null no metrics are collected.
+     * @param segmentPool The {@code SegmentPool} providing the memory used to keep the data until the threshold is reached. If null the {@link SegmentPool#getSharedPool()} is used.
+     * @param memoryBudget The {@code MemoryBudget} from where the memory is reserved. If the budget is exhausted the data is moved to disk before the threshold is reached. If null there is no budget.
+     */
+    public ChannelByteStore(final File file, final int threshold, final boolean purgeFileAfterReadComplete, final MultipartMetrics metrics,
+                            final SegmentPool segmentPool, final MemoryBudget memoryBudget) {
+        this(file, threshold, purgeFileAfterReadComplete, metrics, segmentPool, memoryBudget, true);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes. See {@link #ChannelByteStore(File, int, boolean, MultipartMetrics)}.
+     * @param purgeFileAfterReadComplete boolean flag that if true it will purge the file after the data has been read.
+     */
+    public ChannelByteStore(final File file, final int threshold, final boolean purgeFileAfterReadComplete) {
+        this(file, threshold, purgeFileAfterReadComplete, null);
+    }
+
+    /**
+     * <p> Constructor that sets the purgeFileAfterReadComplete to true by default.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes.
+     */
+    public ChannelByteStore(final File file, final int threshold) {
+        this(file, threshold, true);
+    }
+
+    /**
+     * <p> Returns a {@code ChannelByteStore}, in write mode, continuing an existing file. The first {@code offset} bytes of the file are kept
+     *     and the rest, if any, is discarded. Used to resume the writing of a part body saved in a checkpoint.
+     *
+     * @param file The file holding the data written so far.
+     * @param offset The number of bytes of the file to keep.
+     * @param purgeFileAfterReadComplete boolean flag that if true it will purge the file after the data has been read.
+     * @param metrics The {@code MultipartMetrics} notified when the file is written and deleted. If null no metrics are collected.
+     * @return the {@code ChannelByteStore}.
+     * @throws IOException If the file cannot be opened or if it is shorter than the offset.
+     */
+    public static ChannelByteStore resume(final File file, final long offset, final boolean purgeFileAfterReadComplete, final MultipartMetrics metrics) throws IOException {
+        final ChannelByteStore channelByteStore = new ChannelByteStore(file, 0, purgeFileAfterReadComplete, metrics, null, null, false);
+        final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        final long fileSize = fileChannel.size();
+        if (fileSize < offset){
+            fileChannel.close();
+            throw new IOException("The file " + file.getAbsolutePath() + " is shorter than the offset. File size: " + fileSize + ", offset: " + offset);
+        }
+        fileChannel.truncate(offset);
+        channelByteStore.fileChannel = fileChannel;
+        channelByteStore.size = offset;
+        return channelByteStore;
+    }
+
+    private ChannelByteStore(final File file, final int threshold, final boolean purgeFileAfterReadComplete, final MultipartMetrics metrics,
+                             final SegmentPool segmentPool, final MemoryBudget memoryBudget, final boolean createFile) {
+        this.file = file;
+        this.threshold = threshold;
+        this.purgeFileAfterReadComplete = purgeFileAfterReadComplete;
+        this.metrics = metrics != null ? metrics : NoOpMultipartMetrics.INSTANCE;
+        this.segmentPool = segmentPool != null ? segmentPool : SegmentPool.getSharedPool();
+        this.memoryBudget = memoryBudget;
+        readWriteStatus = DeferredFileByteStore.ReadWriteStatus.WRITE;
+        if (threshold > 0){
+            segmentedOutputStream = new SegmentedOutputStream(this.segmentPool, memoryBudget);
+        }else if (createFile){
+            fileChannel = newFileChannel();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        assertIsWritable();
+        if (checkThreshold(1)){
+            segmentedOutputStream.write(b);
+            size++;
+        }else{
+            writeToFile(ByteBuffer.wrap(new byte[]{(byte) b}));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        assertIsWritable();
+        if (checkThreshold(len)){
+            segmentedOutputStream.write(b, off, len);
+            size += len;
+        }else{
+            writeToFile(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    /**
+     * <p> Writes the remaining bytes of the {@code ByteBuffer}. Once the data is on disk, the buffer is written straight to the
+     *     {@code FileChannel} with a positional write.
+     *
+     * @param src The {@code ByteBuffer} to write.
+     * @throws IOException If the write fails.
+     */
+    @Override
+    public void write(final ByteBuffer src) throws IOException {
+        assertIsWritable();
+        final int length = src.remaining();
+        if (checkThreshold(length)){
+            segmentedOutputStream.write(src);
+            size += length;
+        }else{
+            writeToFile(src);
+        }
+    }
+
+    /**
+     * <p> The {@code FileChannel} does not buffer data, so there is nothing to flush.
+     */
+    @Override
+    public void flush() throws IOException {
+        assertIsWritable();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        close(DeferredFileByteStore.ReadWriteStatus.READ);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getInputStream() {
+        assertIsReadable();
+        if (isInMemory()){
+            if (segmentedOutputStream.isReleased()){
+                throw new IllegalStateException("The data has already been read and the memory released.");
+            }
+            return segmentedOutputStream.newInputStream(purgeFileAfterReadComplete);
+        }else{
+            return newFileInputStream();
+        }
+    }
+
+    /**
+     * <p> Returns a {@code ReadableByteChannel} to read back the data. If the data is on disk the channel is a {@code FileChannel}
+     *     and, if the store has been configured to purge the file after the read is complete, the file is purged when the channel is closed.
+     *
+     * @return a {@code ReadableByteChannel} to read back the data.
+     */
+    public ReadableByteChannel getReadableChannel() {
+        assertIsReadable();
+        if (isInMemory()){
+            return Channels.newChannel(getInputStream());
+        }else{
+            // Closing the channel closes the stream, which takes care of purging the file.
+            return newFileInputStream().getChannel();
+        }
+    }
+
+    /**
+     * <p> Returns a read only view of the data. If the data is on disk the file is memory mapped and no copy is made. If the data is
+     *     in memory it is copied, since the memory goes back to the {@code SegmentPool} when the store is dismissed or the data purged.
+     * <p> The mapping stays valid until the {@code ByteBuffer} is garbage collected, even if the file is purged in the meantime.
+     *
+     * @return a read only view of the data.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public ByteBuffer map() throws IOException {
+        assertIsReadable();
+        if (isInMemory()){
+            return ByteBuffer.wrap(segmentedOutputStream.toByteArray()).asReadOnlyBuffer();
+        }
+        final FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return readChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }finally {
+            readChannel.close();
+        }
+    }
+
+    /**
+     * <p> Transfers all the data to the target channel. If the data is on disk the transfer is done via
+     *     {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so the operating system can move the bytes from the
+     *     file to a socket or another file without copying them in the Java heap.
+     * <p> The method blocks until all the data has been transferred, so it should be used with blocking channels only. Non blocking
+     *     targets should use {@link #transferTo(long, long, WritableByteChannel)}.
+     *     If the store has been configured to purge the data after the read is complete, the data is purged once the transfer completes.
+     *
+     * @param target The target channel.
+     * @return The number of bytes transferred.
+     * @throws IOException If the transfer fails.
+     */
+    public long transferTo(final WritableByteChannel target) throws IOException {
+        long position = 0;
+        while (position < size){
+            position += transferTo(position, size - position, target);
+        }
+        if (purgeFileAfterReadComplete){
+            if (isInMemory()){
+                segmentedOutputStream.release();
+            }else{
+                purge();
+            }
+        }
+        return position;
+    }
+
+    /**
+     * <p> Transfers up to {@code count} bytes, starting at {@code position}, to the target channel. As for
+     *     {@link FileChannel#transferTo(long, long, WritableByteChannel)} less bytes than requested might be transferred,
+     *     for example when a non blocking target cannot accept more data. The file is never purged by this method.
+     *
+     * @param position The position of the first byte to transfer. Must be non negative.
+     * @param count The maximum number of bytes to transfer. Must be non negative.
+     * @param target The target channel.
+     * @return The number of bytes transferred, possibly zero.
+     * @throws IOException If the transfer fails.
+     */
+    public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+        assertIsReadable();
+        if (position < 0 || count < 0){
+            throw new IllegalArgumentException("Position and count must be non negative");
+        }
+        if (position >= size || count == 0){
+            return 0;
+        }
+        final long toTransfer = Math.min(count, size - position);
+        if (isInMemory()){
+            return segmentedOutputStream.transferTo((int) position, (int) toTransfer, target);
+        }
+        final FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return readChannel.transferTo(position, toTransfer, target);
+        }finally {
+            readChannel.close();
+        }
+    }
+
+    /**
+     * <p> Returns the number of bytes stored.
+     *
+     * @return the number of bytes stored.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * <p> Moves the data to the file, if it's still in memory. The subsequent writes go straight to disk.
+     *
+     * @throws IOException If the data cannot be written to the file.
+     */
+    public void moveToFile() throws IOException {
+        assertIsWritable();
+        if (isInMemory()){
+            switchToFile();
+        }
+    }
+
+    /**
+     * <p> Returns the file where the data is stored once it has been moved to disk.
+     *
+     * @return the file where the data is stored.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * <p> Returns if the data has been moved to disk or if it's still in memory.
+     *
+     * @return true if the data is in memory, false otherwise
+     */
+    public boolean isInMemory() {
+        return segmentedOutputStream != null;
+    }
+
+    /**
+     * <p> Dismisses the {@code ChannelByteStore} closing quietly the {@code FileChannel}, releasing the memory and deleting the underlying file if it exists.
+     *     Once called the {@code ChannelByteStore} is not usable anymore.
+     *
+     * @return <code>true</code> if and only if the file was created and it has been deleted successfully; <code>false</code> otherwise.
+     */
+    @Override
+    public boolean dismiss() {
+        try {
+            close(DeferredFileByteStore.ReadWriteStatus.DISMISSED);
+        } catch (Exception e) {
+            // Nothing to do
+        }
+        final SegmentedOutputStream segmentedOutputStream = this.segmentedOutputStream;
+        if (segmentedOutputStream != null){
+            segmentedOutputStream.release();
+        }
+        return purge();
+    }
+
+    void close(final DeferredFileByteStore.ReadWriteStatus newReadWriteStatus) throws IOException {
+        final boolean wasWritable = readWriteStatus == DeferredFileByteStore.ReadWriteStatus.WRITE;
+        readWriteStatus = newReadWriteStatus;
+        if (fileChannel != null && fileChannel.isOpen()) {
+            fileChannel.close();
+            if (wasWritable){
+                metrics.recordTempFileBytesWritten(size);
+            }
+        }
+    }
+
+    boolean purge(){
+        if (file != null && file.exists()){
+            final long fileLength = file.length();
+            if (file.delete()){
+                metrics.recordTempFileDeleted(fileLength);
+                return true;
+            }
+            log.warn("Failed to purge file: " + file.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+
+    boolean checkThreshold(final int lengthToWrite) throws IOException {
+        if (segmentedOutputStream != null && segmentedOutputStream.size() + lengthToWrite <= threshold && segmentedOutputStream.ensureCapacity(lengthToWrite)){
+            return true;
+        }
+        if (isInMemory()){
+            switchToFile();
+        }
+        return false;
+    }
+
+    void switchToFile() throws IOException {
+
+        if (log.isDebugEnabled()) log.debug("Switching to file");
+
+        final int inMemory = segmentedOutputStream.size();
+        metrics.recordPartSwitchedToDisk(inMemory);
+        fileChannel = newFileChannel();
+        size = 0;
+        // Relative writes on the new channel, so the data lands from position 0 and the following positional writes start at size
+        while (size < inMemory){
+            size += segmentedOutputStream.transferTo((int) size, (int) (inMemory - size), fileChannel);
+        }
+        segmentedOutputStream.release();
+        segmentedOutputStream = null;
+    }
+
+    void writeToFile(final ByteBuffer src) throws IOException {
+        while (src.hasRemaining()){
+            size += fileChannel.write(src, size);
+        }
+    }
+
+    void assertIsWritable(){
+        if (readWriteStatus != DeferredFileByteStore.ReadWriteStatus.WRITE){
+            throw new IllegalStateException("ChannelByteStore is closed");
+        }
+    }
+
+    void assertIsReadable(){
+        if (readWriteStatus != DeferredFileByteStore.ReadWriteStatus.READ){
+            throw new IllegalStateException("The ChannelByteStore is not readable. Call the close() method when all the data has been written before reading it.");
+        }
+    }
+
+    FileChannel newFileChannel(){
+        try{
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }catch (Exception e){
+            throw new IllegalStateException("Unable to create the file channel.", e);
+        }
+    }
+
+    FileInputStream newFileInputStream(){
+        try{
+            if (purgeFileAfterReadComplete){
+                return new PurgeOnCloseFileInputStream(file, metrics);
+            }else{
+                return new FileInputStream(file);
+            }
+        }catch (Exception e){
+            throw new IllegalStateException("Unable to create the inputStream.", e);
+        }
+    }
+
+}
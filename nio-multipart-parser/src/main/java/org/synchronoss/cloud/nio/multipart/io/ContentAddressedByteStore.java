@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import org.synchronoss.cloud.nio.multipart.MultipartMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p> A {@link DeferredFileByteStore} that computes the digest of the data while it is written and, when the data is on disk,
+ *     stores it once under its digest. When the store is closed the temporary file is moved to {@code <storeFolder>/ab/cd/abcd...}
+ *     (where {@code abcd...} is the hex encoded digest) or, if a file with the same content is already there, the temporary file is
+ *     just deleted. This way identical part bodies uploaded many times share one file.
+ * <p> Data kept in memory (smaller than the threshold) is not moved to the store folder, but its digest is computed anyway. As for a
+ *     {@link DeferredFileByteStore} purging the data after the read is complete, the memory is released when the {@code InputStream} is
+ *     closed, so data kept in memory can be read only once.
+ * <p> The files in the store folder are shared, so they are never purged by the {@code ContentAddressedByteStore}. Reading the data back
+ *     or dismissing the store leaves the content file in place and it's up to the application to decide when a content file can be removed.
+ *
+ * @author Silvano Riz.
+ */
+public class ContentAddressedByteStore extends DeferredFileByteStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentAddressedByteStore.class);
+
+    /**
+     * Default digest algorithm.
+     */
+    public static final String DEFAULT_DIGEST_ALGORITHM = "SHA-256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    final File storeFolder;
+    final MessageDigest messageDigest;
+
+    volatile byte[] digest;
+    volatile File contentFile;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The temporary file that will be used to store the data if the threshold is reached. It should be on the same file system of the store folder, so it can be moved atomically.
+     * @param storeFolder The root folder where the content files are stored.
+     * @param threshold The threshold in bytes. See {@link DeferredFileByteStore#DeferredFileByteStore(File, int, boolean)}.
+     * @param digestAlgorithm The digest algorithm, for example {@value #DEFAULT_DIGEST_ALGORITHM}.
+     * @param metrics The {@code MultipartMetrics} notified when the data is switched to disk and when the file is written and deleted. If null no metrics are collected.
+     * @param segmentPool The {@code SegmentPool} providing the memory used to keep the data until the threshold is reached. If null the {@link SegmentPool#getSharedPool()} is used.
+     * @param memoryBudget The {@code MemoryBudget} from where the memory is reserved. If null there is no budget.
+     */
+    public ContentAddressedByteStore(final File file, final File storeFolder, final int threshold, final String digestAlgorithm,
+                                     final MultipartMetrics metrics, final SegmentPool segmentPool, final MemoryBudget memoryBudget) {
+        super(file, threshold, true, metrics, segmentPool, memoryBudget);
+        this.storeFolder = storeFolder;
+        try {
+            this.messageDigest = MessageDigest.getInstance(digestAlgorithm);
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + digestAlgorithm, e);
+        }
+    }
+
+    /**
+     * <p> Constructor that uses the {@value #DEFAULT_DIGEST_ALGORITHM} digest algorithm.
+     *
+     * @param file The temporary file that will be used to store the data if the threshold is reached.
+     * @param storeFolder The root folder where the content files are stored.
+     * @param threshold The threshold in bytes.
+     */
+    public ContentAddressedByteStore(final File file, final File storeFolder, final int threshold) {
+        this(file, storeFolder, threshold, DEFAULT_DIGEST_ALGORITHM, null, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        super.write(b);
+        messageDigest.update((byte) b);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        super.write(b, off, len);
+        messageDigest.update(b, off, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b) throws IOException {
+        super.write(b);
+        messageDigest.update(b);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final ByteBuffer src) throws IOException {
+        final ByteBuffer toDigest = src.duplicate();
+        super.write(src);
+        messageDigest.update(toDigest);
+    }
+
+    /**
+     * <p> Closes the write channel, completes the digest and, if the data is on disk, moves it to the content file.
+     *
+     * @throws IOException if the content file cannot be stored.
+     */
+    @Override
+    public void close() throws IOException {
+        if (readWriteStatus != ReadWriteStatus.WRITE){
+            return;
+        }
+        super.close();
+        digest = messageDigest.digest();
+        if (!isInMemory()){
+            contentFile = storeContentFile();
+        }
+    }
+
+    /**
+     * <p> Returns the data. If the data is on disk it is read from the content file.
+     *
+     * @return the {@code InputStream} to read back data from the store.
+     */
+    @Override
+    public InputStream getInputStream() {
+        if (readWriteStatus == ReadWriteStatus.READ && !isInMemory()){
+            try {
+                return new FileInputStream(contentFile);
+            }catch (Exception e){
+                throw new IllegalStateException("Unable to create the inputStream.", e);
+            }
+        }
+        return super.getInputStream();
+    }
+
+    /**
+     * <p> Returns the digest of the data. Available once the store has been closed.
+     *
+     * @return the digest of the data.
+     */
+    public byte[] getDigest() {
+        assertDigestAvailable();
+        return digest.clone();
+    }
+
+    /**
+     * <p> Returns the hex encoded digest of the data. Available once the store has been closed.
+     *
+     * @return the hex encoded digest of the data.
+     */
+    public String getDigestHex() {
+        assertDigestAvailable();
+        return toHex(digest);
+    }
+
+    /**
+     * <p> Returns the content file where the data is stored or null if the data is kept in memory.
+     *     Available once the store has been closed.
+     *
+     * @return the content file or null if the data is in memory.
+     */
+    public File getContentFile() {
+        assertDigestAvailable();
+        return contentFile;
+    }
+
+    File storeContentFile() throws IOException {
+        final String digestHex = toHex(digest);
+        final File shardFolder = new File(new File(storeFolder, digestHex.substring(0, 2)), digestHex.substring(2, 4));
+        final File target = new File(shardFolder, digestHex);
+        if (target.exists()){
+            if (log.isDebugEnabled()) log.debug("Content already stored: " + digestHex);
+            final long fileLength = file.length();
+            if (file.delete()){
+                metrics.recordTempFileDeleted(fileLength);
+            }else{
+                log.warn("Failed to delete the temporary file: " + file.getAbsolutePath());
+            }
+        }else{
+            if (!shardFolder.exists() && !shardFolder.mkdirs() && !shardFolder.exists()){
+                throw new IOException("Unable to create the folder: " + shardFolder.getAbsolutePath());
+            }
+            // The same content might be stored concurrently. The move replaces it, which is harmless since the content is identical.
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        return target;
+    }
+
+    void assertDigestAvailable() {
+        if (digest == null){
+            throw new IllegalStateException("The digest is available only after the ContentAddressedByteStore is closed");
+        }
+    }
+
+    static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++){
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+}
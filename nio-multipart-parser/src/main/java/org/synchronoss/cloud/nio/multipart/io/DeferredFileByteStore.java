@@ -16,10 +16,14 @@
 
 package org.synchronoss.cloud.nio.multipart.io;
 
+import org.synchronoss.cloud.nio.multipart.MultipartMetrics;
+import org.synchronoss.cloud.nio.multipart.NoOpMultipartMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * <p> A {@code ByteStore} that uses a combination of memory and file to store the data.
@@ -33,6 +37,11 @@ import java.io.*;
  * <p> A new instance will always start in a <i>write</i> state, ready to accept bytes and any call to the {@link #getInputStream()} will fail.
  * Once all the data has been written, the {@link #close()} method needs to be called to close the write channel and switch the
  * {@code DeferredFileByteStore} to the <i>read</i> state. At that point the data can be read via {@link #getInputStream()}.
+ * <p> While in memory the data is kept in fixed size segments acquired from a {@link SegmentPool}. The segments are returned to the pool
+ * when the data is moved to disk, when the store is dismissed or, if the store purges the data after the read is complete, when the
+ * {@code InputStream} is closed. If a {@link MemoryBudget} is configured and it is exhausted, the data is moved to disk before the threshold is reached.
+ * <p> As for the data on disk, if the store purges the data after the read is complete the data kept in memory can be read only once:
+ * {@link #getInputStream()} fails once the {@code InputStream}s opened so far have been closed.
  *
  * @author Silvano Riz
  */
@@ -53,12 +62,19 @@ public class DeferredFileByteStore extends ByteStore {
     final File file;
     final int threshold;
     final boolean purgeFileAfterReadComplete;
+    final MultipartMetrics metrics;
+
+    final SegmentPool segmentPool;
+    final MemoryBudget memoryBudget;
 
     volatile ReadWriteStatus readWriteStatus;
     volatile StorageMode storageMode;
-    volatile ByteArrayOutputStream byteArrayOutputStream;
+    volatile SegmentedOutputStream segmentedOutputStream;
     volatile FileOutputStream fileOutputStream;
 
+    // Bytes written to disk, reported to the metrics when the write is complete
+    long fileBytesWritten = 0;
+
     // ------------
     // CONSTRUCTORS
     // ------------
@@ -71,16 +87,58 @@ public class DeferredFileByteStore extends ByteStore {
      * @param purgeFileAfterReadComplete boolean flag that if true it will purge the file after the data has been read. The purge happens when the close method is called on the input stream served by the instance via {@link #getInputStream()}.
      */
     public DeferredFileByteStore(final File file, final int threshold, final boolean purgeFileAfterReadComplete) {
+        this(file, threshold, purgeFileAfterReadComplete, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes. See {@link #DeferredFileByteStore(File, int, boolean)}.
+     * @param purgeFileAfterReadComplete boolean flag that if true it will purge the file after the data has been read.
+     * @param metrics The {@code MultipartMetrics} notified when the data is switched to disk and when the file is written and deleted. If null no metrics are collected.
+     */
+    public DeferredFileByteStore(final File file, final int threshold, final boolean purgeFileAfterReadComplete, final MultipartMetrics metrics) {
+        this(file, threshold, purgeFileAfterReadComplete, metrics, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes. See {@link #DeferredFileByteStore(File, int, boolean)}.
+     * @param purgeFileAfterReadComplete boolean flag that if true it will purge the file, or release the memory, after the data has been read.
+     * @param metrics The {@code MultipartMetrics} notified when the data is switched to disk and when the file is written and deleted. If null no metrics are collected.
+     * @param segmentPool The {@code SegmentPool} providing the memory used to keep the data until the threshold is reached. If null the {@link SegmentPool#getSharedPool()} is used.
+     */
+    public DeferredFileByteStore(final File file, final int threshold, final boolean purgeFileAfterReadComplete, final MultipartMetrics metrics, final SegmentPool segmentPool) {
+        this(file, threshold, purgeFileAfterReadComplete, metrics, segmentPool, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes. See {@link #DeferredFileByteStore(File, int, boolean)}.
+     * @param purgeFileAfterReadComplete boolean flag that if true it will purge the file, or release the memory, after the data has been read.
+     * @param metrics The {@code MultipartMetrics} notified when the data is switched to disk and when the file is written and deleted. If null no metrics are collected.
+     * @param segmentPool The {@code SegmentPool} providing the memory used to keep the data until the threshold is reached. If null the {@link SegmentPool#getSharedPool()} is used.
+     * @param memoryBudget The {@code MemoryBudget} from where the memory is reserved. If the budget is exhausted the data is moved to disk before the threshold is reached. If null there is no budget.
+     */
+    public DeferredFileByteStore(final File file, final int threshold, final boolean purgeFileAfterReadComplete, final MultipartMetrics metrics, final SegmentPool segmentPool, final MemoryBudget memoryBudget) {
         this.file = file;
         this.threshold = threshold;
         this.purgeFileAfterReadComplete = purgeFileAfterReadComplete;
+        this.metrics = metrics != null ? metrics : NoOpMultipartMetrics.INSTANCE;
+        this.segmentPool = segmentPool != null ? segmentPool : SegmentPool.getSharedPool();
+        this.memoryBudget = memoryBudget;
         readWriteStatus = ReadWriteStatus.WRITE;
         if(threshold <= 0){
             storageMode = StorageMode.DISK;
             fileOutputStream = newFileOutputStream();
         }else{
             storageMode = StorageMode.MEMORY;
-            byteArrayOutputStream = new ByteArrayOutputStream();
+            segmentedOutputStream = new SegmentedOutputStream(this.segmentPool, memoryBudget);
         }
     }
 
@@ -120,9 +178,10 @@ public class DeferredFileByteStore extends ByteStore {
     public void write(int b) throws IOException {
         assertIsWritable();
         if (checkThreshold(1)){
-            byteArrayOutputStream.write(b);
+            segmentedOutputStream.write(b);
         }else{
             fileOutputStream.write(b);
+            fileBytesWritten++;
         }
     }
 
@@ -133,9 +192,10 @@ public class DeferredFileByteStore extends ByteStore {
     public void write(byte[] b, int off, int len) throws IOException {
         assertIsWritable();
         if (checkThreshold(len)){
-            byteArrayOutputStream.write(b, off, len);
+            segmentedOutputStream.write(b, off, len);
         }else{
             fileOutputStream.write(b, off, len);
+            fileBytesWritten += len;
         }
     }
 
@@ -146,9 +206,30 @@ public class DeferredFileByteStore extends ByteStore {
     public void write(byte[] b) throws IOException {
         assertIsWritable();
         if (checkThreshold(b.length)){
-            byteArrayOutputStream.write(b);
+            segmentedOutputStream.write(b);
         }else{
             fileOutputStream.write(b);
+            fileBytesWritten += b.length;
+        }
+    }
+
+    /**
+     * <p> Writes the remaining bytes of the {@code ByteBuffer}. Once the data is stored on disk, the buffer is written through the
+     *     {@code FileChannel} of the file, so a direct buffer is never copied on the heap.
+     *
+     * @param src The {@code ByteBuffer} to write.
+     * @throws IOException If the write fails.
+     */
+    @Override
+    public void write(final ByteBuffer src) throws IOException {
+        assertIsWritable();
+        if (checkThreshold(src.remaining())){
+            segmentedOutputStream.write(src);
+        }else{
+            final FileChannel fileChannel = fileOutputStream.getChannel();
+            while (src.hasRemaining()){
+                fileBytesWritten += fileChannel.write(src);
+            }
         }
     }
 
@@ -178,7 +259,10 @@ public class DeferredFileByteStore extends ByteStore {
     public InputStream getInputStream() {
         if (readWriteStatus.equals(ReadWriteStatus.READ)) {
             if (storageMode.equals(StorageMode.MEMORY)) {
-                return new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
+                if (segmentedOutputStream.isReleased()){
+                    throw new IllegalStateException("The data has already been read and the memory released.");
+                }
+                return segmentedOutputStream.newInputStream(purgeFileAfterReadComplete);
             } else {
                 return newFileInputStream();
             }
@@ -197,7 +281,7 @@ public class DeferredFileByteStore extends ByteStore {
     }
 
     /**
-     * <p> Dismisses the {@code DeferredFileByteStore} closing quietly the {@code OutputStream} and deleting the underlying file if it exists.
+     * <p> Dismisses the {@code DeferredFileByteStore} closing quietly the {@code OutputStream}, releasing the memory and deleting the underlying file if it exists.
      *     This method is useful just in case of errors to free the resources and once called the {@code DeferredFileByteStore} is not usable anymore.
      *
      * @return <code>true</code> if and only if the file was created and it has been deleted successfully; <code>false</code> otherwise.
@@ -209,18 +293,33 @@ public class DeferredFileByteStore extends ByteStore {
         } catch (Exception e) {
             // Nothing to do
         }
-        return !(file != null && file.exists()) || file.delete();
+        if (segmentedOutputStream != null){
+            segmentedOutputStream.release();
+        }
+        if (file != null && file.exists()){
+            final long fileLength = file.length();
+            if (file.delete()){
+                metrics.recordTempFileDeleted(fileLength);
+                return true;
+            }
+            return false;
+        }
+        return true;
     }
 
     void close(final ReadWriteStatus newReadWriteStatus) throws IOException {
+        final boolean wasWritable = readWriteStatus == ReadWriteStatus.WRITE;
         readWriteStatus = newReadWriteStatus;
         if (fileOutputStream != null) {
             fileOutputStream.close();
+            if (wasWritable){
+                metrics.recordTempFileBytesWritten(fileBytesWritten);
+            }
         }
     }
 
     boolean checkThreshold(final int lengthToWrite) throws IOException {
-        if (byteArrayOutputStream != null && byteArrayOutputStream.size() + lengthToWrite <= threshold){
+        if (segmentedOutputStream != null && segmentedOutputStream.size() + lengthToWrite <= threshold && segmentedOutputStream.ensureCapacity(lengthToWrite)){
             return true;
         }
         if (isInMemory()){
@@ -239,11 +338,12 @@ public class DeferredFileByteStore extends ByteStore {
 
         if (log.isDebugEnabled()) log.debug("Switching to file");
 
+        metrics.recordPartSwitchedToDisk(segmentedOutputStream.size());
         fileOutputStream = new FileOutputStream(file);
-        fileOutputStream.write(byteArrayOutputStream.toByteArray());
-        fileOutputStream.flush();
-        byteArrayOutputStream.reset();
-        byteArrayOutputStream = null;
+        segmentedOutputStream.writeTo(fileOutputStream);
+        fileBytesWritten += segmentedOutputStream.size();
+        segmentedOutputStream.release();
+        segmentedOutputStream = null;
         storageMode = StorageMode.DISK;
     }
 
@@ -258,7 +358,7 @@ public class DeferredFileByteStore extends ByteStore {
     FileInputStream newFileInputStream(){
         try{
             if (purgeFileAfterReadComplete){
-                return new PurgeOnCloseFileInputStream(file);
+                return new PurgeOnCloseFileInputStream(file, metrics);
             }else{
                 return new FileInputStream(file);
             }
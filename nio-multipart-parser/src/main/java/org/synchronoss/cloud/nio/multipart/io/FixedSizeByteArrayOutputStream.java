@@ -57,6 +57,16 @@ public class FixedSizeByteArrayOutputStream extends ByteArrayOutputStream {
         remaining = remaining - len;
     }
 
+    /**
+     * <p> Returns the internal buffer, without copying it. Only the first {@link #size()} bytes are valid.
+     *     The buffer is reused after a {@link #reset()}.
+     *
+     * @return The internal buffer.
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
     @Override
     public synchronized void reset() {
         super.reset();
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p> A process-wide budget for the memory used to keep the part bodies before they are moved to disk.
+ *     A {@link DeferredFileByteStore} configured with a {@code MemoryBudget} reserves each segment of memory it needs from the budget and,
+ *     if the budget is exhausted, moves its data to disk straight away, even if its own threshold has not been reached yet.
+ *     The reserved memory is given back when the segments are released.
+ *
+ * <p> A store that is never read nor dismissed (for example the part is ignored by the application) is just garbage collected, without
+ *     releasing its segments. The memory reserved by a store is therefore tracked via a {@code PhantomReference} and, once the store has been
+ *     garbage collected, the budget reclaims whatever the store did not give back. The collected stores are checked on every reservation.
+ *
+ * <p> The budget is tracked with a lock-free counter and it can be shared by all the parsers of the application, so the heap used by the
+ *     part bodies stays bounded regardless of the number of concurrent requests.
+ *
+ * <p> Parts declaring a {@code Content-Length} up to {@code smallPartSize} bytes bypass the budget: they are kept in memory even when the
+ *     budget is exhausted, to avoid creating a temporary file for small form fields. Their memory is not reserved from the budget.
+ *
+ * @author Silvano Riz.
+ */
+public class MemoryBudget {
+
+    final long maxBytes;
+    final int smallPartSize;
+    final AtomicLong reservedBytes = new AtomicLong(0);
+    final AtomicLong reclaimedBytes = new AtomicLong(0);
+
+    // The reservations must stay reachable until their owners are collected.
+    final ReferenceQueue<Object> collectedOwners = new ReferenceQueue<Object>();
+    final Set<Reservation> reservations = Collections.newSetFromMap(new ConcurrentHashMap<Reservation, Boolean>());
+
+    /**
+     * <p> Constructor.
+     *
+     * @param maxBytes The maximum amount of memory, in bytes, that can be reserved.
+     * @param smallPartSize The parts declaring a {@code Content-Length} up to this size are kept in memory even if the budget is exhausted. Zero or a negative value disables the bypass.
+     */
+    public MemoryBudget(final long maxBytes, final int smallPartSize) {
+        if (maxBytes < 0){
+            throw new IllegalArgumentException("The memory budget cannot be lower than zero");
+        }
+        this.maxBytes = maxBytes;
+        this.smallPartSize = smallPartSize;
+    }
+
+    /**
+     * <p> Constructor. No part can bypass the budget.
+     *
+     * @param maxBytes The maximum amount of memory, in bytes, that can be reserved.
+     */
+    public MemoryBudget(final long maxBytes) {
+        this(maxBytes, 0);
+    }
+
+    /**
+     * <p> Tries to reserve the given amount of memory.
+     *
+     * @param bytes The amount of memory, in bytes, to reserve.
+     * @return true if the memory has been reserved, false if the budget does not allow it.
+     */
+    public boolean tryReserve(final long bytes) {
+        reclaim();
+        while (true){
+            final long current = reservedBytes.get();
+            final long next = current + bytes;
+            if (next > maxBytes){
+                return false;
+            }
+            if (reservedBytes.compareAndSet(current, next)){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * <p> Reserves the given amount of memory even if this makes the reserved memory exceed the budget.
+     *     Used when the memory is needed and the write cannot be refused.
+     *
+     * @param bytes The amount of memory, in bytes, to reserve.
+     */
+    public void reserve(final long bytes) {
+        reclaim();
+        reservedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * <p> Gives back memory previously reserved.
+     *
+     * @param bytes The amount of memory, in bytes, to give back.
+     */
+    public void release(final long bytes) {
+        reservedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * <p> Returns if a part declaring the given {@code Content-Length} bypasses the budget.
+     *
+     * @param contentLength The declared {@code Content-Length} of the part, or a negative value if not declared.
+     * @return true if the part bypasses the budget, false otherwise.
+     */
+    public boolean isSmallPart(final long contentLength) {
+        return smallPartSize > 0 && contentLength >= 0 && contentLength <= smallPartSize;
+    }
+
+    /**
+     * <p> Returns the amount of memory, in bytes, currently reserved.
+     *
+     * @return the amount of memory currently reserved.
+     */
+    public long getReservedBytes() {
+        reclaim();
+        return reservedBytes.get();
+    }
+
+    /**
+     * <p> Returns the amount of memory, in bytes, reclaimed so far from stores garbage collected without giving back their memory.
+     *     A value growing over time means that the application is not reading or dismissing the part bodies.
+     *
+     * @return the amount of memory reclaimed so far.
+     */
+    public long getReclaimedBytes() {
+        reclaim();
+        return reclaimedBytes.get();
+    }
+
+    /*
+     * Creates a Reservation tracking the memory reserved on behalf of the given owner.
+     */
+    Reservation newReservation(final Object owner) {
+        final Reservation reservation = new Reservation(owner, collectedOwners);
+        reservations.add(reservation);
+        return reservation;
+    }
+
+    boolean tryReserve(final Reservation reservation, final long bytes) {
+        if (tryReserve(bytes)){
+            reservation.bytes.addAndGet(bytes);
+            return true;
+        }
+        return false;
+    }
+
+    void reserve(final Reservation reservation, final long bytes) {
+        reserve(bytes);
+        reservation.bytes.addAndGet(bytes);
+    }
+
+    /*
+     * Gives back all the memory of the reservation. Subsequent calls have no effect.
+     */
+    void release(final Reservation reservation) {
+        reservations.remove(reservation);
+        reservation.clear();
+        release(reservation.bytes.getAndSet(0));
+    }
+
+    void reclaim() {
+        Reference<?> reference;
+        while ((reference = collectedOwners.poll()) != null) {
+            final Reservation reservation = (Reservation) reference;
+            if (reservations.remove(reservation)) {
+                final long bytes = reservation.bytes.getAndSet(0);
+                if (bytes > 0) {
+                    release(bytes);
+                    reclaimedBytes.addAndGet(bytes);
+                }
+            }
+        }
+    }
+
+    /*
+     * Memory reserved on behalf of an owner (the store keeping the data in memory). Enqueued when the owner is garbage collected.
+     */
+    static final class Reservation extends PhantomReference<Object> {
+
+        final AtomicLong bytes = new AtomicLong(0);
+
+        Reservation(final Object owner, final ReferenceQueue<Object> queue) {
+            super(owner, queue);
+        }
+    }
+
+    /**
+     * <p> Returns the maximum amount of memory, in bytes, that can be reserved.
+     *
+     * @return the maximum amount of memory that can be reserved.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+}
@@ -17,6 +17,8 @@
 package org.synchronoss.cloud.nio.multipart.io;
 
 import org.synchronoss.cloud.nio.multipart.DefaultPartBodyByteStoreFactory;
+import org.synchronoss.cloud.nio.multipart.MultipartMetrics;
+import org.synchronoss.cloud.nio.multipart.NoOpMultipartMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +37,7 @@ public class PurgeOnCloseFileInputStream extends FileInputStream {
     private static final Logger log = LoggerFactory.getLogger(DefaultPartBodyByteStoreFactory.class);
 
     private final File fileToPurge;
+    private final MultipartMetrics metrics;
 
     /**
      * <p> Constructor.
@@ -43,8 +46,20 @@ public class PurgeOnCloseFileInputStream extends FileInputStream {
      * @throws FileNotFoundException if the file does not exist, is a directory or it cannot be opened for reading.
      */
     public PurgeOnCloseFileInputStream(final File file) throws FileNotFoundException {
+        this(file, null);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file.
+     * @param metrics The {@code MultipartMetrics} notified when the file is purged. If null no metrics are collected.
+     * @throws FileNotFoundException if the file does not exist, is a directory or it cannot be opened for reading.
+     */
+    public PurgeOnCloseFileInputStream(final File file, final MultipartMetrics metrics) throws FileNotFoundException {
         super(file);
         fileToPurge = file;
+        this.metrics = metrics != null ? metrics : NoOpMultipartMetrics.INSTANCE;
     }
 
     /**
@@ -57,7 +72,10 @@ public class PurgeOnCloseFileInputStream extends FileInputStream {
     public void close() throws IOException {
         super.close();
         if (fileToPurge.exists()){
-            if (!fileToPurge.delete()) {
+            final long fileLength = fileToPurge.length();
+            if (fileToPurge.delete()) {
+                metrics.recordTempFileDeleted(fileLength);
+            } else {
                 log.warn("Failed to purge file: " + fileToPurge.getAbsolutePath());
             }
         }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p> A thread-safe pool of fixed size byte array segments. The {@code ByteStore}s keeping the part bodies in memory (see {@link DeferredFileByteStore})
+ *     acquire the memory they need as segments from the pool and return them when the data is moved to disk, when the store is dismissed or
+ *     when the {@code InputStream} used to read the data back is closed. Because a segment is never resized or copied, the memory
+ *     used by a part grows in steps of one segment and no garbage is produced while the part is written.
+ *
+ * <p> The pool retains at most {@code maxPooledSegments} idle segments, so its own footprint is bounded to
+ *     {@code segmentSize * maxPooledSegments} bytes. Segments released when the pool is full are left to the garbage collector.
+ *     The pool does not limit the segments in use: when the pool is empty new segments are allocated, so the memory used by the part
+ *     bodies is bounded only by the {@link MemoryBudget}, if one is configured.
+ *     A single pool is meant to be shared by all the parsers of the application, see {@link #getSharedPool()}.
+ *
+ * @author Silvano Riz.
+ */
+public class SegmentPool {
+
+    /**
+     * Default size of a segment. 4Kb
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 4096;
+
+    /**
+     * Default maximum number of idle segments retained by the pool.
+     */
+    public static final int DEFAULT_MAX_POOLED_SEGMENTS = 1024;
+
+    private static final SegmentPool SHARED_POOL = new SegmentPool(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_POOLED_SEGMENTS);
+
+    final int segmentSize;
+    final int maxPooledSegments;
+
+    final Queue<byte[]> pooledSegments = new ConcurrentLinkedQueue<byte[]>();
+    final AtomicInteger pooledSegmentsCount = new AtomicInteger(0);
+
+    /**
+     * <p> Constructor.
+     *
+     * @param segmentSize The size in bytes of the segments.
+     * @param maxPooledSegments The maximum number of idle segments retained by the pool. Zero means that the segments are never reused.
+     */
+    public SegmentPool(final int segmentSize, final int maxPooledSegments) {
+        if (segmentSize <= 0){
+            throw new IllegalArgumentException("The segment size must be greater than zero");
+        }
+        if (maxPooledSegments < 0){
+            throw new IllegalArgumentException("The maximum number of pooled segments cannot be lower than zero");
+        }
+        this.segmentSize = segmentSize;
+        this.maxPooledSegments = maxPooledSegments;
+    }
+
+    /**
+     * <p> Returns the {@code SegmentPool} shared by default by all the {@code DeferredFileByteStore}s. It uses segments of
+     *     {@value #DEFAULT_SEGMENT_SIZE} bytes and retains at most {@value #DEFAULT_MAX_POOLED_SEGMENTS} idle segments.
+     *
+     * @return the shared {@code SegmentPool}
+     */
+    public static SegmentPool getSharedPool() {
+        return SHARED_POOL;
+    }
+
+    /**
+     * <p> Acquires a segment. An idle segment is reused if available, otherwise a new one is allocated.
+     *     The content of a reused segment is not cleared.
+     *
+     * @return a segment of {@link #getSegmentSize()} bytes.
+     */
+    public byte[] acquire() {
+        final byte[] segment = pooledSegments.poll();
+        if (segment != null){
+            pooledSegmentsCount.decrementAndGet();
+            return segment;
+        }
+        return new byte[segmentSize];
+    }
+
+    /**
+     * <p> Returns a segment to the pool. After the release the segment must not be used anymore.
+     *
+     * @param segment The segment to release. Arrays that have not been acquired from this pool are ignored if their size does not match.
+     */
+    public void release(final byte[] segment) {
+        if (segment == null || segment.length != segmentSize){
+            return;
+        }
+        if (pooledSegmentsCount.incrementAndGet() <= maxPooledSegments){
+            pooledSegments.offer(segment);
+        }else{
+            pooledSegmentsCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * <p> Returns the size in bytes of the segments.
+     *
+     * @return the size in bytes of the segments.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * <p> Returns the number of idle segments currently in the pool.
+     *
+     * @return the number of idle segments.
+     */
+    public int getPooledSegmentsCount() {
+        return pooledSegmentsCount.get();
+    }
+
+    /**
+     * <p> Discards all the idle segments.
+     */
+    public void clear() {
+        while (pooledSegments.poll() != null){
+            pooledSegmentsCount.decrementAndGet();
+        }
+    }
+
+}
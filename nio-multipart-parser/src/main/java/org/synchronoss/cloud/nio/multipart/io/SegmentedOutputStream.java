@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p> {@code OutputStream} that keeps the data in fixed size segments acquired from a {@link SegmentPool}.
+ *     Growing never copies the data already written and the data can be read back via {@link #newInputStream(boolean)} without copies.
+ * <p> The segments are returned to the pool via {@link #release()}. Once released the stream cannot be written or read anymore,
+ *     and the {@code InputStream}s still open fail with an {@code IOException}.
+ * <p> If a {@link MemoryBudget} is configured, the memory of each segment is reserved from the budget before the segment is acquired,
+ *     see {@link #ensureCapacity(int)}, and given back on release. If the stream is garbage collected without being released, the budget
+ *     reclaims the memory.
+ *
+ * @author Silvano Riz.
+ */
+class SegmentedOutputStream extends OutputStream {
+
+    final SegmentPool segmentPool;
+    final int segmentSize;
+    final MemoryBudget memoryBudget;
+    final MemoryBudget.Reservation reservation;
+    final List<byte[]> segments = new ArrayList<byte[]>();
+
+    int size = 0;
+    int openInputStreams = 0;
+    boolean releaseOnInputStreamClose = false;
+    volatile boolean released = false;
+
+    SegmentedOutputStream(final SegmentPool segmentPool) {
+        this(segmentPool, null);
+    }
+
+    SegmentedOutputStream(final SegmentPool segmentPool, final MemoryBudget memoryBudget) {
+        this.segmentPool = segmentPool;
+        this.segmentSize = segmentPool.getSegmentSize();
+        this.memoryBudget = memoryBudget;
+        // If the stream is garbage collected without being released, the budget reclaims the memory reserved
+        this.reservation = memoryBudget != null ? memoryBudget.newReservation(this) : null;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        assertNotReleased();
+        final int offset = size % segmentSize;
+        if (offset == 0 && size / segmentSize == segments.size()){
+            ensureCapacity(1, true);
+        }
+        segments.get(size / segmentSize)[offset] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        assertNotReleased();
+        while (len > 0){
+            final int segmentIndex = size / segmentSize;
+            final int segmentOffset = size % segmentSize;
+            if (segmentIndex == segments.size()){
+                ensureCapacity(len, true);
+            }
+            final int chunkSize = Math.min(len, segmentSize - segmentOffset);
+            System.arraycopy(b, off, segments.get(segmentIndex), segmentOffset, chunkSize);
+            size += chunkSize;
+            off += chunkSize;
+            len -= chunkSize;
+        }
+    }
+
+    /**
+     * <p> Writes the remaining bytes of the {@code ByteBuffer}, copying them straight into the segments.
+     *
+     * @param src The {@code ByteBuffer} to write.
+     */
+    void write(final ByteBuffer src) {
+        assertNotReleased();
+        while (src.hasRemaining()){
+            final int segmentIndex = size / segmentSize;
+            final int segmentOffset = size % segmentSize;
+            if (segmentIndex == segments.size()){
+                ensureCapacity(src.remaining(), true);
+            }
+            final int chunkSize = Math.min(src.remaining(), segmentSize - segmentOffset);
+            src.get(segments.get(segmentIndex), segmentOffset, chunkSize);
+            size += chunkSize;
+        }
+    }
+
+    /**
+     * <p> Makes sure there is room for {@code length} more bytes, acquiring the segments needed. If a {@code MemoryBudget} is configured the
+     *     memory for the new segments is reserved first and, if the budget does not allow it, no segment is acquired.
+     *
+     * @param length The number of bytes that are going to be written.
+     * @return true if the bytes can be written, false if the memory budget is exhausted.
+     */
+    boolean ensureCapacity(final int length) {
+        return ensureCapacity(length, false);
+    }
+
+    // Plain writes cannot be refused, so they force the reservation.
+    boolean ensureCapacity(final int length, final boolean forceReservation) {
+        assertNotReleased();
+        final int segmentsNeeded = (size + length + segmentSize - 1) / segmentSize - segments.size();
+        if (segmentsNeeded <= 0){
+            return true;
+        }
+        if (memoryBudget != null){
+            final long bytesNeeded = (long) segmentsNeeded * segmentSize;
+            if (forceReservation){
+                memoryBudget.reserve(reservation, bytesNeeded);
+            }else if (!memoryBudget.tryReserve(reservation, bytesNeeded)){
+                return false;
+            }
+        }
+        for (int i = 0; i < segmentsNeeded; i++){
+            segments.add(segmentPool.acquire());
+        }
+        return true;
+    }
+
+    /**
+     * <p> Returns the number of bytes written.
+     *
+     * @return the number of bytes written.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * <p> Writes all the data to the given {@code OutputStream}, one segment at the time.
+     *
+     * @param outputStream The target {@code OutputStream}.
+     * @throws IOException If the write fails.
+     */
+    void writeTo(final OutputStream outputStream) throws IOException {
+        assertNotReleased();
+        int remaining = size;
+        for (byte[] segment : segments){
+            final int chunkSize = Math.min(remaining, segmentSize);
+            outputStream.write(segment, 0, chunkSize);
+            remaining -= chunkSize;
+        }
+    }
+
+    /**
+     * <p> Writes to the channel up to {@code count} bytes starting at {@code position}, without going past the end of the segment holding
+     *     {@code position}. As for any channel write, less bytes might be written.
+     *
+     * @param position The position of the first byte to write.
+     * @param count The maximum number of bytes to write.
+     * @param target The target channel.
+     * @return the number of bytes written, possibly zero.
+     * @throws IOException If the write fails or the memory has been released.
+     */
+    synchronized int transferTo(final int position, final int count, final WritableByteChannel target) throws IOException {
+        if (released){
+            throw new IOException("The memory has been released, the store has been dismissed or the data purged");
+        }
+        final int segmentOffset = position % segmentSize;
+        final int length = Math.min(Math.min(count, size - position), segmentSize - segmentOffset);
+        return target.write(ByteBuffer.wrap(segments.get(position / segmentSize), segmentOffset, length));
+    }
+
+    /**
+     * <p> Returns a copy of the data.
+     *
+     * @return a copy of the data.
+     */
+    synchronized byte[] toByteArray() {
+        assertNotReleased();
+        final byte[] data = new byte[size];
+        int position = 0;
+        for (byte[] segment : segments){
+            final int chunkSize = Math.min(size - position, segmentSize);
+            System.arraycopy(segment, 0, data, position, chunkSize);
+            position += chunkSize;
+        }
+        return data;
+    }
+
+    /**
+     * <p> Returns an {@code InputStream} reading the data straight from the segments.
+     *
+     * @param releaseOnClose If true, the segments are released when all the {@code InputStream}s opened so far are closed.
+     * @return an {@code InputStream} reading the data.
+     */
+    synchronized InputStream newInputStream(final boolean releaseOnClose) {
+        assertNotReleased();
+        openInputStreams++;
+        releaseOnInputStreamClose |= releaseOnClose;
+        return new SegmentsInputStream();
+    }
+
+    /**
+     * <p> Returns the segments to the pool. Subsequent calls have no effect.
+     */
+    synchronized void release() {
+        if (!released){
+            released = true;
+            if (memoryBudget != null){
+                memoryBudget.release(reservation);
+            }
+            for (byte[] segment : segments){
+                segmentPool.release(segment);
+            }
+            segments.clear();
+            size = 0;
+        }
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    synchronized void inputStreamClosed() {
+        openInputStreams--;
+        if (openInputStreams == 0 && releaseOnInputStreamClose){
+            release();
+        }
+    }
+
+    void assertNotReleased() {
+        if (released){
+            throw new IllegalStateException("The memory has been released");
+        }
+    }
+
+    /*
+     * Reads under the lock of the SegmentedOutputStream, so a concurrent release() (a dismiss, or another reader purging the data)
+     * cannot hand the segments back to the pool in the middle of a read. Once released the read fails instead of returning a truncated body.
+     */
+    class SegmentsInputStream extends InputStream {
+
+        int position = 0;
+        boolean closed = false;
+
+        @Override
+        public int read() throws IOException {
+            synchronized (SegmentedOutputStream.this) {
+                assertReadable();
+                if (position >= size){
+                    return -1;
+                }
+                final int b = segments.get(position / segmentSize)[position % segmentSize] & 0xFF;
+                position++;
+                return b;
+            }
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            synchronized (SegmentedOutputStream.this) {
+                assertReadable();
+                if (len == 0){
+                    return 0;
+                }
+                if (position >= size){
+                    return -1;
+                }
+                final int segmentOffset = position % segmentSize;
+                final int chunkSize = Math.min(Math.min(len, size - position), segmentSize - segmentOffset);
+                System.arraycopy(segments.get(position / segmentSize), segmentOffset, b, off, chunkSize);
+                position += chunkSize;
+                return chunkSize;
+            }
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            synchronized (SegmentedOutputStream.this) {
+                assertReadable();
+                final long skipped = Math.max(0, Math.min(n, size - position));
+                position += skipped;
+                return skipped;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (SegmentedOutputStream.this) {
+                return closed || released ? 0 : size - position;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed){
+                closed = true;
+                inputStreamClosed();
+            }
+        }
+
+        void assertReadable() throws IOException {
+            if (closed){
+                throw new IOException("Stream closed");
+            }
+            if (released){
+                throw new IOException("The memory has been released while reading, the store has been dismissed or the data purged by another reader");
+            }
+        }
+    }
+
+}
@@ -25,6 +25,10 @@ import java.io.OutputStream;
 /**
  * <p> A reusable circular buffer
  *
+ * <p> The buffer is not thread safe and it is meant to be owned by one thread at a time: the indexes are plain fields, neither
+ *     volatile nor guarded by a lock. If the ownership moves to a different thread, the hand-off must happen via a construct
+ *     establishing a happens-before relationship, for example a lock or a concurrent queue.
+ *
  * @author Silvano Riz.
  */
 public class CircularBuffer {
@@ -39,13 +43,13 @@ public class CircularBuffer {
     final byte[] buffer;
 
     // Pointer to the first slot with valid data
-    volatile int startValidDataIndex = 0;
+    int startValidDataIndex = 0;
 
     // Pointer to the first available slot for write
-    volatile int nextAvailablePosition = 0;
+    int nextAvailablePosition = 0;
 
     // Number of slots of valid data
-    volatile int availableReadLength = 0;
+    int availableReadLength = 0;
 
     /**
      * <p> Constructor.
@@ -119,7 +123,6 @@ public class CircularBuffer {
             outputStream.write(buffer, startValidDataIndex, chunkSize);
         }
         startValidDataIndex = forwards(startValidDataIndex, chunkSize);
-        outputStream.flush();
         updateAvailableReadLength(false);
 
     }
@@ -160,6 +163,23 @@ public class CircularBuffer {
         return size;
     }
 
+    /**
+     * <p> Returns a copy of the available data, without consuming it.
+     *
+     * @return a copy of the available data.
+     */
+    public byte[] getAvailableData(){
+        final byte[] data = new byte[availableReadLength];
+        if (startValidDataIndex + availableReadLength > buffer.length){
+            final int firstChunkLength = buffer.length - startValidDataIndex;
+            System.arraycopy(buffer, startValidDataIndex, data, 0, firstChunkLength);
+            System.arraycopy(buffer, 0, data, firstChunkLength, availableReadLength - firstChunkLength);
+        }else{
+            System.arraycopy(buffer, startValidDataIndex, data, 0, availableReadLength);
+        }
+        return data;
+    }
+
     /**
      * <p> Resets the buffer.
      */
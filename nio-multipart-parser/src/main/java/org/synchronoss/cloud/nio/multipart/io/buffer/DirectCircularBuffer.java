@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart.io.buffer;
+
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p> A reusable circular buffer backed by a {@code ByteBuffer} instead of a {@code byte[]}. By default the storage is allocated
+ *     off-heap (direct memory), but any {@code ByteBuffer} can be provided, for example a slice of a bigger slab shared by many connections:
+ *
+ * <pre>
+ * ByteBuffer slab = ByteBuffer.allocateDirect(connections * 16384);
+ * slab.position(connection * 16384).limit((connection + 1) * 16384);
+ * DirectCircularBuffer buffer = new DirectCircularBuffer(slab.slice());
+ * </pre>
+ *
+ * <p> Like {@link CircularBuffer}, when the buffer is full the oldest data is overwritten. Data can be written in bulk via {@link #put(ByteBuffer)}
+ *     and drained to a {@code WritableByteChannel} (e.g. a {@code FileChannel}) without copying it to the heap via {@link #drainTo(WritableByteChannel)}.
+ *
+ * <p> Same threading model as the {@link CircularBuffer}.
+ *
+ * @author Silvano Riz.
+ */
+public class DirectCircularBuffer {
+
+    // Capacity of the buffer.
+    final int size;
+
+    // The buffer
+    final ByteBuffer buffer;
+
+    // Pointer to the first slot with valid data
+    int startValidDataIndex = 0;
+
+    // Pointer to the first available slot for write
+    int nextAvailablePosition = 0;
+
+    // Number of slots of valid data
+    int availableReadLength = 0;
+
+    // Lazily allocated heap array used when reading into an OutputStream
+    byte[] copyBuffer;
+
+    /**
+     * <p> Constructor. The storage is allocated in direct memory.
+     *
+     * @param size The size of the buffer. Must be greater than or equal to 1
+     */
+    public DirectCircularBuffer(final int size) {
+        if(size < 1){
+            throw new IllegalArgumentException("Size cannot be zero or negative. Size: " + size);
+        }
+        this.size = size;
+        this.buffer = ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * <p> Constructor. The remaining bytes of the given {@code ByteBuffer} are used as storage. The buffer is not copied, so the storage
+     *     must not be used by anything else while the {@code DirectCircularBuffer} is in use.
+     *
+     * @param storage The storage of the buffer. Must have at least 1 byte remaining.
+     */
+    public DirectCircularBuffer(final ByteBuffer storage) {
+        if (storage == null){
+            throw new IllegalArgumentException("Storage cannot be null");
+        }
+        if(storage.remaining() < 1){
+            throw new IllegalArgumentException("Size cannot be zero or negative. Size: " + storage.remaining());
+        }
+        this.buffer = storage.slice();
+        this.size = buffer.capacity();
+    }
+
+    /**
+     * <p> Writes a byte in the first available slot in the buffer. If the buffer is full the oldest data written will be overwritten.
+     *
+     * @param data The byte to write.
+     */
+    public void write(final byte data){
+        buffer.put(nextAvailablePosition, data);
+        nextAvailablePosition = forwards(nextAvailablePosition, 1);
+        if (availableReadLength == size){
+            // buffer was full, the oldest byte has been overwritten
+            startValidDataIndex = nextAvailablePosition;
+        }else{
+            availableReadLength++;
+        }
+    }
+
+    /**
+     * <p> Writes all the remaining bytes of a {@code ByteBuffer}. If there is not enough space the oldest data written will be overwritten,
+     *     so if the source has more remaining bytes than the buffer size only the last ones are kept.
+     *     When the method returns the position of the source is equal to its limit.
+     *
+     * @param src The source of the data.
+     */
+    public void put(final ByteBuffer src){
+
+        int length = src.remaining();
+        if (length == 0){
+            return;
+        }
+        if (length > size){
+            // Only the last 'size' bytes will survive.
+            src.position(src.limit() - size);
+            length = size;
+        }
+
+        final int firstChunkLength = Math.min(length, size - nextAvailablePosition);
+        copy(src, nextAvailablePosition, firstChunkLength);
+        if (firstChunkLength < length){
+            copy(src, 0, length - firstChunkLength);
+        }
+
+        nextAvailablePosition = forwards(nextAvailablePosition, length);
+        if (availableReadLength + length >= size){
+            availableReadLength = size;
+            startValidDataIndex = nextAvailablePosition;
+        }else{
+            availableReadLength += length;
+        }
+    }
+
+    /**
+     * <p> Drains as much data as the channel accepts. A channel in blocking mode accepts all the data, while a channel in non blocking mode
+     *     might accept only part of it. The data not accepted stays in the buffer.
+     *
+     * @param channel The {@code WritableByteChannel} target of the read.
+     * @return The number of bytes drained.
+     * @throws IOException If the write to the channel fails.
+     */
+    public int drainTo(final WritableByteChannel channel) throws IOException {
+        int drained = 0;
+        while (availableReadLength > 0){
+            final ByteBuffer chunk = nextChunk(availableReadLength);
+            final int written = channel.write(chunk);
+            consume(written);
+            drained += written;
+            if (chunk.hasRemaining()){
+                break;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * <p> Reads all the available valid data into an {@code OutputStream}
+     *
+     * @param outputStream The {@code OutputStream} target of the read.
+     * @throws IOException If the read fails.
+     */
+    public void readAll(final OutputStream outputStream) throws IOException {
+        readChunk(outputStream, availableReadLength);
+    }
+
+    /**
+     * <p> Reads a chunk of available data into an {@code OutputStream}. If the target is a {@link ByteStore} the data is written as
+     *     {@code ByteBuffer} slices, otherwise it is copied to the heap first.
+     *
+     * @param outputStream The {@code OutputStream}  target of the read.
+     * @param chunkSize The size of the chunk. Must be less than or equal {@link #getAvailableDataLength()}
+     * @throws IOException If the read fails.
+     */
+    public void readChunk(final OutputStream outputStream, final int chunkSize) throws IOException {
+
+        if (chunkSize > availableReadLength){
+            throw new IllegalArgumentException("The chunk size must be smaller or equal to the amount of available data in the buffer." +
+                    " Available data: " + availableReadLength + ", Requested chunk size: " + chunkSize);
+        }
+
+        int remaining = chunkSize;
+        while (remaining > 0){
+            final ByteBuffer chunk = nextChunk(remaining);
+            final int length = chunk.remaining();
+            if (outputStream instanceof ByteStore){
+                ((ByteStore) outputStream).write(chunk);
+            }else{
+                if (copyBuffer == null){
+                    copyBuffer = new byte[Math.min(size, 8192)];
+                }
+                while (chunk.hasRemaining()){
+                    final int copyLength = Math.min(chunk.remaining(), copyBuffer.length);
+                    chunk.get(copyBuffer, 0, copyLength);
+                    outputStream.write(copyBuffer, 0, copyLength);
+                }
+            }
+            consume(length);
+            remaining -= length;
+        }
+    }
+
+    /**
+     * <p> Returns if the buffer is full
+     *
+     * @return true if the buffer is full, false otherwise.
+     */
+    public boolean isFull(){
+        return availableReadLength == size;
+    }
+
+    /**
+     * <p> Returns if the buffer is empty
+     *
+     * @return true if the buffer is empty, false otherwise.
+     */
+    public boolean isEmpty(){
+        return availableReadLength == 0;
+    }
+
+    /**
+     * <p> Returns the number of slots with valid data
+     *
+     * @return the number of slots with valid data
+     */
+    public int getAvailableDataLength(){
+        return availableReadLength;
+    }
+
+    /**
+     * <p> Returns the buffer capacity
+     *
+     * @return The buffer capacity
+     */
+    public int getBufferSize(){
+        return size;
+    }
+
+    /**
+     * <p> Resets the buffer.
+     */
+    public void reset(){
+        startValidDataIndex = 0;
+        nextAvailablePosition = 0;
+        availableReadLength = 0;
+    }
+
+    int forwards(final int currentPosition, final int positions){
+        final int newPosition = currentPosition + positions;
+        return newPosition >= size ? newPosition - size : newPosition;
+    }
+
+    // View over the contiguous valid data starting at startValidDataIndex, at most maxLength long.
+    ByteBuffer nextChunk(final int maxLength){
+        final int length = Math.min(maxLength, size - startValidDataIndex);
+        final ByteBuffer chunk = buffer.duplicate();
+        chunk.limit(startValidDataIndex + length).position(startValidDataIndex);
+        return chunk;
+    }
+
+    void consume(final int length){
+        startValidDataIndex = forwards(startValidDataIndex, length);
+        availableReadLength -= length;
+    }
+
+    void copy(final ByteBuffer src, final int index, final int length){
+        final ByteBuffer target = buffer.duplicate();
+        target.limit(index + length).position(index);
+        final int srcLimit = src.limit();
+        src.limit(src.position() + length);
+        target.put(src);
+        src.limit(srcLimit);
+    }
+
+}
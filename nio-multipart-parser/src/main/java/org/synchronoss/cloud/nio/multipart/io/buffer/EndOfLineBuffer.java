@@ -18,14 +18,21 @@ package org.synchronoss.cloud.nio.multipart.io.buffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
 
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * <p> A reusable buffer that is watching for end of line sequences.
  *     Every time the buffer is full or if an end of line is encountered the data (excluded the end of line sequence) will be flushed to an {@code OutputStream}.
  *     After an end of line sequence has been found, the buffer is not writable anymore and {@link #recycle(byte[], OutputStream)} must be call to reuse it.
  *
+ * <p> Same threading model as the {@link CircularBuffer} underneath.
+ *
  * @author Silvano Riz.
  */
 public class EndOfLineBuffer {
@@ -33,17 +40,44 @@ public class EndOfLineBuffer {
     @SuppressWarnings("unused")
     private static final Logger log = LoggerFactory.getLogger(EndOfLineBuffer.class);
 
+    // End of line sequences up to this length are searched 8 bytes at a time (SWAR). Longer ones with Boyer-Moore-Horspool,
+    // which already skips up to the sequence length at every step.
+    static final int SWAR_MAX_SEQUENCE_LENGTH = 8;
+
+    private static final long SWAR_ONES = 0x0101010101010101L;
+    private static final long SWAR_LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+
     // Underlying circular buffer.
     final CircularBuffer circularBuffer;
 
     // The output stream where to flush the buffer when full or when an enf of line sequence has been found
-    volatile OutputStream flushOutputStream;
+    OutputStream flushOutputStream;
 
     // The end of line sequence
-    volatile byte[] endOfLineSequence;
+    byte[] endOfLineSequence;
 
     // How many bytes are currently matching the end of line sequence
-    volatile int endOfLineSequenceMatchingLength;
+    int endOfLineSequenceMatchingLength;
+
+    // Bad character skip table for the current end of line sequence (Boyer-Moore-Horspool)
+    int[] endOfLineSequenceSkipTable;
+
+    // Failure function of the current end of line sequence (Knuth-Morris-Pratt). For each length of a partial match, the
+    // length of the longest proper prefix of the sequence that is also a suffix of the partial match.
+    int[] endOfLineSequenceFailureTable;
+
+    // Reusable array to copy the data of a direct ByteBuffer into, when the flush OutputStream cannot consume a ByteBuffer
+    byte[] copyBuffer;
+
+    // ByteBuffer wrapping the last array written, reused as long as the caller keeps writing from the same array
+    byte[] wrappedData;
+    ByteBuffer wrapper;
+
+    // Skip tables already computed, keyed by end of line sequence. The buffer is recycled over and over with the same few sequences.
+    final Map<byte[], int[]> skipTables = new IdentityHashMap<byte[], int[]>();
+
+    // Failure tables already computed, keyed by end of line sequence.
+    final Map<byte[], int[]> failureTables = new IdentityHashMap<byte[], int[]>();
 
     /**
      * <p> Constructor
@@ -62,6 +96,8 @@ public class EndOfLineBuffer {
         this.flushOutputStream = flushOutputStream;
         this.endOfLineSequence = endOfLineSequence;
         this.endOfLineSequenceMatchingLength = 0;
+        this.endOfLineSequenceSkipTable = skipTable(endOfLineSequence);
+        this.endOfLineSequenceFailureTable = failureTable(endOfLineSequence);
     }
 
     /**
@@ -75,6 +111,76 @@ public class EndOfLineBuffer {
         this.flushOutputStream = flushOutputStream;
         this.endOfLineSequence = endOfLineSequence;
         this.endOfLineSequenceMatchingLength = 0;
+        this.endOfLineSequenceSkipTable = skipTable(endOfLineSequence);
+        this.endOfLineSequenceFailureTable = failureTable(endOfLineSequence);
+    }
+
+    /**
+     * <p> Resets the buffer so that it can be reused to process a different stream. Like {@link #recycle(byte[], OutputStream)},
+     *     but it also discards the lookup tables cached for the end of line sequences used so far.
+     *
+     * @param endOfLineSequence The new end of line sequence.
+     * @param flushOutputStream The new {@code OutputStream} where to flush the data when the buffer is full.
+     */
+    public void reset(final byte[] endOfLineSequence, final OutputStream flushOutputStream){
+        if (endOfLineSequence.length >= circularBuffer.size){
+            throw new IllegalArgumentException("The end of line sequence cannot be larger than the buffer size. End of line sequence length: " + endOfLineSequence.length + ", buffer size: " + circularBuffer.size);
+        }
+        this.skipTables.clear();
+        this.failureTables.clear();
+        this.wrappedData = null;
+        this.wrapper = null;
+        recycle(endOfLineSequence, flushOutputStream);
+    }
+
+    /**
+     * <p> Restores the status of a buffer saved via {@link #getBufferedData()}, {@link #getEndOfLineSequence()} and
+     *     {@link #getEndOfLineSequenceMatchingLength()}, for example to resume the processing of a stream in a different process.
+     *
+     * @param endOfLineSequence The end of line sequence.
+     * @param flushOutputStream The {@code OutputStream} where to flush the data when the buffer is full.
+     * @param bufferedData The data held by the buffer and not flushed yet.
+     * @param endOfLineSequenceMatchingLength How many bytes of the end of line sequence have already been matched.
+     */
+    public void restore(final byte[] endOfLineSequence, final OutputStream flushOutputStream, final byte[] bufferedData, final int endOfLineSequenceMatchingLength){
+        if (bufferedData.length > circularBuffer.size){
+            throw new IllegalArgumentException("The buffered data cannot be larger than the buffer size. Buffered data length: " + bufferedData.length + ", buffer size: " + circularBuffer.size);
+        }
+        if (endOfLineSequenceMatchingLength < 0 || endOfLineSequenceMatchingLength > endOfLineSequence.length){
+            throw new IllegalArgumentException("Invalid end of line sequence matching length: " + endOfLineSequenceMatchingLength);
+        }
+        recycle(endOfLineSequence, flushOutputStream);
+        for (byte b : bufferedData){
+            circularBuffer.write(b);
+        }
+        this.endOfLineSequenceMatchingLength = endOfLineSequenceMatchingLength;
+    }
+
+    /**
+     * <p> Returns a copy of the data held by the buffer and not flushed yet.
+     *
+     * @return a copy of the data held by the buffer.
+     */
+    public byte[] getBufferedData(){
+        return circularBuffer.getAvailableData();
+    }
+
+    /**
+     * <p> Returns the current end of line sequence.
+     *
+     * @return the current end of line sequence.
+     */
+    public byte[] getEndOfLineSequence(){
+        return endOfLineSequence;
+    }
+
+    /**
+     * <p> Returns how many bytes of the end of line sequence have already been matched.
+     *
+     * @return how many bytes of the end of line sequence have already been matched.
+     */
+    public int getEndOfLineSequenceMatchingLength(){
+        return endOfLineSequenceMatchingLength;
     }
 
     /**
@@ -100,6 +206,91 @@ public class EndOfLineBuffer {
         return isEndOfLine;
     }
 
+    /**
+     * <p> Writes a slice of data in the buffer, stopping right after the end of line sequence if one is encountered.
+     *     Instead of going through the buffer one byte at a time, the slice is searched for the end of line sequence and the data
+     *     preceding it is flushed to the {@code OutputStream} with a single write. Only the trailing bytes that might be the beginning of an end of line
+     *     sequence continuing in the next write are kept in the buffer.
+     *     If the buffer already encountered an end of line sequence, and exception will be thrown.
+     *
+     * @param data The data.
+     * @param offset The index of the first byte to write.
+     * @param length The number of bytes to write.
+     * @return The number of bytes consumed. It is less than the length if an end of line sequence has been encountered, in which case {@link #isEndOfLine()} returns true.
+     */
+    public int write(final byte[] data, final int offset, final int length){
+        if (data != wrappedData){
+            wrapper = ByteBuffer.wrap(data);
+            wrappedData = data;
+        }
+        wrapper.clear();
+        wrapper.position(offset).limit(offset + length);
+        return write(wrapper);
+    }
+
+    /**
+     * <p> Writes the remaining bytes of a {@code ByteBuffer} in the buffer, stopping right after the end of line sequence if one is encountered.
+     *     It works like {@link #write(byte[], int, int)}, reading the data straight from the {@code ByteBuffer}. If the buffer is backed by an array the data preceding
+     *     the end of line sequence is flushed from the array, otherwise, if the flush {@code OutputStream} is a {@link ByteStore}, it is written as a {@code ByteBuffer} slice via
+     *     {@link ByteStore#write(ByteBuffer)} and it is copied through a reusable array only for a plain {@code OutputStream}.
+     *     The position of the {@code ByteBuffer} is advanced by the number of bytes consumed.
+     *
+     * @param data The {@code ByteBuffer} with the data.
+     * @return The number of bytes consumed. It is less than the remaining bytes if an end of line sequence has been encountered, in which case {@link #isEndOfLine()} returns true.
+     */
+    public int write(final ByteBuffer data){
+
+        if (isEndOfLine()){
+            throw new IllegalStateException("Buffer is in an end of line state. You need to recycle it before writing.");
+        }
+
+        final int offset = data.position();
+        final int end = data.limit();
+        int index = offset;
+
+        // An end of line sequence might be split between the previous write and this one.
+        // Carry on matching it byte by byte, but never for more than the end of line sequence length.
+        while (endOfLineSequenceMatchingLength > 0 && index < end && index - offset < endOfLineSequence.length){
+            if (write(data.get(index++))){
+                data.position(index);
+                return index - offset;
+            }
+        }
+        if (index == end){
+            data.position(end);
+            return end - offset;
+        }
+
+        // Whatever is still matching is entirely contained in the data, so it can be searched again from there.
+        final int stillMatching = endOfLineSequenceMatchingLength;
+        if (flushOutputStream != null){
+            try {
+                circularBuffer.readChunk(flushOutputStream, circularBuffer.getAvailableDataLength() - stillMatching);
+            } catch (Exception e) {
+                throw new IllegalStateException("Error flushing the buffer data.", e);
+            }
+        }
+        circularBuffer.reset();
+        endOfLineSequenceMatchingLength = 0;
+        index -= stillMatching;
+
+        final int endOfLineIndex = indexOfEndOfLineSequence(data, index, end);
+        if (endOfLineIndex != -1){
+            flush(data, index, endOfLineIndex - index);
+            endOfLineSequenceMatchingLength = endOfLineSequence.length;
+            data.position(endOfLineIndex + endOfLineSequence.length);
+            return endOfLineIndex + endOfLineSequence.length - offset;
+        }
+
+        final int partialMatchLength = partialMatchLength(data, index, end);
+        flush(data, index, end - partialMatchLength - index);
+        for (int i = end - partialMatchLength; i < end; i++){
+            write(data.get(i));
+        }
+        data.position(end);
+        return end - offset;
+    }
+
     /**
      * <p> Returns if an end of line has been encountered.
      *
@@ -110,16 +301,163 @@ public class EndOfLineBuffer {
     }
 
     boolean updateEndOfLineMatchingStatus(final byte b){
-        if (endOfLineSequence[endOfLineSequenceMatchingLength] == b){
-            endOfLineSequenceMatchingLength++;
-        }else if (endOfLineSequence[0] == b){
-            endOfLineSequenceMatchingLength = 1;
-        }else{
-            endOfLineSequenceMatchingLength = 0;
-        }
+        endOfLineSequenceMatchingLength = nextMatchingLength(endOfLineSequenceMatchingLength, b);
         return isEndOfLine();
     }
 
+    int nextMatchingLength(int matchingLength, final byte b){
+        // On a mismatch fall back to the longest partial match that can still be extended, instead of starting over.
+        final byte[] sequence = endOfLineSequence;
+        final int[] failureTable = endOfLineSequenceFailureTable;
+        while (matchingLength > 0 && sequence[matchingLength] != b){
+            matchingLength = failureTable[matchingLength - 1];
+        }
+        return sequence[matchingLength] == b ? matchingLength + 1 : 0;
+    }
+
+    int indexOfEndOfLineSequence(final ByteBuffer data, final int from, final int to){
+        if (endOfLineSequence.length <= SWAR_MAX_SEQUENCE_LENGTH){
+            return indexOfEndOfLineSequenceSwar(data, from, to);
+        }
+        final byte[] sequence = endOfLineSequence;
+        final int[] skipTable = endOfLineSequenceSkipTable;
+        final int last = sequence.length - 1;
+        int i = from;
+        while (i + last < to){
+            int j = last;
+            while (data.get(i + j) == sequence[j]){
+                if (j == 0){
+                    return i;
+                }
+                j--;
+            }
+            i += skipTable[data.get(i + last) & 0xFF];
+        }
+        return -1;
+    }
+
+    int partialMatchLength(final ByteBuffer data, final int from, final int to){
+        // Length of the longest suffix of the data that is also a prefix of the end of line sequence.
+        // The data does not contain the whole sequence, so the match can only start in the last (sequence length - 1) bytes.
+        int matchingLength = 0;
+        for (int i = Math.max(from, to - endOfLineSequence.length + 1); i < to; i++){
+            matchingLength = nextMatchingLength(matchingLength, data.get(i));
+        }
+        return matchingLength;
+    }
+
+    int indexOfEndOfLineSequenceSwar(final ByteBuffer data, final int from, final int to){
+        // Reads 8 bytes at a time as a long and looks for the first byte of the end of line sequence in all of them at once.
+        // Only the positions where the first byte is found are then verified. The data is read with the byte order of the
+        // ByteBuffer, which tells if the byte at the lowest index is the most or the least significant one of the long.
+        final byte[] sequence = endOfLineSequence;
+        final long pattern = (sequence[0] & 0xFFL) * SWAR_ONES;
+        final boolean bigEndian = data.order() == ByteOrder.BIG_ENDIAN;
+        final int lastStart = to - sequence.length;
+        int i = from;
+        while (i + 8 <= to){
+            long found = zeroBytes(data.getLong(i) ^ pattern);
+            while (found != 0){
+                final int bit = bigEndian ? 63 - Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found);
+                final int candidate = i + (bigEndian ? 7 - (bit >>> 3) : bit >>> 3);
+                if (candidate > lastStart){
+                    return -1;
+                }
+                if (matches(data, candidate)){
+                    return candidate;
+                }
+                found &= ~(1L << bit);
+            }
+            i += 8;
+        }
+        for (; i <= lastStart; i++){
+            if (data.get(i) == sequence[0] && matches(data, i)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static long zeroBytes(final long word){
+        // High bit set in every byte of the word that is zero. Unlike the usual (word - 0x01..) & ~word & 0x80.. there are no
+        // carries between bytes, so there are no false positives whatever the byte order.
+        return ~(((word & SWAR_LOW_7_BITS) + SWAR_LOW_7_BITS) | word | SWAR_LOW_7_BITS);
+    }
+
+    boolean matches(final ByteBuffer data, final int index){
+        final byte[] sequence = endOfLineSequence;
+        for (int j = 1; j < sequence.length; j++){
+            if (data.get(index + j) != sequence[j]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int[] skipTable(final byte[] endOfLineSequence){
+        int[] skipTable = skipTables.get(endOfLineSequence);
+        if (skipTable == null){
+            skipTable = new int[256];
+            final int last = endOfLineSequence.length - 1;
+            for (int i = 0; i < skipTable.length; i++){
+                skipTable[i] = endOfLineSequence.length;
+            }
+            for (int i = 0; i < last; i++){
+                skipTable[endOfLineSequence[i] & 0xFF] = last - i;
+            }
+            skipTables.put(endOfLineSequence, skipTable);
+        }
+        return skipTable;
+    }
+
+    int[] failureTable(final byte[] endOfLineSequence){
+        int[] failureTable = failureTables.get(endOfLineSequence);
+        if (failureTable == null){
+            failureTable = new int[endOfLineSequence.length];
+            int border = 0;
+            for (int i = 1; i < endOfLineSequence.length; i++){
+                while (border > 0 && endOfLineSequence[i] != endOfLineSequence[border]){
+                    border = failureTable[border - 1];
+                }
+                if (endOfLineSequence[i] == endOfLineSequence[border]){
+                    border++;
+                }
+                failureTable[i] = border;
+            }
+            failureTables.put(endOfLineSequence, failureTable);
+        }
+        return failureTable;
+    }
+
+    void flush(final ByteBuffer data, final int offset, final int length){
+        if (flushOutputStream == null || length <= 0){
+            return;
+        }
+        try {
+            if (data.hasArray()){
+                flushOutputStream.write(data.array(), data.arrayOffset() + offset, length);
+                return;
+            }
+            final ByteBuffer slice = data.duplicate();
+            slice.limit(offset + length);
+            slice.position(offset);
+            if (flushOutputStream instanceof ByteStore){
+                ((ByteStore) flushOutputStream).write(slice);
+            }else{
+                if (copyBuffer == null){
+                    copyBuffer = new byte[circularBuffer.getBufferSize()];
+                }
+                while (slice.hasRemaining()){
+                    final int chunkSize = Math.min(slice.remaining(), copyBuffer.length);
+                    slice.get(copyBuffer, 0, chunkSize);
+                    flushOutputStream.write(copyBuffer, 0, chunkSize);
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Error flushing the buffer data.", e);
+        }
+    }
+
     void flushIfNeeded(){
         if (flushOutputStream == null){
             return;
@@ -27,17 +27,17 @@ final class Base64Decoder {
     /**
      * Decoding table value for invalid bytes.
      */
-    private static final int INVALID_BYTE = -1; // must be outside range 0-63
+    static final int INVALID_BYTE = -1; // must be outside range 0-63
 
     /**
      * Decoding table value for padding bytes, so can detect PAD afer conversion.
      */
-    private static final int PAD_BYTE = -2; // must be outside range 0-63
+    static final int PAD_BYTE = -2; // must be outside range 0-63
 
     /**
      * Mask to treat byte as unsigned integer.
      */
-    private static final int MASK_BYTE_UNSIGNED = 0xFF;
+    static final int MASK_BYTE_UNSIGNED = 0xFF;
 
     /**
      * Number of bytes per encoded chunk - 4 6bit bytes produce 3 8bit bytes on output.
@@ -71,7 +71,7 @@ final class Base64Decoder {
      * so must be at least as large as the number of different byte values,
      * positive and negative and zero.
      */
-    private static final byte[] DECODING_TABLE = new byte[Byte.MAX_VALUE - Byte.MIN_VALUE + 1];
+    static final byte[] DECODING_TABLE = new byte[Byte.MAX_VALUE - Byte.MIN_VALUE + 1];
 
     static {
         // Initialise as all invalid characters
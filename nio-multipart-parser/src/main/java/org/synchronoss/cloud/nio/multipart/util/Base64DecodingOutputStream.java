@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p> {@code OutputStream} decoding base64 encoded data on the fly and writing the decoded bytes to a target {@code OutputStream}.
+ *     Unlike {@link MimeUtility}, which decodes whole arrays, the decoder is stateful: a base64 quantum split across two writes is
+ *     kept until the remaining characters arrive. As for the commons-fileupload decoder, characters outside the base64 alphabet
+ *     (like line breaks) are ignored.
+ * <p> The decoded bytes are written to the target in bulk, at the end of each write. {@link #finish()} checks that the data
+ *     was not truncated and {@link #close()} finishes and closes the target.
+ *
+ * @author Silvano Riz.
+ */
+public class Base64DecodingOutputStream extends OutputStream {
+
+    private static final int DECODED_BUFFER_SIZE = 3 * 1024;
+
+    final OutputStream target;
+    final byte[] quantum = new byte[4];
+    final byte[] decoded = new byte[DECODED_BUFFER_SIZE];
+
+    int quantumLength = 0;
+    int decodedLength = 0;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param target The {@code OutputStream} where the decoded data is written.
+     */
+    public Base64DecodingOutputStream(final OutputStream target) {
+        this.target = target;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        decode((byte) b);
+        drain();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        final int end = off + len;
+        for (int i = off; i < end; i++){
+            decode(b[i]);
+        }
+        drain();
+    }
+
+    /**
+     * <p> Flushes the decoded data and the target. Characters of an incomplete quantum are kept.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        target.flush();
+    }
+
+    /**
+     * <p> Signals that no more data is coming.
+     *
+     * @throws IOException if the data has been truncated, leaving an incomplete quantum.
+     */
+    public void finish() throws IOException {
+        drain();
+        if (quantumLength != 0){
+            quantumLength = 0;
+            throw new IOException("Invalid Base64 input: truncated");
+        }
+    }
+
+    /**
+     * <p> Finishes the decoding and closes the target.
+     *
+     * @throws IOException if the data has been truncated or the target cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }finally {
+            target.close();
+        }
+    }
+
+    void decode(final byte b) throws IOException {
+        final byte d = Base64Decoder.DECODING_TABLE[Base64Decoder.MASK_BYTE_UNSIGNED & b];
+        if (d == Base64Decoder.INVALID_BYTE){
+            return;
+        }
+        quantum[quantumLength++] = d;
+        if (quantumLength == quantum.length){
+            quantumLength = 0;
+            if (decodedLength + 3 > decoded.length){
+                drain();
+            }
+            final byte b1 = quantum[0];
+            final byte b2 = quantum[1];
+            final byte b3 = quantum[2];
+            final byte b4 = quantum[3];
+            if (b1 == Base64Decoder.PAD_BYTE || b2 == Base64Decoder.PAD_BYTE){
+                throw new IOException("Invalid Base64 input: incorrect padding, first two bytes cannot be padding");
+            }
+            decoded[decodedLength++] = (byte) ((b1 << 2) | (b2 >> 4));
+            if (b3 != Base64Decoder.PAD_BYTE){
+                decoded[decodedLength++] = (byte) ((b2 << 4) | (b3 >> 2));
+                if (b4 != Base64Decoder.PAD_BYTE){
+                    decoded[decodedLength++] = (byte) ((b3 << 6) | b4);
+                }
+            }else if (b4 != Base64Decoder.PAD_BYTE){
+                throw new IOException("Invalid Base64 input: incorrect padding, 4th byte must be padding if 3rd byte is");
+            }
+        }
+    }
+
+    void drain() throws IOException {
+        if (decodedLength > 0){
+            target.write(decoded, 0, decodedLength);
+            decodedLength = 0;
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ package org.synchronoss.cloud.nio.multipart.util;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -33,6 +34,15 @@ public class HeadersParser {
 
     public static final String EMPTY_STRING = "";
 
+    // Well known header names. When found they are returned as they are, avoiding the allocation of a new String.
+    static final String[] KNOWN_HEADER_NAMES = {"content-disposition", "content-type", "content-transfer-encoding", "content-length", "content-id", "content-description"};
+    static final byte[][] KNOWN_HEADER_NAMES_BYTES = new byte[KNOWN_HEADER_NAMES.length][];
+    static {
+        for (int i = 0; i < KNOWN_HEADER_NAMES.length; i++) {
+            KNOWN_HEADER_NAMES_BYTES[i] = KNOWN_HEADER_NAMES[i].getBytes(Charset.forName("US-ASCII"));
+        }
+    }
+
     private HeadersParser() { }
 
     /**
@@ -91,6 +101,134 @@ public class HeadersParser {
         return headers;
     }
 
+    /**
+     * <p>
+     *     Parse the headers section into a {@link Map}, working directly on the bytes of the headers section.
+     *     Only the header values (and the names of the headers that are not well known) are allocated as {@code String}s.
+     * </p>
+     * @param headersSection The buffer containing the header section.
+     * @param offset The offset of the header section in the buffer.
+     * @param length The length of the header section.
+     * @param charset The charset
+     * @return The {@link Map} having as keys the header names and as values a list of the header values.
+     */
+    public static Map<String, List<String>> parseHeaders(final byte[] headersSection, final int offset, final int length, final String charset) {
+
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        final int end = offset + length;
+        String name = null;
+        String value = null;
+        StringBuilder foldedValue = null;
+
+        int lineStart = offset;
+        while (lineStart < end) {
+
+            int lineEnd = indexOf(headersSection, (byte) '\n', lineStart, end);
+            final int nextLineStart;
+            if (lineEnd < 0) {
+                lineEnd = end;
+                nextLineStart = end;
+            } else {
+                nextLineStart = lineEnd + 1;
+                // strip CR
+                if (lineEnd > lineStart && headersSection[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+            }
+
+            final int contentStart = trimStart(headersSection, lineStart, lineEnd);
+            if (contentStart == lineEnd) {
+                break;
+            }
+            final int contentEnd = trimEnd(headersSection, contentStart, lineEnd);
+
+            if (headersSection[lineStart] == ' ' || headersSection[lineStart] == '\t') {
+                // we have continuation folded header
+                // so append value
+                if (name != null) {
+                    if (foldedValue == null) {
+                        foldedValue = new StringBuilder(value);
+                    }
+                    foldedValue.append(' ');
+                    foldedValue.append(getString(headersSection, contentStart, contentEnd - contentStart, charset));
+                }
+            } else {
+                // make sure we save the previous name,value pair if present
+                if (name != null) {
+                    addHeader(headers, name, foldedValue != null ? foldedValue.toString() : value);
+                }
+
+                final int colon = indexOf(headersSection, (byte) ':', lineStart, lineEnd);
+                if (colon < 0) {
+                    throw new IllegalStateException("Unable to parse header: " + getString(headersSection, lineStart, lineEnd - lineStart, charset));
+                }
+                name = getHeaderName(headersSection, contentStart, trimEnd(headersSection, contentStart, colon), charset);
+                final int valueStart = trimStart(headersSection, colon + 1, contentEnd);
+                value = getString(headersSection, valueStart, contentEnd - valueStart, charset);
+                foldedValue = null;
+            }
+            lineStart = nextLineStart;
+        }
+
+        // make sure we save the last name,value pair if present
+        if (name != null) {
+            addHeader(headers, name, foldedValue != null ? foldedValue.toString() : value);
+        }
+
+        return headers;
+    }
+
+    static String getHeaderName(final byte[] data, final int start, final int end, final String charset) {
+        for (int i = 0; i < KNOWN_HEADER_NAMES_BYTES.length; i++) {
+            if (equalsIgnoreCase(data, start, end, KNOWN_HEADER_NAMES_BYTES[i])) {
+                return KNOWN_HEADER_NAMES[i];
+            }
+        }
+        return getString(data, start, end - start, charset).toLowerCase();
+    }
+
+    static boolean equalsIgnoreCase(final byte[] data, final int start, final int end, final byte[] lowerCaseName) {
+        if (end - start != lowerCaseName.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCaseName.length; i++) {
+            byte b = data[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCaseName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int indexOf(final byte[] data, final byte b, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Same as String.trim(), bytes lower or equal to ' ' are white spaces.
+    static int trimStart(final byte[] data, final int start, final int end) {
+        int i = start;
+        while (i < end && (data[i] & 0xff) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    static int trimEnd(final byte[] data, final int start, final int end) {
+        int i = end;
+        while (i > start && (data[i - 1] & 0xff) <= ' ') {
+            i--;
+        }
+        return i;
+    }
+
     static void addHeader(final Map<String, List<String>> headers, final String name, final String value){
         String nameLc = name.toLowerCase();
         List<String> headerValues = headers.get(nameLc);
@@ -146,7 +284,7 @@ public class HeadersParser {
 
     static String getString(final byte[] data, final int offset, final int length, final String charset) {
 
-        if (data == null || data.length == 0) {
+        if (data == null || data.length == 0 || length == 0) {
             return EMPTY_STRING;
         }
 
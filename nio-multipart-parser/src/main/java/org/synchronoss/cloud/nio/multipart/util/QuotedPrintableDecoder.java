@@ -28,7 +28,7 @@ final class QuotedPrintableDecoder {
      * The shift value required to create the upper nibble
      * from the first of 2 byte values converted from ascii hex.
      */
-    private static final int UPPER_NIBBLE_SHIFT = Byte.SIZE / 2;
+    static final int UPPER_NIBBLE_SHIFT = Byte.SIZE / 2;
 
     /**
      * Hidden constructor, this class must not be instantiated.
@@ -100,7 +100,7 @@ final class QuotedPrintableDecoder {
      * @return the int value of the hex byte, 0-15
      * @throws IOException if the byte is not a valid hex digit.
      */
-    private static int hexToBinary(final byte b) throws IOException {
+    static int hexToBinary(final byte b) throws IOException {
         // CHECKSTYLE IGNORE MagicNumber FOR NEXT 1 LINE
         final int i = Character.digit((char) b, 16);
         if (i == -1) {
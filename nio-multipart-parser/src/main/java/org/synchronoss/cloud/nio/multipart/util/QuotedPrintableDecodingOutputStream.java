@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p> {@code OutputStream} decoding quoted-printable encoded data (RFC 2045) on the fly and writing the decoded bytes to a target
+ *     {@code OutputStream}. The decoder is stateful: an escape sequence split across two writes is completed when the remaining
+ *     characters arrive. Soft line breaks ({@code =CRLF}, or just {@code =LF}) are removed.
+ * <p> Unlike the {@code Q} encoding used in the headers (see {@link MimeUtility}), in a quoted-printable body an underscore is a
+ *     plain character and it is not translated to a space.
+ *
+ * @author Silvano Riz.
+ */
+public class QuotedPrintableDecodingOutputStream extends OutputStream {
+
+    private static final int DECODED_BUFFER_SIZE = 4096;
+
+    final OutputStream target;
+    final byte[] decoded = new byte[DECODED_BUFFER_SIZE];
+
+    int decodedLength = 0;
+    // Number of characters of the escape sequence seen so far (the '=' included). Zero if not in an escape sequence.
+    int escapeLength = 0;
+    byte escapeFirstChar;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param target The {@code OutputStream} where the decoded data is written.
+     */
+    public QuotedPrintableDecodingOutputStream(final OutputStream target) {
+        this.target = target;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        decode((byte) b);
+        drain();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        final int end = off + len;
+        for (int i = off; i < end; i++){
+            decode(b[i]);
+        }
+        drain();
+    }
+
+    /**
+     * <p> Flushes the decoded data and the target. An incomplete escape sequence is kept.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        target.flush();
+    }
+
+    /**
+     * <p> Signals that no more data is coming.
+     *
+     * @throws IOException if the data ends with an incomplete escape sequence.
+     */
+    public void finish() throws IOException {
+        drain();
+        if (escapeLength != 0){
+            escapeLength = 0;
+            throw new IOException("Invalid quoted printable encoding; truncated escape sequence");
+        }
+    }
+
+    /**
+     * <p> Finishes the decoding and closes the target.
+     *
+     * @throws IOException if the data is truncated or the target cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }finally {
+            target.close();
+        }
+    }
+
+    void decode(final byte b) throws IOException {
+        if (decodedLength == decoded.length){
+            drain();
+        }
+        switch (escapeLength){
+            case 0:
+                if (b == '='){
+                    escapeLength = 1;
+                }else{
+                    decoded[decodedLength++] = b;
+                }
+                break;
+            case 1:
+                if (b == '\n'){
+                    // Soft line break without the CR
+                    escapeLength = 0;
+                }else{
+                    escapeFirstChar = b;
+                    escapeLength = 2;
+                }
+                break;
+            default:
+                escapeLength = 0;
+                if (escapeFirstChar == '\r'){
+                    if (b != '\n'){
+                        throw new IOException("Invalid quoted printable encoding; CR must be followed by LF");
+                    }
+                    // Soft line break, just discarded
+                }else{
+                    final int c1 = QuotedPrintableDecoder.hexToBinary(escapeFirstChar);
+                    final int c2 = QuotedPrintableDecoder.hexToBinary(b);
+                    decoded[decodedLength++] = (byte) ((c1 << QuotedPrintableDecoder.UPPER_NIBBLE_SHIFT) | c2);
+                }
+        }
+    }
+
+    void drain() throws IOException {
+        if (decodedLength > 0){
+            target.write(decoded, 0, decodedLength);
+            decodedLength = 0;
+        }
+    }
+
+}
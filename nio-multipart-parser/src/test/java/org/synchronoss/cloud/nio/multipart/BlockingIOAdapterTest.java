@@ -15,16 +15,36 @@
  */
 package org.synchronoss.cloud.nio.multipart;
 
+import org.apache.commons.io.IOUtils;
 import org.synchronoss.cloud.nio.multipart.BlockingIOAdapter.PartItem;
 import org.synchronoss.cloud.nio.multipart.util.collect.CloseableIterator;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMap;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -36,6 +56,9 @@ public class BlockingIOAdapterTest {
 
     private static final Logger log = LoggerFactory.getLogger(BlockingIOAdapterTest.class);
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Test
     public void testCreation() throws Exception {
 
@@ -58,4 +81,164 @@ public class BlockingIOAdapterTest {
         assertNotNull(parts3);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReadSize() throws Exception {
+        final MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        try (CloseableIterator<PartItem> parts = Multipart.multipart(context).withReadSize(3).forBlockingIO(new ByteArrayInputStream(BODY))) {
+            assertParts(parts);
+        }
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        final MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            try (CloseableIterator<PartItem> parts = Multipart.multipart(context).withReadSize(5).readAhead(executor, 1).forBlockingIO(new ByteArrayInputStream(BODY))) {
+                assertParts(parts);
+            }
+
+            // Truncated stream. The error is reported after the parts parsed before it.
+            try (CloseableIterator<PartItem> parts = Multipart.multipart(context).readAhead(executor, 1).forBlockingIO(new ByteArrayInputStream(BODY, 0, BODY.length - 12))) {
+                assertEquals(PartItem.Type.FORM, parts.next().getType());
+                try {
+                    parts.next();
+                    fail("Expected an IllegalStateException");
+                } catch (IllegalStateException e) {
+                    assertTrue(e.getCause().getMessage().contains("Stream ended unexpectedly"));
+                }
+            }
+
+            // Closed before consuming all the parts. The reader stops and the executor can run other tasks.
+            final CloseableIterator<PartItem> parts = Multipart.multipart(context).readAhead(executor, 1).forBlockingIO(new ByteArrayInputStream(BODY));
+            assertEquals(PartItem.Type.FORM, parts.next().getType());
+            parts.close();
+            assertEquals("done", executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return "done";
+                }
+            }).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReadAheadCloseDismissesQueuedParts() throws Exception {
+        final MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+        final File tempFolder = this.tempFolder.newFolder("parts");
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final CloseableIterator<PartItem> parts = Multipart.multipart(context)
+                    .usePartBodyByteStoreFactory(new DefaultPartBodyByteStoreFactory(tempFolder.getAbsolutePath(), 0))
+                    .readAhead(executor, 2)
+                    .forBlockingIO(new ByteArrayInputStream(BODY));
+            assertEquals(PartItem.Type.FORM, parts.next().getType());
+
+            // The attachment is parsed ahead and stored on disk, but never consumed
+            for (int i = 0; i < 500 && tempFolder.list().length == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, tempFolder.list().length);
+            parts.close();
+
+            // Wait for the reader to stop
+            executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return "done";
+                }
+            }).get(5, TimeUnit.SECONDS);
+            assertEquals(0, tempFolder.list().length);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStreamPartBodies() throws Exception {
+        final MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("0123456789");
+        }
+        final byte[] body = ("--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file1\"; filename=\"file1.txt\"\r\n\r\n" + content + "\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file2\"; filename=\"file2.txt\"\r\n\r\n" + content + "\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file3\"; filename=\"file3.txt\"\r\n\r\nlast\r\n" +
+                "--AAA--\r\n").getBytes();
+
+        final PartBodyByteStoreFactory partBodyByteStoreFactory = spy(new DefaultPartBodyByteStoreFactory());
+        try (CloseableIterator<PartItem> parts = Multipart.multipart(context).usePartBodyByteStoreFactory(partBodyByteStoreFactory)
+                .streamPartBodies().withReadSize(100).forBlockingIO(new ByteArrayInputStream(body))) {
+
+            assertEquals("value", ((BlockingIOAdapter.FormParameter) parts.next()).getFieldValue());
+
+            // Read in chunks smaller and larger than the ones delivered by the parser
+            final BlockingIOAdapter.Attachment file1 = (BlockingIOAdapter.Attachment) parts.next();
+            assertEquals("file1", MultipartUtils.getFieldName(file1.getHeaders()));
+            final InputStream file1Body = file1.getPartBody();
+            final ByteArrayOutputStream file1Content = new ByteArrayOutputStream();
+            final byte[] chunk = new byte[37];
+            assertEquals('0', file1Body.read());
+            file1Content.write('0');
+            int read;
+            while ((read = file1Body.read(chunk)) != -1) {
+                file1Content.write(chunk, 0, read);
+            }
+            assertEquals(content.toString(), new String(file1Content.toByteArray()));
+
+            // Partially read, the rest is skipped
+            final BlockingIOAdapter.Attachment file2 = (BlockingIOAdapter.Attachment) parts.next();
+            final InputStream file2Body = file2.getPartBody();
+            assertEquals(10, file2Body.read(chunk, 0, 10));
+
+            final BlockingIOAdapter.Attachment file3 = (BlockingIOAdapter.Attachment) parts.next();
+            assertEquals("file3", MultipartUtils.getFieldName(file3.getHeaders()));
+            try {
+                file2Body.read(chunk);
+                fail("Expected an IOException");
+            } catch (IOException e) {
+                // Expected
+            }
+            assertEquals("last", new String(IOUtils.toByteArray(file3.getPartBody())));
+            assertFalse(parts.hasNext());
+        }
+
+        // Only the form field is stored
+        verify(partBodyByteStoreFactory, times(1)).newByteStoreForPartBody(anyMap(), anyInt());
+    }
+
+    static final byte[] BODY = ("--AAA\r\n" +
+            "Content-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n" +
+            "--AAA\r\n" +
+            "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n\r\nfile content\r\n" +
+            "--AAA--\r\n").getBytes();
+
+    static void assertParts(final CloseableIterator<PartItem> parts) throws Exception {
+        assertTrue(parts.hasNext());
+        final BlockingIOAdapter.FormParameter formParameter = (BlockingIOAdapter.FormParameter) parts.next();
+        assertEquals("field", formParameter.getFieldName());
+        assertEquals("value", formParameter.getFieldValue());
+        assertTrue(parts.hasNext());
+        final BlockingIOAdapter.Attachment attachment = (BlockingIOAdapter.Attachment) parts.next();
+        try (InputStream partBody = attachment.getPartBody()) {
+            assertEquals("file content", new String(IOUtils.toByteArray(partBody)));
+        }
+        assertFalse(parts.hasNext());
+    }
+}
@@ -17,6 +17,8 @@ package org.synchronoss.cloud.nio.multipart;
 
 import org.synchronoss.cloud.nio.multipart.io.ByteStore;
 import org.synchronoss.cloud.nio.multipart.io.DeferredFileByteStore;
+import org.synchronoss.cloud.nio.multipart.io.MemoryBudget;
+import org.synchronoss.cloud.nio.multipart.io.SegmentPool;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -114,6 +116,50 @@ public class DefaultPartBodyByteStoreFactoryTest {
 
     }
 
+    @Test
+    public void testNewPartIOStreams_memoryBudget() throws IOException {
+
+        SegmentPool segmentPool = new SegmentPool(10, 10);
+        MemoryBudget memoryBudget = new MemoryBudget(20, 5);
+        DefaultPartBodyByteStoreFactory defaultPartIOStreamsFactory = new DefaultPartBodyByteStoreFactory(tempFolder.newFolder("testNewPartIOStreams_memoryBudget").getAbsolutePath(), 100, null, segmentPool, memoryBudget);
+
+        // Takes all the budget
+        DeferredFileByteStore first = (DeferredFileByteStore) defaultPartIOStreamsFactory.newByteStoreForPartBody(new HashMap<String, List<String>>(), 1);
+        first.write(new byte[20]);
+        assertTrue(first.isInMemory());
+        assertEquals(20, memoryBudget.getReservedBytes());
+
+        // Budget exhausted, it goes to disk straight away even if below the threshold
+        DeferredFileByteStore second = (DeferredFileByteStore) defaultPartIOStreamsFactory.newByteStoreForPartBody(new HashMap<String, List<String>>(), 2);
+        second.write(new byte[1]);
+        assertFalse(second.isInMemory());
+        assertEquals(20, memoryBudget.getReservedBytes());
+
+        // Small parts bypass the budget
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        headers.put("content-length", Collections.singletonList("5"));
+        DeferredFileByteStore third = (DeferredFileByteStore) defaultPartIOStreamsFactory.newByteStoreForPartBody(headers, 3);
+        third.write(new byte[5]);
+        assertTrue(third.isInMemory());
+        assertEquals(20, memoryBudget.getReservedBytes());
+
+        // Once the memory is released the budget is available again
+        assertTrue(first.dismiss());
+        assertEquals(0, memoryBudget.getReservedBytes());
+        DeferredFileByteStore fourth = (DeferredFileByteStore) defaultPartIOStreamsFactory.newByteStoreForPartBody(new HashMap<String, List<String>>(), 4);
+        fourth.write(new byte[15]);
+        assertTrue(fourth.isInMemory());
+        assertEquals(20, memoryBudget.getReservedBytes());
+        // Going over the threshold releases the memory
+        fourth.write(new byte[90]);
+        assertFalse(fourth.isInMemory());
+        assertEquals(0, memoryBudget.getReservedBytes());
+
+        second.dismiss();
+        third.dismiss();
+        fourth.dismiss();
+    }
+
     @Test
     public void testNewPartIOStreams_error() throws IOException {
 
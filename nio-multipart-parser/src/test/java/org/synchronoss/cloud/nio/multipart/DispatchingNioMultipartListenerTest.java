@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart;
+
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * <p> Unit tests for {@link DispatchingNioMultipartListener}
+ *
+ * @author Silvano Riz.
+ */
+public class DispatchingNioMultipartListenerTest {
+
+    @Test
+    public void testConstruction() {
+        try {
+            new DispatchingNioMultipartListener(new AbstractNioMultipartStreamingListener(), new QueueExecutor());
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new DispatchingNioMultipartListener(new AbstractNioMultipartListener(), null);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testOnAllPartsFinishedAfterDispatchedCallbacks() throws Exception {
+
+        final QueueExecutor executor = new QueueExecutor();
+        final List<String> events = new ArrayList<String>();
+        final NioMultipartParser parser = Multipart.multipart(context())
+                .dispatchPartCallbacksTo(executor)
+                .forNIO(new AbstractNioMultipartListener() {
+
+                    @Override
+                    public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+                        events.add("part");
+                    }
+
+                    @Override
+                    public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                        events.add(fieldName + "=" + fieldValue);
+                    }
+
+                    @Override
+                    public void onAllPartsFinished() {
+                        events.add("end");
+                    }
+                });
+
+        parser.write(body().getBytes());
+        parser.close();
+
+        // Nothing ran on the parser thread
+        assertTrue(events.isEmpty());
+        assertEquals(2, executor.tasks.size());
+
+        executor.runNext();
+        assertEquals(Collections.singletonList("field=value"), events);
+
+        executor.runNext();
+        assertEquals(3, events.size());
+        assertEquals("part", events.get(1));
+        assertEquals("end", events.get(2));
+    }
+
+    @Test
+    public void testDispatchedCallbackError() throws Exception {
+
+        final QueueExecutor executor = new QueueExecutor();
+        final NioMultipartParserListener delegate = mock(NioMultipartParserListener.class);
+        final RuntimeException error = new RuntimeException("Scanning failed");
+        final DispatchingNioMultipartListener listener = new DispatchingNioMultipartListener(new AbstractNioMultipartListener() {
+            @Override
+            public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+                throw error;
+            }
+
+            @Override
+            public void onAllPartsFinished() {
+                delegate.onAllPartsFinished();
+            }
+
+            @Override
+            public void onError(String message, Throwable cause) {
+                delegate.onError(message, cause);
+            }
+        }, executor);
+
+        listener.onPartFinished(null, null);
+        listener.onAllPartsFinished();
+        assertEquals(1, listener.getPendingCallbacks());
+
+        executor.runNext();
+        assertEquals(0, listener.getPendingCallbacks());
+        verify(delegate).onError("Unable to process the part", error);
+        verify(delegate, never()).onAllPartsFinished();
+    }
+
+    @Test
+    public void testNestedPartsSequencing() throws Exception {
+
+        final QueueExecutor executor = new QueueExecutor();
+        final List<String> events = new ArrayList<String>();
+        final DispatchingNioMultipartListener listener = new DispatchingNioMultipartListener(new AbstractNioMultipartListener() {
+
+            @Override
+            public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                events.add(fieldName);
+            }
+
+            @Override
+            public void onNestedPartStarted(Map<String, List<String>> headersFromParentPart) {
+                events.add("nestedStarted");
+            }
+
+            @Override
+            public void onNestedPartFinished() {
+                events.add("nestedFinished");
+            }
+
+            @Override
+            public void onAllPartsFinished() {
+                events.add("end");
+            }
+        }, executor);
+
+        // Nothing pending, the nested part start is notified straight away
+        listener.onNestedPartStarted(null);
+        assertEquals(Collections.singletonList("nestedStarted"), events);
+
+        listener.onFormFieldPartFinished("nested1", "value", null);
+        listener.onFormFieldPartFinished("nested2", "value", null);
+        listener.onNestedPartFinished();
+        listener.onFormFieldPartFinished("field", "value", null);
+        listener.onAllPartsFinished();
+
+        // The end of the nested part waits for the nested parts, and the following part waits for the end of the nested part
+        assertEquals(2, executor.tasks.size());
+        assertEquals(3, listener.getPendingCallbacks());
+        executor.runNext();
+        assertEquals(1, executor.tasks.size());
+        executor.runNext();
+        assertEquals(1, executor.tasks.size());
+        assertEquals("nestedFinished", events.get(events.size() - 1));
+
+        executor.runNext();
+        assertEquals(0, listener.getPendingCallbacks());
+        assertEquals(Arrays.asList("nestedStarted", "nested1", "nested2", "nestedFinished", "field", "end"), events);
+    }
+
+    @Test
+    public void testPartFilterForwarded() throws Exception {
+
+        final PartFilterListener delegate = mock(PartFilterListener.class);
+        when(delegate.acceptPart(anyMap(), anyInt())).thenReturn(false);
+
+        assertFalse(new DispatchingNioMultipartListener(delegate, new QueueExecutor()).acceptPart(null, 1));
+        assertTrue(new DispatchingNioMultipartListener(new AbstractNioMultipartListener(), new QueueExecutor()).acceptPart(null, 1));
+    }
+
+    @Test
+    public void testThreadPool() throws Exception {
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final CountDownLatch allPartsFinished = new CountDownLatch(1);
+            final List<String> fields = Collections.synchronizedList(new ArrayList<String>());
+            final NioMultipartParser parser = Multipart.multipart(context())
+                    .dispatchPartCallbacksTo(executorService)
+                    .forNIO(new AbstractNioMultipartListener() {
+
+                        @Override
+                        public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                            fields.add(fieldName);
+                        }
+
+                        @Override
+                        public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+                            fields.add("file");
+                        }
+
+                        @Override
+                        public void onAllPartsFinished() {
+                            if (fields.size() == 2) {
+                                allPartsFinished.countDown();
+                            }
+                        }
+                    });
+            parser.write(body().getBytes());
+            parser.close();
+            assertTrue(allPartsFinished.await(10, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCloseFromOnAllPartsFinished() throws Exception {
+
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final MultipartParserPool pool = new MultipartParserPool(1);
+            final CountDownLatch closed = new CountDownLatch(1);
+            final List<NioMultipartParser> parser = new ArrayList<NioMultipartParser>();
+            parser.add(Multipart.multipart(context())
+                    .withParserPool(pool)
+                    .dispatchPartCallbacksTo(executorService)
+                    .forNIO(new AbstractNioMultipartListener() {
+                        @Override
+                        public void onAllPartsFinished() {
+                            try {
+                                parser.get(0).close();
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                            closed.countDown();
+                        }
+                    }));
+            parser.get(0).write((body() + "epilogue").getBytes());
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, pool.getIdleParsersCount());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    static MultipartContext context() {
+        final MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+        return context;
+    }
+
+    static String body() {
+        return "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"field\"\r\n\r\n" +
+                "value\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n" +
+                "Content-Type: text/plain\r\n\r\n" +
+                "file content\r\n" +
+                "--AAA--\r\n";
+    }
+
+    interface PartFilterListener extends NioMultipartParserListener, PartFilter {
+    }
+
+    /*
+     * Queues the tasks until the test runs them
+     */
+    static class QueueExecutor implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(final Runnable command) {
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+    }
+}
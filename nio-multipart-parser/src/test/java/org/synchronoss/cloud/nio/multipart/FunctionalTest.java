@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -69,6 +70,24 @@ public class FunctionalTest {
 
     @Test
     public void nioParserFunctionalTest() throws Exception {
+        nioParserFunctionalTest(5, 10);
+    }
+
+    @Test
+    public void nioParserFunctionalTest_largeChunks() throws Exception {
+        nioParserFunctionalTest(4096, 8192);
+    }
+
+    @Test
+    public void nioParserFunctionalTest_directByteBuffers() throws Exception {
+        nioParserFunctionalTest(5, 4096, true);
+    }
+
+    void nioParserFunctionalTest(final int minChunkSize, final int maxChunkSize) throws Exception {
+        nioParserFunctionalTest(minChunkSize, maxChunkSize, false);
+    }
+
+    void nioParserFunctionalTest(final int minChunkSize, final int maxChunkSize, final boolean directByteBuffers) throws Exception {
 
         log.info("NIO PARSER FUNCTIONAL TEST [ " + testCase.getDescription() + " ]");
 
@@ -88,7 +107,7 @@ public class FunctionalTest {
         //final NioMultipartParserListener nioMultipartParserListener = nioMultipartParserListenerDumper();
 
         final MultipartContext multipartContext = testCase.getMultipartContext();
-        final ChunksFileReader chunksFileReader = new ChunksFileReader(testCase.getBodyInputStream(), 5, 10);
+        final ChunksFileReader chunksFileReader = new ChunksFileReader(testCase.getBodyInputStream(), minChunkSize, maxChunkSize);
         final NioMultipartParser parser = new NioMultipartParser(multipartContext, nioMultipartParserListener);
 
         byte[] chunk;
@@ -98,7 +117,13 @@ public class FunctionalTest {
             if (chunk.length <= 0) {
                 break;
             }
-            parser.write(chunk, 0, chunk.length);
+            if (directByteBuffers) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(chunk.length);
+                buffer.put(chunk).flip();
+                parser.write(buffer);
+            } else {
+                parser.write(chunk, 0, chunk.length);
+            }
         }
 
         int attempts = 0;
@@ -121,6 +146,15 @@ public class FunctionalTest {
 
     @Test
     public void blockingIOAdapterFunctionalTest() throws Exception {
+        blockingIOAdapterFunctionalTest(Multipart.multipart(testCase.getMultipartContext()));
+    }
+
+    @Test
+    public void blockingIOAdapterFunctionalTest_streaming() throws Exception {
+        blockingIOAdapterFunctionalTest(Multipart.multipart(testCase.getMultipartContext()).streamPartBodies().withReadSize(7));
+    }
+
+    void blockingIOAdapterFunctionalTest(final Multipart.Builder builder) throws Exception {
 
         log.info("BLOCKING IO ADAPTER FUNCTIONAL TEST [ " + testCase.getDescription() + " ]");
 
@@ -131,7 +165,7 @@ public class FunctionalTest {
         final FileUpload fileUpload = new FileUpload();
         final FileItemIterator fileItemIterator = fileUpload.getItemIterator(testCase.getRequestContext());
 
-        try(final CloseableIterator<PartItem> parts = Multipart.multipart(testCase.getMultipartContext()).forBlockingIO(testCase.getBodyInputStream())) {
+        try(final CloseableIterator<PartItem> parts = builder.forBlockingIO(testCase.getBodyInputStream())) {
 
             while (parts.hasNext()) {
 
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * <p> Unit test for {@link MultipartParserPool}
+ *
+ * @author Silvano Riz.
+ */
+public class MultipartParserPoolTest {
+
+    static class RecordingListener extends AbstractNioMultipartListener {
+
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+            events.add(fieldName + "=" + fieldValue);
+        }
+
+        @Override
+        public void onAllPartsFinished() {
+            events.add("finished");
+        }
+    }
+
+    static MultipartContext context(final String boundary){
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=" + boundary);
+        return context;
+    }
+
+    static byte[] body(final String boundary, final String field, final String value){
+        return ("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"" + field + "\"\r\n\r\n" + value + "\r\n" +
+                "--" + boundary + "--\r\n").getBytes();
+    }
+
+    @Test
+    public void testBorrowAndRelease() throws IOException {
+
+        MultipartParserPool pool = new MultipartParserPool(1);
+
+        RecordingListener listener1 = new RecordingListener();
+        NioMultipartParser parser1 = pool.borrow(context("AAA"), listener1);
+        parser1.write(body("AAA", "field1", "value1"));
+        parser1.close();
+
+        assertEquals(1, pool.getIdleParsersCount());
+
+        // The buffers are reused for a different stream with a different boundary
+        RecordingListener listener2 = new RecordingListener();
+        NioMultipartParser parser2 = pool.borrow(context("BBBBBB"), listener2);
+        assertNotSame(parser1, parser2);
+        assertSame(parser1.endOfLineBuffer, parser2.endOfLineBuffer);
+        assertSame(parser1.headersByteArrayOutputStream, parser2.headersByteArrayOutputStream);
+        assertEquals(0, pool.getIdleParsersCount());
+        parser2.write(body("BBBBBB", "field2", "value2"));
+
+        assertEquals(2, listener1.events.size());
+        assertEquals("field1=value1", listener1.events.get(0));
+        assertEquals(2, listener2.events.size());
+        assertEquals("field2=value2", listener2.events.get(0));
+        assertEquals("finished", listener2.events.get(1));
+
+        // Pool is empty, a new parser is created
+        NioMultipartParser parser3 = pool.borrow(context("AAA"), new RecordingListener());
+        assertNotSame(parser2, parser3);
+
+        parser2.close();
+        parser3.close();
+
+        // Only one idle parser is kept
+        assertEquals(1, pool.getIdleParsersCount());
+
+        pool.clear();
+        assertEquals(0, pool.getIdleParsersCount());
+        assertEquals(0, pool.getLeaksCount());
+    }
+
+    @Test
+    public void testReset_midBody() throws IOException {
+
+        MultipartParserPool pool = new MultipartParserPool(1);
+
+        RecordingListener listener1 = new RecordingListener();
+        NioMultipartParser parser = pool.borrow(context("AAA"), listener1);
+        byte[] body = body("AAA", "field1", "value1");
+        // Stop in the middle of the body
+        parser.write(body, 0, body.length - 15);
+        parser.dismiss();
+
+        RecordingListener listener2 = new RecordingListener();
+        NioMultipartParser parser2 = pool.borrow(context("AAA"), listener2);
+        assertSame(parser.endOfLineBuffer, parser2.endOfLineBuffer);
+        parser2.write(body("AAA", "field2", "value2"));
+
+        assertTrue(listener1.events.isEmpty());
+        assertEquals(2, listener2.events.size());
+        assertEquals("field2=value2", listener2.events.get(0));
+    }
+
+    @Test
+    public void testStaleClose() throws IOException {
+
+        MultipartParserPool pool = new MultipartParserPool(1);
+
+        NioMultipartParser parser1 = pool.borrow(context("AAA"), new RecordingListener());
+        // e.g. AsyncListener.onError
+        parser1.close();
+
+        RecordingListener listener2 = new RecordingListener();
+        NioMultipartParser parser2 = pool.borrow(context("AAA"), listener2);
+        byte[] body = body("AAA", "field2", "value2");
+        parser2.write(body, 0, 20);
+
+        // e.g. AsyncListener.onComplete, after the buffers have been handed to another client
+        parser1.close();
+        parser1.dismiss();
+        assertEquals(0, pool.getIdleParsersCount());
+
+        parser2.write(body, 20, body.length);
+        assertEquals(2, listener2.events.size());
+        assertEquals("field2=value2", listener2.events.get(0));
+
+        parser2.close();
+        assertEquals(1, pool.getIdleParsersCount());
+    }
+
+    @Test
+    public void testCloseWhileProcessing() throws IOException {
+
+        final MultipartParserPool pool = new MultipartParserPool(1);
+        final List<NioMultipartParser> parser = new ArrayList<NioMultipartParser>();
+        final RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                super.onFormFieldPartFinished(fieldName, fieldValue, headersFromPart);
+                try {
+                    parser.get(0).close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                // The parser is still processing, it cannot be handed to another client yet
+                assertEquals(0, pool.getIdleParsersCount());
+            }
+        };
+        parser.add(pool.borrow(context("AAA"), listener));
+        parser.get(0).write(body("AAA", "field1", "value1"));
+
+        assertEquals("field1=value1", listener.events.get(0));
+        assertEquals(1, pool.getIdleParsersCount());
+        try {
+            parser.get(0).write(body("AAA", "field1", "value1"));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_error(){
+        new MultipartParserPool(-1);
+    }
+
+}
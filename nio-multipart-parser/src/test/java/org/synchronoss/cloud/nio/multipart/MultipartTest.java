@@ -26,6 +26,7 @@ import java.io.InputStream;
 
 import static org.synchronoss.cloud.nio.multipart.Multipart.multipart;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -78,6 +79,15 @@ public class MultipartTest {
 
         assertNotNull(parser3);
 
+        MultipartParserPool pool = new MultipartParserPool(1);
+        NioMultipartParser parser4 = multipart(context)
+                .withParserPool(pool)
+                .forNIO(listener);
+
+        assertNotNull(parser4);
+        parser4.close();
+        assertSame(parser4.endOfLineBuffer, multipart(context).withParserPool(pool).forNIO(listener).endOfLineBuffer);
+
     }
 
     @Test
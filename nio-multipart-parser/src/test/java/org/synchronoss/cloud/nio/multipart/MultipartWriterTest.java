@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.synchronoss.cloud.nio.multipart.io.ByteStore;
+import org.synchronoss.cloud.nio.multipart.io.ChannelByteStore;
+import org.synchronoss.cloud.nio.multipart.io.DeferredFileByteStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * <p> Unit tests for {@link MultipartWriter}
+ *
+ * @author Silvano Riz.
+ */
+public class MultipartWriterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testConstruction() {
+        assertEquals(32, new MultipartWriter().getBoundary().length());
+        assertEquals("multipart/mixed; boundary=AAA", new MultipartWriter("AAA").getContentType("multipart/mixed"));
+        try {
+            new MultipartWriter("");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testInvalidBoundary() {
+        for (String boundary : new String[]{"AAA\r\n", "AA;A", "AA\"A", "AAA ", "AA\u00C0"}) {
+            try {
+                new MultipartWriter(boundary);
+                fail("Expected an IllegalArgumentException for " + boundary);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        assertEquals("multipart/mixed; boundary=\"A A:B\"", new MultipartWriter("A A:B").getContentType("multipart/mixed"));
+        assertEquals("multipart/mixed; boundary=A'+_-.B", new MultipartWriter("A'+_-.B").getContentType("multipart/mixed"));
+    }
+
+    @Test
+    public void testHeaderInjection() {
+        final MultipartWriter writer = new MultipartWriter("AAA");
+        final ByteBuffer body = ByteBuffer.wrap("body".getBytes());
+        for (Map<String, List<String>> headers : Arrays.asList(
+                headers("Content-Disposition", "attachment; filename=\"a.txt\"\r\nX-Injected: true"),
+                headers("Content-Disposition", "attachment; filename=\"a.txt\"\n\r\n--AAA"),
+                headers("X-Name\r\nX-Injected", "true"),
+                headers("X-Name: X-Injected", "true"))) {
+            try {
+                writer.addPart(headers, body);
+                fail("Expected an IllegalArgumentException for " + headers);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        writer.addPart(headers("Content-Disposition", "attachment; filename=\"a.txt\""), body);
+        assertTrue(writer.getContentLength() > 0);
+    }
+
+    @Test
+    public void testWriteTo() throws Exception {
+
+        final File file = tempFolder.newFile("file.txt");
+        FileUtils.writeStringToFile(file, "0123456789file content0123456789");
+
+        final ChannelByteStore channelByteStore = new ChannelByteStore(tempFolder.newFile("store.tmp"), 0, false);
+        channelByteStore.write("channel byte store".getBytes());
+        channelByteStore.close();
+
+        // Read via the InputStream
+        final ByteStore byteStore = new DeferredFileByteStore(tempFolder.newFile("memory.tmp"), 1024);
+        byteStore.write("generic byte store".getBytes());
+        byteStore.close();
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        final MultipartWriter writer = new MultipartWriter("BOUNDARY");
+        try {
+            final FileChannel fileChannel = randomAccessFile.getChannel();
+            writer.addPart(headers("Content-Type", "text/plain", "Content-Range", "bytes 10-21/32"), fileChannel, 10, 12)
+                    .addPart(headers("Content-Type", "text/plain"), ByteBuffer.wrap("byte buffer".getBytes()))
+                    .addPart(headers("Content-Type", "text/plain"), channelByteStore)
+                    .addPart(headers("Content-Type", "text/plain"), byteStore)
+                    .addPart(headers("Content-Type", "text/plain"), new ByteArrayInputStream("input stream".getBytes()))
+                    .addPart(headers("Content-Type", "text/plain"), fileChannel);
+            assertEquals(-1, writer.getContentLength());
+
+            // A non blocking channel accepting a few bytes every other call
+            final ThrottledChannel channel = new ThrottledChannel(7);
+            int calls = 0;
+            while (!writer.writeTo(channel)) {
+                calls++;
+                assertFalse(writer.isComplete());
+            }
+            assertTrue(writer.isComplete());
+            assertTrue(calls > 10);
+
+            final String expected = "--BOUNDARY\r\nContent-Type: text/plain\r\nContent-Range: bytes 10-21/32\r\n\r\nfile content\r\n" +
+                    "--BOUNDARY\r\nContent-Type: text/plain\r\n\r\nbyte buffer\r\n" +
+                    "--BOUNDARY\r\nContent-Type: text/plain\r\n\r\nchannel byte store\r\n" +
+                    "--BOUNDARY\r\nContent-Type: text/plain\r\n\r\ngeneric byte store\r\n" +
+                    "--BOUNDARY\r\nContent-Type: text/plain\r\n\r\ninput stream\r\n" +
+                    "--BOUNDARY\r\nContent-Type: text/plain\r\n\r\n0123456789file content0123456789\r\n" +
+                    "--BOUNDARY--\r\n";
+            assertEquals(expected, new String(channel.data.toByteArray()));
+
+            // The parser reads it back
+            final MultipartContext context = mock(MultipartContext.class);
+            when(context.getContentType()).thenReturn(writer.getContentType("multipart/mixed"));
+            final List<String> bodies = new ArrayList<String>();
+            final NioMultipartParser parser = Multipart.multipart(context).forNIO(new AbstractNioMultipartListener() {
+                @Override
+                public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+                    try {
+                        bodies.add(IOUtils.toString(partBodyByteStore.getInputStream()));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            parser.write(channel.data.toByteArray());
+            assertEquals(6, bodies.size());
+            assertEquals("file content", bodies.get(0));
+            assertEquals("0123456789file content0123456789", bodies.get(5));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Test
+    public void testContentLength() throws Exception {
+        final ChannelByteStore channelByteStore = new ChannelByteStore(tempFolder.newFile("store.tmp"), 0, false);
+        channelByteStore.write("channel byte store".getBytes());
+        channelByteStore.close();
+
+        final MultipartWriter writer = new MultipartWriter()
+                .addPart(headers("Content-Type", "text/plain"), ByteBuffer.wrap("byte buffer".getBytes()))
+                .addPart(null, channelByteStore);
+        final long contentLength = writer.getContentLength();
+
+        final ThrottledChannel channel = new ThrottledChannel(Integer.MAX_VALUE);
+        assertTrue(writer.writeTo(channel));
+        assertEquals(channel.data.size(), contentLength);
+        assertEquals(contentLength, writer.getContentLength());
+
+        try {
+            writer.addPart(null, ByteBuffer.allocate(1));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testPurgeChannelByteStore() throws Exception {
+        final File file = tempFolder.newFile("purge.tmp");
+        final ChannelByteStore channelByteStore = new ChannelByteStore(file, 0, true);
+        channelByteStore.write("channel byte store".getBytes());
+        channelByteStore.close();
+
+        final MultipartWriter writer = new MultipartWriter("AAA").addPart(null, channelByteStore);
+        final ThrottledChannel channel = new ThrottledChannel(4);
+        assertFalse(writer.writeTo(channel));
+        // Still being written, the file is needed
+        assertTrue(file.exists());
+        while (!writer.writeTo(channel)) {
+            // Keep writing
+        }
+        assertEquals("--AAA\r\n\r\nchannel byte store\r\n--AAA--\r\n", new String(channel.data.toByteArray()));
+        assertFalse(file.exists());
+
+        // Abandoned writing
+        final File abandonedFile = tempFolder.newFile("abandoned.tmp");
+        final ChannelByteStore abandoned = new ChannelByteStore(abandonedFile, 0, true);
+        abandoned.write("channel byte store".getBytes());
+        abandoned.close();
+        final MultipartWriter abandonedWriter = new MultipartWriter("AAA").addPart(null, abandoned);
+        final ThrottledChannel abandonedChannel = new ThrottledChannel(4);
+        while (abandonedChannel.data.size() <= "--AAA\r\n\r\n".length()) {
+            // Until the body is being written
+            assertFalse(abandonedWriter.writeTo(abandonedChannel));
+        }
+        assertTrue(abandonedFile.exists());
+        abandonedWriter.close();
+        assertFalse(abandonedFile.exists());
+    }
+
+    @Test
+    public void testNoParts() throws Exception {
+        final MultipartWriter writer = new MultipartWriter("AAA");
+        final ThrottledChannel channel = new ThrottledChannel(Integer.MAX_VALUE);
+        assertTrue(writer.writeTo(channel));
+        assertEquals("--AAA--\r\n", new String(channel.data.toByteArray()));
+    }
+
+    static Map<String, List<String>> headers(final String... namesAndValues) {
+        final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], Collections.singletonList(namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+
+    /*
+     * Accepts at most maxBytesPerWrite bytes per write and nothing every other write, like a slow non blocking socket.
+     */
+    static class ThrottledChannel implements WritableByteChannel {
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final int maxBytesPerWrite;
+        boolean full = false;
+
+        ThrottledChannel(final int maxBytesPerWrite) {
+            this.maxBytesPerWrite = maxBytesPerWrite;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) {
+            full = !full && maxBytesPerWrite != Integer.MAX_VALUE;
+            if (full) {
+                return 0;
+            }
+            final int length = Math.min(src.remaining(), maxBytesPerWrite);
+            final byte[] bytes = new byte[length];
+            src.get(bytes);
+            data.write(bytes, 0, length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do
+        }
+    }
+}
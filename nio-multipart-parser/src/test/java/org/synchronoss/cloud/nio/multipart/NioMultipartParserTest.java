@@ -16,18 +16,45 @@
 
 package org.synchronoss.cloud.nio.multipart;
 
+import org.apache.commons.io.IOUtils;
 import org.synchronoss.cloud.nio.multipart.io.ByteStore;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,6 +65,9 @@ import static org.mockito.Mockito.when;
  */
 public class NioMultipartParserTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private static final Logger log = LoggerFactory.getLogger(NioMultipartParserTest.class);
 
     @Test
@@ -239,4 +269,621 @@ public class NioMultipartParserTest {
         verify(byteStore).dismiss();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testStreamingListener() throws IOException {
+
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        final List<String> events = new ArrayList<String>();
+        final ByteArrayOutputStream streamedBody = new ByteArrayOutputStream();
+        NioMultipartParserStreamingListener listener = new AbstractNioMultipartStreamingListener() {
+            @Override
+            public void onPartStarted(Map<String, List<String>> headersFromPart) {
+                events.add("started:" + MultipartUtils.getFileName(headersFromPart));
+            }
+
+            @Override
+            public void onPartData(ByteBuffer partBodyChunk) {
+                while (partBodyChunk.hasRemaining()) {
+                    streamedBody.write(partBodyChunk.get());
+                }
+            }
+
+            @Override
+            public void onPartEnd(Map<String, List<String>> headersFromPart) {
+                events.add("end:" + MultipartUtils.getFileName(headersFromPart));
+            }
+
+            @Override
+            public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                events.add("field:" + fieldName + "=" + fieldValue);
+            }
+
+            @Override
+            public void onAllPartsFinished() {
+                events.add("finished");
+            }
+        };
+        PartBodyByteStoreFactory partBodyByteStoreFactory = spy(new DefaultPartBodyByteStoreFactory());
+
+        NioMultipartParser parser = new NioMultipartParser(context, listener, partBodyByteStoreFactory);
+
+        byte[] body = ("--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n\r\nThis is the file content\r\n" +
+                "--AAA--\r\n").getBytes();
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(body.length);
+        buffer.put(body).flip();
+        parser.write(buffer);
+
+        assertEquals("This is the file content", streamedBody.toString());
+        assertEquals(4, events.size());
+        assertEquals("field:field=value", events.get(0));
+        assertEquals("started:file.txt", events.get(1));
+        assertEquals("end:file.txt", events.get(2));
+        assertEquals("finished", events.get(3));
+
+        // Only the form field needed a ByteStore
+        verify(partBodyByteStoreFactory).newByteStoreForPartBody(anyMap(), anyInt());
+
+    }
+
+    @Test
+    public void testSuspendResume() throws IOException {
+
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        final List<String> events = new ArrayList<String>();
+        final NioMultipartParser[] parserHolder = new NioMultipartParser[1];
+        NioMultipartParserListener listener = new AbstractNioMultipartListener() {
+            @Override
+            public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                events.add("field:" + fieldName + "=" + fieldValue);
+                // Slow consumer, stop feeding the parser
+                parserHolder[0].suspend();
+            }
+
+            @Override
+            public void onAllPartsFinished() {
+                events.add("finished");
+            }
+        };
+
+        NioMultipartParser parser = new NioMultipartParser(context, listener);
+        parserHolder[0] = parser;
+
+        byte[] body = ("--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"field1\"\r\n\r\nvalue1\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"field2\"\r\n\r\nvalue2\r\n" +
+                "--AAA--").getBytes();
+
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        int consumed = parser.write(buffer);
+
+        assertTrue(parser.isSuspended());
+        assertTrue(consumed < body.length);
+        assertEquals(consumed, buffer.position());
+        assertEquals(1, events.size());
+        assertEquals("field:field1=value1", events.get(0));
+
+        // While suspended nothing is consumed
+        assertEquals(0, parser.write(buffer));
+        assertEquals(consumed, buffer.position());
+
+        parser.resume();
+        assertFalse(parser.isSuspended());
+        assertEquals(body.length - consumed, parser.write(buffer));
+        assertFalse(buffer.hasRemaining());
+        assertEquals(2, events.size());
+        assertEquals("field:field2=value2", events.get(1));
+
+        // The last part was completed by the close delimiter, resuming notifies the end of the multipart without more data
+        assertTrue(parser.isSuspended());
+        parser.resume();
+        assertEquals(3, events.size());
+        assertEquals("finished", events.get(2));
+
+    }
+
+    @Test
+    public void testDecodeContentTransferEncoding() throws IOException {
+
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        final List<String> events = new ArrayList<String>();
+        NioMultipartParserListener listener = new AbstractNioMultipartListener() {
+            @Override
+            public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+                try {
+                    events.add("file:" + new String(IOUtils.toByteArray(partBodyByteStore.getInputStream()), "UTF-8"));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                events.add("field:" + fieldName + "=" + fieldValue);
+            }
+        };
+
+        NioMultipartParser parser = Multipart.multipart(context).decodeContentTransferEncoding().forNIO(listener);
+
+        byte[] body = ("--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"field\"\r\nContent-Type: text/plain; charset=UTF-8\r\nContent-Transfer-Encoding: quoted-printable\r\n\r\ncaf=C3=A9 au l=\r\nait\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\nContent-Transfer-Encoding: base64\r\n\r\nVGhpcyBpcyB0aGUg\r\nZmlsZSBjb250ZW50\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"plain\"; filename=\"plain.txt\"\r\n\r\nVGhpcyBpcyB0aGUg\r\n" +
+                "--AAA--\r\n").getBytes("UTF-8");
+
+        // Byte by byte, so the encoded data is split across many writes
+        for (byte b : body) {
+            parser.write(b);
+        }
+
+        assertEquals(3, events.size());
+        assertEquals("field:field=café au lait", events.get(0));
+        assertEquals("file:This is the file content", events.get(1));
+        assertEquals("file:VGhpcyBpcyB0aGUg", events.get(2));
+    }
+
+    @Test
+    public void testFlushPolicyAndWriteCoalescing() throws IOException {
+
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append("0123456789");
+        }
+        final byte[] body = ("--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n\r\n" + content + "\r\n" +
+                "--AAA--\r\n").getBytes();
+
+        // Default: no coalescing, flushed at the end of the part
+        CountingByteStore byteStore = parseInChunks(Multipart.multipart(context), body);
+        assertEquals(content.toString(), new String(byteStore.data.toByteArray()));
+        assertTrue(byteStore.writes > 10);
+        assertEquals(1, byteStore.flushes);
+        assertTrue(byteStore.closed);
+
+        // Never flushed, all the fragments coalesced in a single write
+        byteStore = parseInChunks(Multipart.multipart(context).withFlushPolicy(FlushPolicy.NONE).coalesceWritesUpTo(4096), body);
+        assertEquals(content.toString(), new String(byteStore.data.toByteArray()));
+        assertEquals(1, byteStore.writes);
+        assertEquals(0, byteStore.flushes);
+        assertTrue(byteStore.closed);
+
+        // Flushed every 300 bytes and at the end of the part
+        byteStore = parseInChunks(Multipart.multipart(context).withFlushPolicy(FlushPolicy.every(300)).coalesceWritesUpTo(128), body);
+        assertEquals(content.toString(), new String(byteStore.data.toByteArray()));
+        assertTrue(byteStore.writes <= 1000 / 128 + 4);
+        assertTrue(byteStore.flushes >= 3 && byteStore.flushes <= 4);
+        assertTrue(byteStore.closed);
+    }
+
+    static CountingByteStore parseInChunks(final Multipart.Builder builder, final byte[] body) throws IOException {
+        final CountingByteStore byteStore = new CountingByteStore();
+        final NioMultipartParser parser = builder.usePartBodyByteStoreFactory(new PartBodyByteStoreFactory() {
+            @Override
+            public ByteStore newByteStoreForPartBody(Map<String, List<String>> headers, int partIndex) {
+                return byteStore;
+            }
+        }).forNIO(new AbstractNioMultipartListener());
+        for (int i = 0; i < body.length; i += 10) {
+            parser.write(body, i, Math.min(i + 10, body.length));
+        }
+        return byteStore;
+    }
+
+    static class CountingByteStore extends ByteStore {
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int writes = 0;
+        int flushes = 0;
+        boolean closed = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            writes++;
+            data.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            data.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(data.toByteArray());
+        }
+
+        @Override
+        public boolean dismiss() {
+            return true;
+        }
+    }
+
+    @Test
+    public void testPartFilter() throws IOException {
+
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+        PartBodyByteStoreFactory partBodyByteStoreFactory = spy(new DefaultPartBodyByteStoreFactory());
+
+        final List<String> events = new ArrayList<String>();
+        final List<Integer> filteredParts = new ArrayList<Integer>();
+        class FilteringListener extends AbstractNioMultipartListener implements PartFilter {
+            @Override
+            public boolean acceptPart(Map<String, List<String>> headersFromPart, int partIndex) {
+                filteredParts.add(partIndex);
+                return !MultipartUtils.getFieldName(headersFromPart).startsWith("skip");
+            }
+
+            @Override
+            public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+                events.add("file:" + MultipartUtils.getFieldName(headersFromPart));
+            }
+
+            @Override
+            public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+                events.add("field:" + fieldName + "=" + fieldValue);
+            }
+
+            @Override
+            public void onNestedPartStarted(Map<String, List<String>> headersFromParentPart) {
+                events.add("nested");
+            }
+
+            @Override
+            public void onAllPartsFinished() {
+                events.add("end");
+            }
+        }
+
+        NioMultipartParser parser = Multipart.multipart(context).usePartBodyByteStoreFactory(partBodyByteStoreFactory).forNIO(new FilteringListener());
+
+        byte[] body = ("--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"skipField\"\r\n\r\nignored\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"skipFile\"; filename=\"big.bin\"\r\n\r\n0123456789012345678901234567890123456789\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"skipNested\"\r\nContent-Type: multipart/mixed; boundary=BBB\r\n\r\n" +
+                "--BBB\r\nContent-Disposition: attachment; filename=\"nested.txt\"\r\n\r\nnested\r\n--BBB--\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n\r\ncontent\r\n" +
+                "--AAA--\r\n").getBytes();
+
+        for (int i = 0; i < body.length; i += 7) {
+            parser.write(body, i, Math.min(i + 7, body.length));
+        }
+
+        assertEquals(3, events.size());
+        assertEquals("field:field=value", events.get(0));
+        assertEquals("file:file", events.get(1));
+        assertEquals("end", events.get(2));
+        assertEquals(5, filteredParts.size());
+        assertEquals(Integer.valueOf(5), filteredParts.get(4));
+        verify(partBodyByteStoreFactory, times(2)).newByteStoreForPartBody(anyMap(), anyInt());
+
+        // The filter configured via the builder takes precedence
+        parser = Multipart.multipart(context).withPartFilter(new PartFilter() {
+            @Override
+            public boolean acceptPart(Map<String, List<String>> headersFromPart, int partIndex) {
+                return partIndex == 2;
+            }
+        }).forNIO(new FilteringListener());
+        events.clear();
+        parser.write(body);
+        assertEquals(2, events.size());
+        assertEquals("field:field=value", events.get(0));
+        assertEquals("end", events.get(1));
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        final byte[] body = ("preamble\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n" +
+                "--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n\r\nfile content\r\n--AA\r\n-\r\n" +
+                "--AAA\r\n" +
+                "Content-Type: multipart/mixed; boundary=BBB\r\n\r\n" +
+                "--BBB\r\nContent-Disposition: attachment; filename=\"nested.txt\"\r\n\r\nnested\r\n--BBB--\r\n" +
+                "--AAA--\r\nepilogue").getBytes();
+
+        final List<String> expected = new ArrayList<String>();
+        Multipart.multipart(context).forNIO(new RecordingListener(expected)).write(body);
+        assertEquals(5, expected.size());
+
+        for (int split = 0; split <= body.length; split++) {
+            final String tempFolder = this.tempFolder.newFolder("testCheckpoint-" + split).getAbsolutePath();
+            final List<String> events = new ArrayList<String>();
+
+            NioMultipartParser parser = Multipart.multipart(context)
+                    .usePartBodyByteStoreFactory(new ChannelPartBodyByteStoreFactory(tempFolder, 4))
+                    .coalesceWritesUpTo(8)
+                    .forNIO(new RecordingListener(events));
+            parser.write(body, 0, split);
+
+            // Serialized and restored in a new parser
+            final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            final ObjectOutputStream objectOutputStream = new ObjectOutputStream(serialized);
+            objectOutputStream.writeObject(parser.checkpoint());
+            objectOutputStream.close();
+            final NioMultipartParser.Checkpoint checkpoint = (NioMultipartParser.Checkpoint) new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray())).readObject();
+            assertEquals(split, checkpoint.getPosition());
+
+            parser = Multipart.multipart(context)
+                    .usePartBodyByteStoreFactory(new ChannelPartBodyByteStoreFactory(tempFolder, 4))
+                    .coalesceWritesUpTo(8)
+                    .forNIO(new RecordingListener(events));
+            parser.restore(checkpoint);
+            parser.write(body, (int) checkpoint.getPosition(), body.length);
+
+            assertEquals("Split at " + split, expected, events);
+        }
+    }
+
+    @Test
+    public void testReset() throws Exception {
+
+        final MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+        final byte[] body = ("--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n\r\nfile content\r\n" +
+                "--AAA--\r\n").getBytes();
+        final File tempFolder = this.tempFolder.newFolder("testReset");
+
+        final List<String> events = new ArrayList<String>();
+        final NioMultipartParser parser = new NioMultipartParser(context, new RecordingListener(events),
+                new DefaultPartBodyByteStoreFactory(tempFolder.getAbsolutePath(), 0), NioMultipartParser.DEFAULT_BUFFER_SIZE,
+                NioMultipartParser.DEFAULT_HEADERS_SECTION_SIZE, NioMultipartParser.DEFAULT_MAX_LEVEL_OF_NESTED_MULTIPART);
+
+        // In the middle of a part body, the ByteStore is dismissed
+        parser.write(body, 0, new String(body).indexOf("content"));
+        assertEquals(1, tempFolder.list().length);
+        parser.reset(context, new RecordingListener(events));
+        assertEquals(0, tempFolder.list().length);
+        parser.write(body);
+        assertEquals(Arrays.asList("file:file content", "end"), events);
+
+        // Not while processing
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        parser.reset(context, new AbstractNioMultipartListener() {
+            @Override
+            public void onAllPartsFinished() {
+                try {
+                    parser.reset(context, this);
+                } catch (IllegalStateException e) {
+                    errors.add(e);
+                }
+            }
+        });
+        parser.write(body);
+        assertEquals(1, errors.size());
+
+        // Not once closed
+        parser.close();
+        try {
+            parser.reset(context, new RecordingListener(events));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCheckpoint_closePooledParser() throws Exception {
+
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+
+        final byte[] body = ("--AAA\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n\r\nfile content\r\n" +
+                "--AAA--\r\n").getBytes();
+        final int split = new String(body).indexOf("content");
+        final File tempFolder = this.tempFolder.newFolder("testCheckpoint_closePooledParser");
+        final MultipartParserPool pool = new MultipartParserPool(1, new ChannelPartBodyByteStoreFactory(tempFolder.getAbsolutePath(), 0),
+                NioMultipartParser.DEFAULT_BUFFER_SIZE, NioMultipartParser.DEFAULT_HEADERS_SECTION_SIZE, NioMultipartParser.DEFAULT_MAX_LEVEL_OF_NESTED_MULTIPART, true);
+
+        final List<String> events = new ArrayList<String>();
+        NioMultipartParser parser = Multipart.multipart(context).withParserPool(pool).forNIO(new RecordingListener(events));
+        parser.write(body, 0, split);
+        final NioMultipartParser.Checkpoint checkpoint = parser.checkpoint();
+
+        // The connection drops and the parser goes back to the pool, the part body saved in the checkpoint is kept
+        parser.close();
+        assertEquals(1, pool.getIdleParsersCount());
+        assertTrue(checkpointedFile(checkpoint).exists());
+
+        parser = Multipart.multipart(context).withParserPool(pool).forNIO(new RecordingListener(events));
+        parser.restore(checkpoint);
+        parser.write(body, (int) checkpoint.getPosition(), body.length);
+        parser.close();
+        assertEquals(Arrays.asList("file:file content", "end"), events);
+
+        // Dismissing the parser keeps the data saved in the checkpoint too
+        parser = Multipart.multipart(context).withParserPool(pool).forNIO(new RecordingListener(events));
+        parser.write(body, 0, split);
+        final NioMultipartParser.Checkpoint dismissedCheckpoint = parser.checkpoint();
+        parser.dismiss();
+        assertTrue(checkpointedFile(dismissedCheckpoint).exists());
+    }
+
+    static File checkpointedFile(final NioMultipartParser.Checkpoint checkpoint) {
+        return new File(((ChannelPartBodyByteStoreFactory.ByteStoreCheckpoint) checkpoint.getPartBodyByteStoreCheckpoint()).path);
+    }
+
+    @Test
+    public void testHandOff() throws Exception {
+
+        final MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/mixed;boundary=AAA");
+        final NioMultipartParserListener listener = mock(NioMultipartParserListener.class);
+        final NioMultipartParser parser = new NioMultipartParser(context, listener);
+
+        final String body = "--AAA\r\n" +
+                "Content-Type: multipart/mixed; boundary=BBB\r\n\r\n" +
+                "--BBB\r\n" +
+                "Content-Type: text/plain\r\n\r\n" +
+                "nested part\r\n" +
+                "--BBB--\r\n" +
+                "\r\n--AAA\r\n" +
+                "Content-Type: text/plain\r\n\r\n" +
+                "part\r\n" +
+                "--AAA--\r\n";
+        final byte[] data = body.getBytes();
+
+        // Each chunk is written by a different thread, like the callbacks of a Servlet ReadListener. The writers are all started
+        // upfront and the only thing ordering them is the hand-off: each one waits for the previous to hand the parser off.
+        final int chunkSize = 7;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Thread> writers = new ArrayList<Thread>();
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            final int from = offset;
+            final int turn = writers.size();
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (parser.takeOver() != turn) {
+                        Thread.yield();
+                    }
+                    try {
+                        parser.write(ByteBuffer.wrap(data, from, Math.min(chunkSize, data.length - from)));
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    } finally {
+                        parser.handOff();
+                    }
+                }
+            }));
+        }
+        for (int i = writers.size() - 1; i >= 0; i--) {
+            writers.get(i).start();
+        }
+        for (Thread writer : writers) {
+            writer.join(10000);
+        }
+        assertEquals(writers.size(), parser.takeOver());
+
+        assertEquals(new ArrayList<Throwable>(), errors);
+        verify(listener).onNestedPartStarted(anyMap());
+        verify(listener).onNestedPartFinished();
+        verify(listener, times(2)).onPartFinished(any(ByteStore.class), anyMap());
+        verify(listener).onAllPartsFinished();
+        verify(listener, never()).onError(anyString(), any(Throwable.class));
+    }
+
+    @Test
+    public void testCheckpoint_notResumable() throws Exception {
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+        NioMultipartParser parser = Multipart.multipart(context).forNIO(new AbstractNioMultipartListener());
+
+        parser.write(("--AAA\r\nContent-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n\r\nfile").getBytes());
+        try {
+            parser.checkpoint();
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        parser.write(" content\r\n--AAA\r\nContent-".getBytes());
+        assertEquals(2, parser.checkpoint().getPartIndex());
+    }
+
+    static class RecordingListener extends AbstractNioMultipartListener {
+
+        final List<String> events;
+
+        RecordingListener(final List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onPartFinished(ByteStore partBodyByteStore, Map<String, List<String>> headersFromPart) {
+            try {
+                events.add("file:" + IOUtils.toString(partBodyByteStore.getInputStream()));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onFormFieldPartFinished(String fieldName, String fieldValue, Map<String, List<String>> headersFromPart) {
+            events.add("field:" + fieldName + "=" + fieldValue);
+        }
+
+        @Override
+        public void onNestedPartStarted(Map<String, List<String>> headersFromParentPart) {
+            events.add("nested");
+        }
+
+        @Override
+        public void onAllPartsFinished() {
+            events.add("end");
+        }
+
+        @Override
+        public void onError(String message, Throwable cause) {
+            throw new IllegalStateException(message, cause);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+
+        MultipartContext context = mock(MultipartContext.class);
+        when(context.getContentType()).thenReturn("multipart/form-data;boundary=AAA");
+        MultipartMetrics metrics = mock(MultipartMetrics.class);
+
+        NioMultipartParser parser = Multipart.multipart(context).withMetrics(metrics).forNIO(new AbstractNioMultipartListener());
+
+        byte[] headers = "Content-Disposition: form-data; name=\"field\"\r\n\r\n".getBytes();
+        byte[] body = ("--AAA\r\n" + new String(headers) + "value\r\n" +
+                "--AAA\r\n" + new String(headers) + "value\r\n" +
+                "--AAA--\r\n").getBytes();
+        parser.write(body, 0, 10);
+        parser.write(body, 10, body.length);
+
+        verify(metrics).recordBytesParsed(10);
+        verify(metrics).recordBytesParsed(body.length - 10);
+        // The size of the headers section does not include the empty line terminating it
+        verify(metrics, times(2)).recordHeadersSectionSize(headers.length - 4);
+        verify(metrics).recordPartsPerRequest(2);
+        verify(metrics, atLeastOnce()).recordStateTime(eq("READ_BODY"), anyLong());
+        verify(metrics, never()).recordError(anyString(), any(Throwable.class));
+
+        // Errors
+        parser = Multipart.multipart(context).withMetrics(metrics).forNIO(new AbstractNioMultipartListener());
+        parser.write("--AAAxx".getBytes());
+        verify(metrics).recordError("Unexpected characters follow a boundary", null);
+    }
+
+}
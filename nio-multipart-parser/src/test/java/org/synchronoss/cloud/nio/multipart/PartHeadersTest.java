@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p> Unit Tests for {@link PartHeaders}
+ *
+ * @author Silvano Riz.
+ */
+public class PartHeadersTest {
+
+    static Map<String, List<String>> headers(final String... namesAndValues){
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        for (int i = 0; i < namesAndValues.length; i += 2){
+            headers.put(namesAndValues[i].toLowerCase(), Collections.singletonList(namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+
+    @Test
+    public void testSameAsMultipartUtils() throws Exception {
+
+        List<Map<String, List<String>>> samples = new ArrayList<Map<String, List<String>>>();
+        samples.add(headers());
+        samples.add(headers(MultipartUtils.CONTENT_DISPOSITION, "form-data; name=\"field\""));
+        samples.add(headers(MultipartUtils.CONTENT_DISPOSITION, "Form-Data; name=\" field \"; filename=\"file.txt\""));
+        samples.add(headers(MultipartUtils.CONTENT_DISPOSITION, "form-data; name=\"field\"; filename"));
+        samples.add(headers(MultipartUtils.CONTENT_DISPOSITION, "attachment; name=\"field\"; filename=\"file.txt\""));
+        samples.add(headers(MultipartUtils.CONTENT_DISPOSITION, "inline; name=\"field\""));
+        samples.add(headers(MultipartUtils.CONTENT_TYPE, "text/plain; charset=UTF-8", MultipartUtils.CONTENT_LENGTH, "100"));
+        samples.add(headers(MultipartUtils.CONTENT_TYPE, "multipart/mixed; boundary=AAA", MultipartUtils.CONTENT_LENGTH, "ABC"));
+
+        for (Map<String, List<String>> sample : samples){
+            PartHeaders partHeaders = new PartHeaders(sample);
+            assertEquals(sample, partHeaders);
+            assertEquals(MultipartUtils.getFieldName(sample), partHeaders.getFieldName());
+            assertEquals(MultipartUtils.getFileName(sample), partHeaders.getFileName());
+            assertEquals(MultipartUtils.isFormField(sample), partHeaders.isFormField());
+            assertEquals(MultipartUtils.getCharEncoding(sample), partHeaders.getCharset());
+            assertEquals(MultipartUtils.getContentLength(sample), partHeaders.getContentLength());
+            assertEquals(MultipartUtils.hasMultipartContentType(sample), partHeaders.isMultipart());
+            assertEquals(MultipartUtils.getHeader(MultipartUtils.CONTENT_TYPE, sample), partHeaders.getContentType());
+
+            // MultipartUtils delegates to the cached values
+            assertEquals(partHeaders.getFieldName(), MultipartUtils.getFieldName(partHeaders));
+            assertEquals(partHeaders.getFileName(), MultipartUtils.getFileName(partHeaders));
+            assertEquals(partHeaders.isFormField(), MultipartUtils.isFormField(partHeaders));
+        }
+    }
+
+    @Test
+    public void testGetters() throws Exception {
+        PartHeaders partHeaders = PartHeaders.of(headers(
+                MultipartUtils.CONTENT_DISPOSITION, "Form-Data ; name=\"field\"; filename=\"file.txt\"",
+                MultipartUtils.CONTENT_TRANSFER_ENCODING, "base64"));
+
+        assertEquals("form-data", partHeaders.getDispositionType());
+        assertEquals("field", partHeaders.getFieldName());
+        assertEquals("file.txt", partHeaders.getFileName());
+        assertFalse(partHeaders.isFormField());
+        assertEquals("base64", partHeaders.getContentTransferEncoding());
+        assertEquals("base64", partHeaders.getHeader("Content-Transfer-Encoding"));
+        assertNull(partHeaders.getContentType());
+        assertSame(partHeaders, PartHeaders.of(partHeaders));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        PartHeaders partHeaders = new PartHeaders(headers(MultipartUtils.CONTENT_DISPOSITION, "form-data; name=\"field\""));
+        assertTrue(partHeaders.isFormField());
+
+        partHeaders.put(MultipartUtils.CONTENT_DISPOSITION.toLowerCase(), Collections.singletonList("form-data; name=\"field\"; filename=\"a.txt\""));
+        assertFalse(partHeaders.isFormField());
+        assertEquals("a.txt", partHeaders.getFileName());
+
+        partHeaders.clear();
+        assertNull(partHeaders.getFieldName());
+        assertTrue(partHeaders.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_error() throws Exception {
+        new PartHeaders(null);
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.synchronoss.cloud.nio.multipart.MultipartMetrics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * <p> Unit test for {@link ChannelByteStore}
+ *
+ * @author Silvano Riz.
+ */
+public class ChannelByteStoreTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testWrite_memory() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWrite_memory.tmp");
+
+        ChannelByteStore channelByteStore = new ChannelByteStore(file, 5);
+        channelByteStore.write(0x01);
+        channelByteStore.write(new byte[]{0x02, 0x03});
+        channelByteStore.write(ByteBuffer.wrap(new byte[]{0x04, 0x05}));
+        assertTrue(channelByteStore.isInMemory());
+        assertFalse(file.exists());
+        channelByteStore.close();
+
+        assertEquals(5, channelByteStore.size());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(channelByteStore.getInputStream()));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, toByteArray(channelByteStore.map()));
+    }
+
+    @Test
+    public void testWrite_memoryDirectBuffer() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWrite_memoryDirectBuffer.tmp");
+
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ChannelByteStore channelByteStore = new ChannelByteStore(file, 200);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        channelByteStore.write(direct);
+        assertFalse(direct.hasRemaining());
+        channelByteStore.write(ByteBuffer.wrap(data, 0, 10));
+        assertTrue(channelByteStore.isInMemory());
+        channelByteStore.close();
+
+        assertEquals(110, channelByteStore.size());
+        byte[] read = IOUtils.toByteArray(channelByteStore.getInputStream());
+        assertEquals(110, read.length);
+        assertEquals(99, read[99]);
+        assertEquals(9, read[109]);
+    }
+
+    @Test
+    public void testWrite_file() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWrite_file.tmp");
+
+        ChannelByteStore channelByteStore = new ChannelByteStore(file, 2, false);
+        channelByteStore.write(new byte[]{0x01, 0x02});
+        assertTrue(channelByteStore.isInMemory());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        direct.put(new byte[]{0x03, 0x04, 0x05}).flip();
+        channelByteStore.write(direct);
+        assertFalse(direct.hasRemaining());
+        assertFalse(channelByteStore.isInMemory());
+        channelByteStore.write(0x06);
+        channelByteStore.close();
+
+        assertEquals(6, channelByteStore.size());
+        assertEquals(6, file.length());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, IOUtils.toByteArray(channelByteStore.getInputStream()));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, toByteArray(channelByteStore.map()));
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testWrite_noMemory() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWrite_noMemory.tmp");
+
+        ChannelByteStore channelByteStore = new ChannelByteStore(file, 0);
+        assertFalse(channelByteStore.isInMemory());
+        assertTrue(file.exists());
+        channelByteStore.write(new byte[]{0x01, 0x02});
+        channelByteStore.close();
+
+        assertArrayEquals(new byte[]{0x01, 0x02}, IOUtils.toByteArray(channelByteStore.getInputStream()));
+    }
+
+    @Test
+    public void testGetReadableChannel_purgeOnClose() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testGetReadableChannel_purgeOnClose.tmp");
+
+        ChannelByteStore channelByteStore = new ChannelByteStore(file, 0, true);
+        channelByteStore.write(new byte[]{0x01, 0x02, 0x03});
+        channelByteStore.close();
+
+        ReadableByteChannel channel = channelByteStore.getReadableChannel();
+        ByteBuffer read = ByteBuffer.allocate(3);
+        while (read.hasRemaining() && channel.read(read) > 0){
+            // Keep reading
+        }
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, read.array());
+        assertTrue(file.exists());
+        channel.close();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testTransferTo() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testTransferTo.tmp");
+        File target = new File(tempFolder.getRoot(), "testTransferTo_target.tmp");
+
+        MultipartMetrics metrics = mock(MultipartMetrics.class);
+        ChannelByteStore channelByteStore = new ChannelByteStore(file, 1, true, metrics);
+        channelByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x04});
+        channelByteStore.close();
+        verify(metrics).recordPartSwitchedToDisk(0);
+        verify(metrics).recordTempFileBytesWritten(4);
+
+        // Partial transfer
+        ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        assertEquals(2, channelByteStore.transferTo(1, 2, Channels.newChannel(partial)));
+        assertArrayEquals(new byte[]{0x02, 0x03}, partial.toByteArray());
+        assertEquals(0, channelByteStore.transferTo(4, 2, Channels.newChannel(partial)));
+        assertTrue(file.exists());
+
+        // Full transfer to another file, purges the source
+        FileOutputStream targetOutputStream = new FileOutputStream(target);
+        try {
+            assertEquals(4, channelByteStore.transferTo(targetOutputStream.getChannel()));
+        }finally {
+            targetOutputStream.close();
+        }
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04}, FileUtils.readFileToByteArray(target));
+        assertFalse(file.exists());
+        verify(metrics).recordTempFileDeleted(4);
+    }
+
+    @Test
+    public void testResume() throws IOException {
+
+        File file = tempFolder.newFile("testResume.tmp");
+        FileUtils.writeByteArrayToFile(file, new byte[]{0x01, 0x02, 0x03, 0x04});
+
+        ChannelByteStore channelByteStore = ChannelByteStore.resume(file, 2, true, null);
+        channelByteStore.write(0x05);
+        channelByteStore.close();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x05}, IOUtils.toByteArray(channelByteStore.getInputStream()));
+    }
+
+    @Test
+    public void testResume_fileShorterThanOffset() throws IOException {
+
+        File file = tempFolder.newFile("testResume_fileShorterThanOffset.tmp");
+        FileUtils.writeByteArrayToFile(file, new byte[]{0x01, 0x02});
+
+        try {
+            ChannelByteStore.resume(file, 3, true, null);
+            fail("Expected an IOException");
+        }catch (IOException e){
+            assertTrue(e.getMessage(), e.getMessage().contains("is shorter than the offset. File size: 2, offset: 3"));
+        }
+    }
+
+    @Test
+    public void testTransferTo_memory() throws IOException {
+
+        ChannelByteStore channelByteStore = new ChannelByteStore(new File(tempFolder.getRoot(), "testTransferTo_memory.tmp"), 10);
+        channelByteStore.write(new byte[]{0x01, 0x02, 0x03});
+        channelByteStore.close();
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        assertEquals(3, channelByteStore.transferTo(Channels.newChannel(target)));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, target.toByteArray());
+    }
+
+    @Test
+    public void testWrite_memoryBudget() throws IOException {
+
+        SegmentPool segmentPool = new SegmentPool(4, 10);
+        MemoryBudget memoryBudget = new MemoryBudget(8);
+
+        // Fits in the budget, the segments go back to the pool once read
+        ChannelByteStore inMemory = new ChannelByteStore(new File(tempFolder.getRoot(), "testWrite_memoryBudget_1.tmp"), 100, true, null, segmentPool, memoryBudget);
+        inMemory.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05});
+        assertTrue(inMemory.isInMemory());
+        assertEquals(8, memoryBudget.getReservedBytes());
+
+        // The budget is exhausted, the data goes to disk before reaching the threshold
+        File file = new File(tempFolder.getRoot(), "testWrite_memoryBudget_2.tmp");
+        ChannelByteStore onDisk = new ChannelByteStore(file, 100, true, null, segmentPool, memoryBudget);
+        onDisk.write(new byte[]{0x06, 0x07});
+        assertFalse(onDisk.isInMemory());
+        assertTrue(file.exists());
+        onDisk.close();
+        assertArrayEquals(new byte[]{0x06, 0x07}, IOUtils.toByteArray(onDisk.getInputStream()));
+
+        inMemory.close();
+        InputStream inputStream = inMemory.getInputStream();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        assertEquals(0, memoryBudget.getReservedBytes());
+        assertEquals(2, segmentPool.getPooledSegmentsCount());
+        try {
+            inMemory.getInputStream();
+            fail("The memory has been released");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSwitchToFile_memoryReleased() throws IOException {
+
+        SegmentPool segmentPool = new SegmentPool(4, 10);
+        MemoryBudget memoryBudget = new MemoryBudget(100);
+        File file = new File(tempFolder.getRoot(), "testSwitchToFile_memoryReleased.tmp");
+
+        ChannelByteStore channelByteStore = new ChannelByteStore(file, 10, false, null, segmentPool, memoryBudget);
+        channelByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06});
+        assertEquals(8, memoryBudget.getReservedBytes());
+        channelByteStore.write(new byte[]{0x07, 0x08, 0x09, 0x0A, 0x0B});
+        assertFalse(channelByteStore.isInMemory());
+        assertEquals(0, memoryBudget.getReservedBytes());
+        assertEquals(2, segmentPool.getPooledSegmentsCount());
+        channelByteStore.close();
+
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B}, FileUtils.readFileToByteArray(file));
+    }
+
+    @Test
+    public void testDismiss_memoryReleased() throws IOException {
+
+        SegmentPool segmentPool = new SegmentPool(4, 10);
+        MemoryBudget memoryBudget = new MemoryBudget(100);
+
+        ChannelByteStore channelByteStore = new ChannelByteStore(new File(tempFolder.getRoot(), "testDismiss_memoryReleased.tmp"), 10, true, null, segmentPool, memoryBudget);
+        channelByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05});
+        channelByteStore.close();
+        assertArrayEquals(new byte[]{0x02, 0x03}, toByteArray((ByteBuffer) channelByteStore.map().position(1).limit(3)));
+        assertTrue(channelByteStore.dismiss());
+        assertEquals(0, memoryBudget.getReservedBytes());
+        assertEquals(2, segmentPool.getPooledSegmentsCount());
+    }
+
+    @Test
+    public void testReadWriteStatus() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testReadWriteStatus.tmp");
+        ChannelByteStore channelByteStore = new ChannelByteStore(file, 0);
+        channelByteStore.write(0x01);
+
+        try {
+            channelByteStore.getInputStream();
+            fail("Not readable yet");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+
+        channelByteStore.close();
+        try {
+            channelByteStore.write(0x01);
+            fail("Not writable anymore");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+
+        assertTrue(channelByteStore.dismiss());
+        assertFalse(file.exists());
+        try {
+            channelByteStore.map();
+            fail("Dismissed");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+    }
+
+    static byte[] toByteArray(final ByteBuffer byteBuffer){
+        final byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(bytes);
+        return bytes;
+    }
+
+}
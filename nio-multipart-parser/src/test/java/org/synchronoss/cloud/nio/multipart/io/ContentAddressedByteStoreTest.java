@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.synchronoss.cloud.nio.multipart.MultipartMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * <p> Unit test for {@link ContentAddressedByteStore}
+ *
+ * @author Silvano Riz.
+ */
+public class ContentAddressedByteStoreTest {
+
+    private static final String HELLO_SHA256 = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testStoreAndDeduplicate() throws IOException {
+
+        File storeFolder = tempFolder.newFolder("store");
+        File tempFile1 = new File(tempFolder.getRoot(), "testStoreAndDeduplicate1.tmp");
+        File tempFile2 = new File(tempFolder.getRoot(), "testStoreAndDeduplicate2.tmp");
+
+        ContentAddressedByteStore byteStore1 = new ContentAddressedByteStore(tempFile1, storeFolder, 2);
+        byteStore1.write("he".getBytes());
+        byteStore1.write('l');
+        byteStore1.write("xlox".getBytes(), 1, 2);
+        assertFalse(byteStore1.isInMemory());
+        byteStore1.close();
+
+        File contentFile = new File(storeFolder, "2c/f2/" + HELLO_SHA256);
+        assertEquals(HELLO_SHA256, byteStore1.getDigestHex());
+        assertEquals(32, byteStore1.getDigest().length);
+        assertEquals(contentFile, byteStore1.getContentFile());
+        assertTrue(contentFile.exists());
+        assertFalse(tempFile1.exists());
+
+        // Same content, stored only once
+        MultipartMetrics metrics = mock(MultipartMetrics.class);
+        ContentAddressedByteStore byteStore2 = new ContentAddressedByteStore(tempFile2, storeFolder, 0, ContentAddressedByteStore.DEFAULT_DIGEST_ALGORITHM, metrics, null, null);
+        ByteBuffer direct = ByteBuffer.allocateDirect(5);
+        direct.put("hello".getBytes()).flip();
+        byteStore2.write(direct);
+        byteStore2.close();
+        assertEquals(HELLO_SHA256, byteStore2.getDigestHex());
+        assertEquals(contentFile, byteStore2.getContentFile());
+        assertFalse(tempFile2.exists());
+        verify(metrics).recordTempFileDeleted(5);
+
+        // Reading or dismissing does not remove the shared content
+        InputStream inputStream = byteStore1.getInputStream();
+        assertEquals("hello", new String(IOUtils.toByteArray(inputStream)));
+        inputStream.close();
+        byteStore2.dismiss();
+        assertTrue(contentFile.exists());
+        assertEquals("hello", new String(FileUtils.readFileToByteArray(contentFile)));
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+
+        File storeFolder = tempFolder.newFolder("store");
+
+        MemoryBudget memoryBudget = new MemoryBudget(1024 * 1024);
+        ContentAddressedByteStore byteStore = new ContentAddressedByteStore(new File(tempFolder.getRoot(), "testInMemory.tmp"), storeFolder, 100,
+                ContentAddressedByteStore.DEFAULT_DIGEST_ALGORITHM, null, null, memoryBudget);
+        byteStore.write(ByteBuffer.wrap("hello".getBytes()));
+        byteStore.close();
+
+        assertTrue(byteStore.isInMemory());
+        assertEquals(HELLO_SHA256, byteStore.getDigestHex());
+        assertNull(byteStore.getContentFile());
+        assertTrue(memoryBudget.getReservedBytes() > 0);
+        InputStream inputStream = byteStore.getInputStream();
+        assertEquals("hello", new String(IOUtils.toByteArray(inputStream)));
+        inputStream.close();
+        assertEquals(0, storeFolder.list().length);
+
+        // The memory is released once read
+        assertEquals(0, memoryBudget.getReservedBytes());
+        try {
+            byteStore.getInputStream();
+            fail("The data can be read only once");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+    }
+
+    @Test
+    public void testDigestNotAvailable() throws IOException {
+
+        ContentAddressedByteStore byteStore = new ContentAddressedByteStore(new File(tempFolder.getRoot(), "testDigestNotAvailable.tmp"), tempFolder.getRoot(), 100);
+        try {
+            byteStore.getDigest();
+            fail("Digest not available before close");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedAlgorithm() throws IOException {
+        new ContentAddressedByteStore(new File(tempFolder.getRoot(), "testUnsupportedAlgorithm.tmp"), tempFolder.getRoot(), 100, "NOPE", null, null, null);
+    }
+
+}
@@ -17,6 +17,7 @@ package org.synchronoss.cloud.nio.multipart.io;
 
 
 import org.apache.commons.io.IOUtils;
+import org.synchronoss.cloud.nio.multipart.MultipartMetrics;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -24,8 +25,11 @@ import org.junit.rules.TemporaryFolder;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
 
 /**
  * <p> Unit test for {@link DeferredFileByteStore}
@@ -55,7 +59,7 @@ public class DeferredFileByteStoreTest {
         DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3);
         assertTrue(deferredFileByteStore.isInMemory());
         assertFalse(file.exists());
-        assertEquals(0, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(0, deferredFileByteStore.segmentedOutputStream.size());
 
         deferredFileByteStore.write(0x01);
         deferredFileByteStore.write(0x02);
@@ -63,13 +67,13 @@ public class DeferredFileByteStoreTest {
 
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(3, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(3, deferredFileByteStore.segmentedOutputStream.size());
 
         deferredFileByteStore.write(0x04);
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.DISK);
         assertTrue(file.exists());
         assertEquals(4, file.length());
-        assertNull(deferredFileByteStore.byteArrayOutputStream);
+        assertNull(deferredFileByteStore.segmentedOutputStream);
 
     }
 
@@ -81,22 +85,83 @@ public class DeferredFileByteStoreTest {
         DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3);
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(0, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(0, deferredFileByteStore.segmentedOutputStream.size());
 
         deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03});
 
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(3, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(3, deferredFileByteStore.segmentedOutputStream.size());
 
         deferredFileByteStore.write(new byte[]{0x04, 0x05, 0x06});
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.DISK);
         assertTrue(file.exists());
         assertEquals(6, file.length());
-        assertNull(deferredFileByteStore.byteArrayOutputStream);
+        assertNull(deferredFileByteStore.segmentedOutputStream);
 
     }
 
+    @Test
+    public void testWrite_byteBuffer() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWrite_byteBuffer.tmp");
+
+        DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3);
+
+        ByteBuffer data = ByteBuffer.allocateDirect(3);
+        data.put(new byte[]{0x01, 0x02, 0x03}).flip();
+        deferredFileByteStore.write(data);
+
+        assertFalse(data.hasRemaining());
+        assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
+        assertFalse(file.exists());
+        assertEquals(3, deferredFileByteStore.segmentedOutputStream.size());
+
+        data = ByteBuffer.allocateDirect(3);
+        data.put(new byte[]{0x04, 0x05, 0x06}).flip();
+        deferredFileByteStore.write(data);
+
+        assertFalse(data.hasRemaining());
+        assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.DISK);
+        assertEquals(6, file.length());
+
+        deferredFileByteStore.write(ByteBuffer.wrap(new byte[]{0x00, 0x07, 0x08, 0x00}, 1, 2));
+        deferredFileByteStore.close();
+
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08}, IOUtils.toByteArray(deferredFileByteStore.getInputStream()));
+
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testMetrics.tmp");
+        MultipartMetrics metrics = mock(MultipartMetrics.class);
+
+        DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3, true, metrics);
+        deferredFileByteStore.write(new byte[]{0x01, 0x02});
+        verify(metrics, never()).recordPartSwitchedToDisk(anyLong());
+
+        deferredFileByteStore.write(new byte[]{0x03, 0x04}, 0, 2);
+        verify(metrics).recordPartSwitchedToDisk(2);
+
+        deferredFileByteStore.write(0x05);
+        deferredFileByteStore.write(ByteBuffer.wrap(new byte[]{0x06}));
+        deferredFileByteStore.close();
+        verify(metrics).recordTempFileBytesWritten(6);
+
+        // The file is purged when the input stream is closed
+        InputStream inputStream = deferredFileByteStore.getInputStream();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        verify(metrics).recordTempFileDeleted(6);
+        assertFalse(file.exists());
+
+        deferredFileByteStore.dismiss();
+        verify(metrics, times(1)).recordTempFileBytesWritten(anyLong());
+        verify(metrics, times(1)).recordTempFileDeleted(anyLong());
+    }
+
     @Test
     public void testWrite2() throws IOException {
 
@@ -105,19 +170,19 @@ public class DeferredFileByteStoreTest {
         DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3);
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(0, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(0, deferredFileByteStore.segmentedOutputStream.size());
 
         deferredFileByteStore.write(new byte[]{0x00, 0x01, 0x02, 0x03, 0x00}, 1, 3);
 
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(3, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(3, deferredFileByteStore.segmentedOutputStream.size());
 
         deferredFileByteStore.write(new byte[]{0x00, 0x04, 0x05, 0x06, 0x00}, 1, 3);
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.DISK);
         assertTrue(file.exists());
         assertEquals(6, file.length());
-        assertNull(deferredFileByteStore.byteArrayOutputStream);
+        assertNull(deferredFileByteStore.segmentedOutputStream);
 
     }
 
@@ -129,14 +194,14 @@ public class DeferredFileByteStoreTest {
         DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3);
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(0, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(0, deferredFileByteStore.segmentedOutputStream.size());
 
         // Write just 3 bytes. Still in the threshold so data should leave in memory...
         deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03});
 
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(3, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(3, deferredFileByteStore.segmentedOutputStream.size());
 
         deferredFileByteStore.close();
 
@@ -147,6 +212,89 @@ public class DeferredFileByteStoreTest {
 
     }
 
+    @Test
+    public void testGetInputStream_memory_segments() throws IOException {
+
+        SegmentPool segmentPool = new SegmentPool(4, 10);
+        File file = new File(tempFolder.getRoot(), "testGetInputStream_memory_segments.tmp");
+
+        DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 10, true, null, segmentPool);
+        deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03});
+        deferredFileByteStore.write(0x04);
+        deferredFileByteStore.write(new byte[]{0x05, 0x06, 0x07, 0x08, 0x09});
+        assertEquals(3, deferredFileByteStore.segmentedOutputStream.segments.size());
+        deferredFileByteStore.close();
+
+        InputStream inputStream = deferredFileByteStore.getInputStream();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09}, IOUtils.toByteArray(inputStream));
+        assertEquals(0, segmentPool.getPooledSegmentsCount());
+
+        // On close the segments go back to the pool
+        inputStream.close();
+        assertEquals(3, segmentPool.getPooledSegmentsCount());
+        try {
+            deferredFileByteStore.getInputStream();
+            fail("The memory has been released");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+
+        // Segments are reused, and released when switching to file
+        deferredFileByteStore = new DeferredFileByteStore(file, 5, true, null, segmentPool);
+        deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05});
+        assertEquals(1, segmentPool.getPooledSegmentsCount());
+        deferredFileByteStore.write(0x06);
+        assertEquals(3, segmentPool.getPooledSegmentsCount());
+        assertFalse(deferredFileByteStore.isInMemory());
+        deferredFileByteStore.dismiss();
+
+        // Or on dismiss
+        deferredFileByteStore = new DeferredFileByteStore(file, 5, true, null, segmentPool);
+        deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05});
+        assertEquals(1, segmentPool.getPooledSegmentsCount());
+        assertTrue(deferredFileByteStore.dismiss());
+        assertEquals(3, segmentPool.getPooledSegmentsCount());
+    }
+
+    @Test
+    public void testGetInputStream_memory_releasedWhileReading() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testGetInputStream_memory_releasedWhileReading.tmp");
+        DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 10, true, null, new SegmentPool(4, 10));
+        deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06});
+        deferredFileByteStore.close();
+
+        InputStream inputStream = deferredFileByteStore.getInputStream();
+        assertEquals(0x01, inputStream.read());
+        deferredFileByteStore.dismiss();
+        assertEquals(0, inputStream.available());
+        try {
+            inputStream.read(new byte[10]);
+            fail("The data has been released, the read must not look like the end of the stream");
+        }catch (IOException e){
+            // Expected
+        }
+    }
+
+    @Test
+    public void testGetInputStream_memory_noPurge() throws IOException {
+
+        SegmentPool segmentPool = new SegmentPool(4, 10);
+        DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(new File(tempFolder.getRoot(), "testGetInputStream_memory_noPurge.tmp"), 10, false, null, segmentPool);
+        deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05});
+        deferredFileByteStore.close();
+
+        // Without purge the data can be read many times and the memory is released on dismiss
+        for (int i = 0; i < 2; i++) {
+            InputStream inputStream = deferredFileByteStore.getInputStream();
+            assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(inputStream));
+            inputStream.close();
+        }
+        assertEquals(0, segmentPool.getPooledSegmentsCount());
+        deferredFileByteStore.dismiss();
+        assertEquals(2, segmentPool.getPooledSegmentsCount());
+    }
+
     @Test
     public void testGetInputStream_file_purgeOnClose() throws IOException {
 
@@ -155,7 +303,7 @@ public class DeferredFileByteStoreTest {
         DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3);
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(0, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(0, deferredFileByteStore.segmentedOutputStream.size());
 
         // Write 5 bytes (2 bytes more than the threshold). It should switch to use a file
         deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5});
@@ -186,7 +334,7 @@ public class DeferredFileByteStoreTest {
         DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3, false);
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(0, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(0, deferredFileByteStore.segmentedOutputStream.size());
 
         // Write 5 bytes (2 bytes more than the threshold). It should switch to use a file
         deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5});
@@ -217,7 +365,7 @@ public class DeferredFileByteStoreTest {
         DeferredFileByteStore deferredFileByteStore = new DeferredFileByteStore(file, 3);
         assertEquals(deferredFileByteStore.storageMode, DeferredFileByteStore.StorageMode.MEMORY);
         assertFalse(file.exists());
-        assertEquals(0, deferredFileByteStore.byteArrayOutputStream.size());
+        assertEquals(0, deferredFileByteStore.segmentedOutputStream.size());
 
         // Write 5 bytes (2 bytes more than the threshold). It should switch to use a file
         deferredFileByteStore.write(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5});
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p> Unit test for {@link MemoryBudget}
+ *
+ * @author Silvano Riz.
+ */
+public class MemoryBudgetTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalid() {
+        new MemoryBudget(-1);
+    }
+
+    @Test
+    public void testReserveRelease() {
+
+        MemoryBudget memoryBudget = new MemoryBudget(100);
+        assertEquals(100, memoryBudget.getMaxBytes());
+
+        assertTrue(memoryBudget.tryReserve(60));
+        assertTrue(memoryBudget.tryReserve(40));
+        assertFalse(memoryBudget.tryReserve(1));
+        assertEquals(100, memoryBudget.getReservedBytes());
+
+        memoryBudget.reserve(10);
+        assertEquals(110, memoryBudget.getReservedBytes());
+
+        memoryBudget.release(60);
+        assertEquals(50, memoryBudget.getReservedBytes());
+        assertTrue(memoryBudget.tryReserve(50));
+        assertFalse(memoryBudget.tryReserve(1));
+    }
+
+    @Test
+    public void testIsSmallPart() {
+
+        MemoryBudget memoryBudget = new MemoryBudget(100, 10);
+        assertTrue(memoryBudget.isSmallPart(0));
+        assertTrue(memoryBudget.isSmallPart(10));
+        assertFalse(memoryBudget.isSmallPart(11));
+        assertFalse(memoryBudget.isSmallPart(-1));
+
+        assertFalse(new MemoryBudget(100).isSmallPart(0));
+    }
+
+    @Test
+    public void testReclaimCollectedStores() throws Exception {
+
+        final MemoryBudget memoryBudget = new MemoryBudget(100000);
+        final SegmentPool segmentPool = new SegmentPool(1024, 0);
+
+        // Released store, nothing to reclaim
+        SegmentedOutputStream released = new SegmentedOutputStream(segmentPool, memoryBudget);
+        released.write(new byte[1000]);
+        assertEquals(1024, memoryBudget.getReservedBytes());
+        released.release();
+        assertEquals(0, memoryBudget.getReservedBytes());
+
+        // Store never read nor dismissed, just dropped
+        SegmentedOutputStream dropped = new SegmentedOutputStream(segmentPool, memoryBudget);
+        dropped.write(new byte[3000]);
+        assertEquals(3072, memoryBudget.getReservedBytes());
+        dropped = null;
+
+        for (int i = 0; i < 100 && memoryBudget.getReservedBytes() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, memoryBudget.getReservedBytes());
+        assertEquals(3072, memoryBudget.getReclaimedBytes());
+        assertTrue(memoryBudget.reservations.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentReservations() throws Exception {
+
+        final MemoryBudget memoryBudget = new MemoryBudget(1000);
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executorService.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int reserved = 0;
+                        for (int j = 0; j < 1000; j++) {
+                            if (memoryBudget.tryReserve(1)) {
+                                reserved++;
+                            }
+                        }
+                        return reserved;
+                    }
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            assertEquals(1000, total);
+            assertEquals(1000, memoryBudget.getReservedBytes());
+        }finally {
+            executorService.shutdownNow();
+        }
+    }
+
+}
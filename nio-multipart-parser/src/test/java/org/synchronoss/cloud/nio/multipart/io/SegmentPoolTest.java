@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p> Unit test for {@link SegmentPool}
+ *
+ * @author Silvano Riz.
+ */
+public class SegmentPoolTest {
+
+    @Test
+    public void testConstructor() {
+        assertNotNull(new SegmentPool(1, 0));
+        assertNotNull(SegmentPool.getSharedPool());
+        assertSame(SegmentPool.getSharedPool(), SegmentPool.getSharedPool());
+        assertEquals(SegmentPool.DEFAULT_SEGMENT_SIZE, SegmentPool.getSharedPool().getSegmentSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidSegmentSize() {
+        new SegmentPool(0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidMaxPooledSegments() {
+        new SegmentPool(10, -1);
+    }
+
+    @Test
+    public void testAcquireRelease() {
+
+        SegmentPool segmentPool = new SegmentPool(8, 2);
+
+        byte[] segment1 = segmentPool.acquire();
+        byte[] segment2 = segmentPool.acquire();
+        byte[] segment3 = segmentPool.acquire();
+        assertEquals(8, segment1.length);
+        assertEquals(0, segmentPool.getPooledSegmentsCount());
+
+        segmentPool.release(segment1);
+        segmentPool.release(segment2);
+        // The pool is full, the segment is discarded
+        segmentPool.release(segment3);
+        assertEquals(2, segmentPool.getPooledSegmentsCount());
+
+        // Segments of a different size are ignored
+        segmentPool.release(new byte[4]);
+        segmentPool.release(null);
+        assertEquals(2, segmentPool.getPooledSegmentsCount());
+
+        byte[] reused = segmentPool.acquire();
+        assertTrue(reused == segment1 || reused == segment2);
+        assertEquals(1, segmentPool.getPooledSegmentsCount());
+
+        segmentPool.clear();
+        assertEquals(0, segmentPool.getPooledSegmentsCount());
+        assertNotSame(reused, segmentPool.acquire());
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.multipart.io.buffer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p> Unit tests for {@link DirectCircularBuffer}
+ *
+ * @author Silvano Riz.
+ */
+public class DirectCircularBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_invalidSize() throws Exception {
+        new DirectCircularBuffer(0);
+    }
+
+    @Test
+    public void testCreate_slab() throws Exception {
+        ByteBuffer slab = ByteBuffer.allocateDirect(30);
+        slab.position(10).limit(20);
+        DirectCircularBuffer buffer = new DirectCircularBuffer(slab.slice());
+        assertEquals(10, buffer.getBufferSize());
+
+        buffer.put(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        assertEquals(1, slab.get(10));
+        assertEquals(3, slab.get(12));
+        assertEquals(0, slab.get(9));
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        final DirectCircularBuffer buffer = new DirectCircularBuffer(4);
+        for (int i = 0; i < 6; i++){
+            buffer.write((byte) i);
+        }
+        assertTrue(buffer.isFull());
+        assertEquals(2, buffer.startValidDataIndex);
+        assertEquals(2, buffer.nextAvailablePosition);
+        assertArrayEquals(new byte[]{2, 3, 4, 5}, readAll(buffer));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testPut() throws Exception {
+        final DirectCircularBuffer buffer = new DirectCircularBuffer(5);
+
+        ByteBuffer src = ByteBuffer.wrap(new byte[]{1, 2, 3});
+        buffer.put(src);
+        assertFalse(src.hasRemaining());
+        assertEquals(3, buffer.getAvailableDataLength());
+
+        // Wraps around and overwrites the oldest byte
+        buffer.put(ByteBuffer.wrap(new byte[]{4, 5, 6}));
+        assertTrue(buffer.isFull());
+        assertEquals(1, buffer.startValidDataIndex);
+        assertArrayEquals(new byte[]{2, 3, 4, 5, 6}, readAll(buffer));
+
+        // More data than the buffer size, only the last bytes are kept
+        buffer.put(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+        assertTrue(buffer.isFull());
+        assertArrayEquals(new byte[]{4, 5, 6, 7, 8}, readAll(buffer));
+    }
+
+    @Test
+    public void testReadChunk() throws Exception {
+        final DirectCircularBuffer buffer = new DirectCircularBuffer(5);
+        buffer.put(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        buffer.readChunk(baos, 3);
+        buffer.put(ByteBuffer.wrap(new byte[]{5, 6, 7}));
+        buffer.readChunk(baos, 2);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, baos.toByteArray());
+        assertEquals(2, buffer.getAvailableDataLength());
+
+        Exception expected = null;
+        try{
+            buffer.readChunk(baos, 3);
+        }catch (Exception e){
+            expected = e;
+        }
+        assertTrue(expected instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testDrainTo() throws Exception {
+        final DirectCircularBuffer buffer = new DirectCircularBuffer(5);
+        buffer.put(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+        buffer.readChunk(new ByteArrayOutputStream(), 2);
+        buffer.put(ByteBuffer.wrap(new byte[]{5, 6}));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertEquals(4, buffer.drainTo(Channels.newChannel(baos)));
+        assertArrayEquals(new byte[]{3, 4, 5, 6}, baos.toByteArray());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testDrainTo_partialWrites() throws Exception {
+        final DirectCircularBuffer buffer = new DirectCircularBuffer(5);
+        buffer.put(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}));
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // A non blocking channel accepting at most 2 bytes per drain
+        WritableByteChannel channel = new WritableByteChannel() {
+            boolean accepted = false;
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                if (accepted) {
+                    accepted = false;
+                    return 0;
+                }
+                accepted = true;
+                int length = Math.min(2, src.remaining());
+                for (int i = 0; i < length; i++) {
+                    baos.write(src.get());
+                }
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        };
+
+        assertEquals(2, buffer.drainTo(channel));
+        assertEquals(3, buffer.getAvailableDataLength());
+        assertEquals(0, buffer.drainTo(channel));
+        assertEquals(2, buffer.drainTo(channel));
+        assertEquals(0, buffer.drainTo(channel));
+        assertEquals(1, buffer.drainTo(channel));
+        assertTrue(buffer.isEmpty());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, baos.toByteArray());
+    }
+
+    static byte[] readAll(final DirectCircularBuffer buffer) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        buffer.readAll(baos);
+        return baos.toByteArray();
+    }
+
+}
@@ -24,6 +24,9 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
@@ -159,11 +162,282 @@ public class EndOfLineBufferTest {
 
 
 
+    @Test
+    public void testWrite_bulk() throws Exception {
+
+        ByteArrayOutputStream flush = new ByteArrayOutputStream();
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(10, new byte[]{0x0D, 0x0A, 0x2D, 0x2D}, flush);
+
+        byte[] data = new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12, 0x0D, 0x0A, 0x2D, 0x2D, 0x13, 0x14};
+        int consumed = endOfLineBuffer.write(data, 0, data.length);
+        assertEquals(16, consumed);
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12}, flush.toByteArray());
+
+        flush.reset();
+        endOfLineBuffer.recycle(new byte[]{0x0D, 0x0A, 0x2D, 0x2D}, flush);
+        consumed = endOfLineBuffer.write(data, 2, 5);
+        assertEquals(5, consumed);
+        assertFalse(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x03, 0x04, 0x05, 0x06, 0x07}, flush.toByteArray());
+
+    }
+
+    @Test
+    public void testWrite_bulk_splitEndOfLine() throws Exception {
+
+        ByteArrayOutputStream flush = new ByteArrayOutputStream();
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(10, new byte[]{0x0D, 0x0A, 0x2D, 0x2D}, flush);
+
+        // The end of line sequence starts in the first write and it's completed by the second one
+        byte[] data = new byte[]{0x01, 0x02, 0x03, 0x0D, 0x0A};
+        assertEquals(5, endOfLineBuffer.write(data, 0, data.length));
+        assertFalse(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, flush.toByteArray());
+
+        data = new byte[]{0x2D, 0x2D, 0x04};
+        assertEquals(2, endOfLineBuffer.write(data, 0, data.length));
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, flush.toByteArray());
+
+    }
+
+    @Test
+    public void testWrite_bulk_sameArray() throws Exception {
+
+        ByteArrayOutputStream flush = new ByteArrayOutputStream();
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(10, new byte[]{0x0D, 0x0A, 0x2D, 0x2D}, flush);
+
+        // The caller keeps writing slices of the same array, the wrapper is reused
+        byte[] data = new byte[]{0x01, 0x02, 0x0D, 0x0A, 0x2D, 0x2D, 0x03};
+        assertEquals(3, endOfLineBuffer.write(data, 0, 3));
+        ByteBuffer wrapper = endOfLineBuffer.wrapper;
+        assertEquals(3, endOfLineBuffer.write(data, 3, 4));
+        assertSame(wrapper, endOfLineBuffer.wrapper);
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01, 0x02}, flush.toByteArray());
+
+        // A different array gets a new wrapper
+        endOfLineBuffer.recycle(new byte[]{0x0D, 0x0A}, flush);
+        data = new byte[]{0x04, 0x0D, 0x0A};
+        assertEquals(3, endOfLineBuffer.write(data, 0, data.length));
+        assertNotSame(wrapper, endOfLineBuffer.wrapper);
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x04}, flush.toByteArray());
+    }
+
+    @Test
+    public void testWrite_bulk_falsePartialEndOfLine() throws Exception {
+
+        ByteArrayOutputStream flush = new ByteArrayOutputStream();
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(10, new byte[]{0x0D, 0x0A, 0x2D, 0x2D}, flush);
+
+        // Looks like the beginning of an end of line sequence, but it's just data
+        byte[] data = new byte[]{0x01, 0x0D, 0x0A, 0x2D};
+        assertEquals(4, endOfLineBuffer.write(data, 0, data.length));
+        assertArrayEquals(new byte[]{0x01}, flush.toByteArray());
+
+        data = new byte[]{0x02, 0x03, 0x04, 0x05, 0x06, 0x0D, 0x0A, 0x2D, 0x2D};
+        assertEquals(9, endOfLineBuffer.write(data, 0, data.length));
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01, 0x0D, 0x0A, 0x2D, 0x02, 0x03, 0x04, 0x05, 0x06}, flush.toByteArray());
+
+    }
+
+    @Test
+    public void testWrite_byteBuffer() throws Exception {
+
+        ByteArrayOutputStream flush = new ByteArrayOutputStream();
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(10, new byte[]{0x0D, 0x0A, 0x2D, 0x2D}, flush);
+
+        ByteBuffer data = ByteBuffer.allocateDirect(5);
+        data.put(new byte[]{0x01, 0x02, 0x03, 0x0D, 0x0A}).flip();
+        assertEquals(5, endOfLineBuffer.write(data));
+        assertFalse(data.hasRemaining());
+        assertFalse(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, flush.toByteArray());
+
+        data = ByteBuffer.allocateDirect(14);
+        data.put(new byte[]{0x2D, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x0D, 0x0A, 0x2D, 0x2D, 0x08, 0x09}).flip();
+        assertEquals(12, endOfLineBuffer.write(data));
+        assertEquals(12, data.position());
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x0D, 0x0A, 0x2D, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07}, flush.toByteArray());
+
+        flush.reset();
+        endOfLineBuffer.recycle(new byte[]{0x0D, 0x0A, 0x2D, 0x2D}, flush);
+        data = ByteBuffer.wrap(new byte[]{0x00, 0x01, 0x0D, 0x0A, 0x2D, 0x2D, 0x00}, 1, 6);
+        assertEquals(5, endOfLineBuffer.write(data));
+        assertEquals(6, data.position());
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x01}, flush.toByteArray());
+
+    }
+
+    @Test
+    public void testWrite_bulk_skip() throws Exception {
+
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(10, new byte[]{0x22, 0x23}, null);// Null output stream will skip the data
+
+        byte[] data = new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x18, 0x19, 0x20, 0x21, 0x22};
+        assertEquals(data.length, endOfLineBuffer.write(data, 0, data.length));
+        assertFalse(endOfLineBuffer.isEndOfLine());
+        assertEquals(1, endOfLineBuffer.write(new byte[]{0x23, 0x24}, 0, 2));
+        assertTrue(endOfLineBuffer.isEndOfLine());
+
+    }
+
+    @Test
+    public void testWrite_bulk_eolReached() throws Exception {
+
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(10, new byte[]{0x0D, 0x0A}, new ByteArrayOutputStream());
+        endOfLineBuffer.write(new byte[]{0x01, 0x0D, 0x0A}, 0, 3);
+        assertTrue(endOfLineBuffer.isEndOfLine());
+
+        Exception expected = null;
+        try{
+            endOfLineBuffer.write(new byte[]{0x01}, 0, 1);
+        }catch (Exception e){
+            expected = e;
+        }
+        assertNotNull(expected);
+        assertTrue(expected instanceof IllegalStateException);
+
+    }
+
     @Test
     public void testReset() throws Exception {
 
     }
 
+    @Test
+    public void testIndexOfEndOfLineSequence_swar() throws Exception {
+
+        final byte[][] sequences = {
+                {0x0D},
+                {0x0D, 0x0A, 0x0D, 0x0A},
+                {0x0D, 0x0A, 0x2D, 0x2D, 0x41, 0x41, 0x41, 0x41},
+                {0x0D, 0x0A, 0x2D, 0x2D, 0x41, 0x41, 0x41, 0x41, 0x41} // Longer than the SWAR limit, uses Horspool
+        };
+        final Random random = new Random(7);
+        for (byte[] sequence : sequences) {
+            final EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(100, sequence, null);
+            for (int run = 0; run < 200; run++) {
+                // Small alphabet so that the first byte of the sequence and partial matches are frequent
+                final byte[] data = new byte[random.nextInt(64)];
+                final byte[] alphabet = {0x0D, 0x0A, 0x2D, 0x41, (byte) 0x8D};
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = alphabet[random.nextInt(alphabet.length)];
+                }
+                final int from = data.length == 0 ? 0 : random.nextInt(data.length);
+                final int expected = naiveIndexOf(data, sequence, from, data.length);
+
+                assertEquals(expected, endOfLineBuffer.indexOfEndOfLineSequence(ByteBuffer.wrap(data), from, data.length));
+
+                final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+                direct.put(data).flip();
+                assertEquals(expected, endOfLineBuffer.indexOfEndOfLineSequence(direct, from, data.length));
+                direct.order(ByteOrder.LITTLE_ENDIAN);
+                assertEquals(expected, endOfLineBuffer.indexOfEndOfLineSequence(direct, from, data.length));
+            }
+        }
+    }
+
+    @Test
+    public void testWrite_selfOverlappingSequence() throws Exception {
+
+        // After "\r\r" a third "\r" still leaves a partial match of two bytes
+        final byte[] sequence = {0x0D, 0x0D, 0x0A};
+        final byte[] data = {0x41, 0x0D, 0x0D, 0x0D, 0x0A, 0x42};
+
+        ByteArrayOutputStream flushed = new ByteArrayOutputStream();
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(10, sequence, flushed);
+        assertEquals(5, writeDataToEndOfLineBuffer(endOfLineBuffer, data));
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x41, 0x0D}, flushed.toByteArray());
+
+        // Same in bulk, with the sequence split across two writes
+        flushed = new ByteArrayOutputStream();
+        endOfLineBuffer.recycle(sequence, flushed);
+        assertEquals(4, endOfLineBuffer.write(data, 0, 4));
+        assertEquals(2, endOfLineBuffer.partialMatchLength(ByteBuffer.wrap(data), 0, 4));
+        assertFalse(endOfLineBuffer.isEndOfLine());
+        assertEquals(1, endOfLineBuffer.write(data, 4, 2));
+        assertTrue(endOfLineBuffer.isEndOfLine());
+        assertArrayEquals(new byte[]{0x41, 0x0D}, flushed.toByteArray());
+    }
+
+    @Test
+    public void testFailureTable() throws Exception {
+        EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(20, new byte[]{0x0D, 0x0A, 0x0D, 0x0A}, null);
+        assertArrayEquals(new int[]{0, 0, 1, 2}, endOfLineBuffer.endOfLineSequenceFailureTable);
+        assertArrayEquals(new int[]{0, 1, 0, 1, 2, 3}, endOfLineBuffer.failureTable("aabaab".getBytes()));
+        // Cached per sequence
+        assertSame(endOfLineBuffer.endOfLineSequenceFailureTable, endOfLineBuffer.failureTable(endOfLineBuffer.endOfLineSequence));
+    }
+
+    @Test
+    public void testWrite_byteByByte_matchesNaiveSearch() throws Exception {
+
+        final byte[][] sequences = {"aab".getBytes(), "abab".getBytes(), "\r\n\r\n".getBytes(), "\r\n--aa\r\n--ab".getBytes()};
+        final byte[] alphabet = "ab\r\n-".getBytes();
+        final Random random = new Random(11);
+        for (byte[] sequence : sequences) {
+            EndOfLineBuffer endOfLineBuffer = new EndOfLineBuffer(50, sequence, null);
+            for (int run = 0; run < 500; run++) {
+                final byte[] data = new byte[random.nextInt(40) + 1];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = alphabet[random.nextInt(alphabet.length)];
+                }
+                final int index = naiveIndexOf(data, sequence, 0, data.length);
+                endOfLineBuffer.recycle(sequence, null);
+                final int written = writeDataToEndOfLineBuffer(endOfLineBuffer, data);
+                if (index == -1) {
+                    assertFalse(endOfLineBuffer.isEndOfLine());
+                    assertEquals(naivePartialMatchLength(data, sequence), endOfLineBuffer.partialMatchLength(ByteBuffer.wrap(data), 0, data.length));
+                } else {
+                    assertTrue(endOfLineBuffer.isEndOfLine());
+                    assertEquals(index + sequence.length, written);
+                }
+            }
+        }
+    }
+
+    static int naivePartialMatchLength(final byte[] data, final byte[] sequence) {
+        for (int length = Math.min(sequence.length - 1, data.length); length > 0; length--) {
+            boolean matches = true;
+            for (int i = 0; i < length && matches; i++) {
+                matches = data[data.length - length + i] == sequence[i];
+            }
+            if (matches) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void testZeroBytes() throws Exception {
+        assertEquals(0, EndOfLineBuffer.zeroBytes(0x0101010101010101L));
+        assertEquals(0x8080808080808080L, EndOfLineBuffer.zeroBytes(0));
+        assertEquals(0x0000800000000080L, EndOfLineBuffer.zeroBytes(0x0101000101010100L));
+        // No false positive on a 0x01 byte following a zero byte
+        assertEquals(0x0000000000000080L, EndOfLineBuffer.zeroBytes(0xFFFFFFFFFFFF0100L));
+    }
+
+    static int naiveIndexOf(final byte[] data, final byte[] sequence, final int from, final int to) {
+        outer:
+        for (int i = from; i + sequence.length <= to; i++) {
+            for (int j = 0; j < sequence.length; j++) {
+                if (data[i + j] != sequence[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
     static int writeDataToEndOfLineBuffer(final EndOfLineBuffer circularBuffer, final byte[] data){
         boolean eol;
         int i = 0;
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.util;
+
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p> Unit test for {@link Base64DecodingOutputStream}
+ *
+ * @author Silvano Riz.
+ */
+public class Base64DecodingOutputStreamTest {
+
+    @Test
+    public void testDecode() throws IOException {
+        assertDecoded("", "");
+        assertDecoded("f", "Zg==");
+        assertDecoded("fo", "Zm8=");
+        assertDecoded("foo", "Zm9v");
+        assertDecoded("foobar", "Zm9vYmFy");
+        assertDecoded("foobar", "Zm9v\r\nYmFy\r\n");
+        assertDecoded("Hello WorldHello World", "SGVsbG8gV29ybGQ=SGVsbG8gV29ybGQ=");
+    }
+
+    @Test
+    public void testDecode_splitWrites() throws IOException {
+
+        final byte[] encoded = "SGVsbG8g\r\nV29ybGQ=".getBytes("US-ASCII");
+        // Every possible split in two writes
+        for (int split = 0; split <= encoded.length; split++) {
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            Base64DecodingOutputStream decodingOutputStream = new Base64DecodingOutputStream(decoded);
+            decodingOutputStream.write(encoded, 0, split);
+            decodingOutputStream.write(encoded, split, encoded.length - split);
+            decodingOutputStream.close();
+            assertEquals("Hello World", decoded.toString("US-ASCII"));
+        }
+
+        // Byte by byte
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        Base64DecodingOutputStream decodingOutputStream = new Base64DecodingOutputStream(decoded);
+        for (byte b : encoded) {
+            decodingOutputStream.write(b);
+        }
+        decodingOutputStream.finish();
+        assertEquals("Hello World", decoded.toString("US-ASCII"));
+    }
+
+    @Test
+    public void testDecode_large() throws IOException {
+
+        final byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        final byte[] encoded = BaseEncoding.base64().withSeparator("\r\n", 76).encode(data).getBytes("US-ASCII");
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        Base64DecodingOutputStream decodingOutputStream = new Base64DecodingOutputStream(decoded);
+        decodingOutputStream.write(encoded);
+        decodingOutputStream.close();
+        assertArrayEquals(data, decoded.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_truncated() throws IOException {
+        Base64DecodingOutputStream decodingOutputStream = new Base64DecodingOutputStream(new ByteArrayOutputStream());
+        decodingOutputStream.write("Zm9vY".getBytes("US-ASCII"));
+        decodingOutputStream.finish();
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_badPadding() throws IOException {
+        Base64DecodingOutputStream decodingOutputStream = new Base64DecodingOutputStream(new ByteArrayOutputStream());
+        decodingOutputStream.write("Zg=a".getBytes("US-ASCII"));
+    }
+
+    static void assertDecoded(final String expected, final String encoded) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        Base64DecodingOutputStream decodingOutputStream = new Base64DecodingOutputStream(decoded);
+        decodingOutputStream.write(encoded.getBytes("US-ASCII"));
+        decodingOutputStream.close();
+        assertEquals(expected, decoded.toString("US-ASCII"));
+    }
+
+}
@@ -20,6 +20,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -112,4 +113,48 @@ public class HeadersParserTest {
         assertEquals(singletonList("headerValueB"), headers.get("headerNameB".toLowerCase()));
 
     }
+
+    @Test
+    public void testParseHeaders_bytes() throws Exception {
+        byte[] headersSection = "xxxContent-Type: text/plain\r\nCONTENT-DISPOSITION : form-data; name=\"a\"\r\nheaderNameB: headerValueB\r\n\tpart of b\r\nheaderNameB:\r\n\r\nmore stuff here".getBytes(CHARACTER_SET);
+        Map<String, List<String>> headers = HeadersParser.parseHeaders(headersSection, 3, headersSection.length - 3, CHARACTER_SET);
+        assertNotNull(headers);
+        assertEquals(3, headers.size());
+        assertEquals(singletonList("text/plain"), headers.get("content-type"));
+        assertEquals(singletonList("form-data; name=\"a\""), headers.get("content-disposition"));
+        assertEquals(2, headers.get("headernameb").size());
+        assertEquals("headerValueB part of b", headers.get("headernameb").get(0));
+        assertEquals("", headers.get("headernameb").get(1));
+
+        // Well known header names are not allocated
+        for (String name : headers.keySet()) {
+            if (name.startsWith("content")) {
+                assertTrue(Arrays.asList(HeadersParser.KNOWN_HEADER_NAMES).contains(name));
+                assertSame(HeadersParser.KNOWN_HEADER_NAMES[Arrays.asList(HeadersParser.KNOWN_HEADER_NAMES).indexOf(name)], name);
+            }
+        }
+    }
+
+    @Test
+    public void testParseHeaders_bytesSameAsInputStream() throws Exception {
+        String[] sections = {
+                "headerNameA: headerValueA\r\nheaderNameB: headerValueB\r\n   part of b",
+                "headerNameA: headerValueA\r\nheaderNameB: headerValueB\r\n\t\t\tpart of b",
+                "headerNameA: headerValueA\r\nheaderNameB: headerValueB\r\n\r\nmore stuff here",
+                "headerNameA: headerValueA\r\nheaderNameB: headerValueB\r\n\r\r\nmore stuff here",
+                "headerNameA: headerValueA\r\nheaderNameB: headerValueB\r\n    \r\nmore stuff here",
+                "\r\nheaderNameA: headerValueA",
+                ""
+        };
+        for (String section : sections) {
+            byte[] data = section.getBytes(CHARACTER_SET);
+            assertEquals(HeadersParser.parseHeaders(new ByteArrayInputStream(data), CHARACTER_SET), HeadersParser.parseHeaders(data, 0, data.length, CHARACTER_SET));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParseHeaders_bytesMalformed() throws Exception {
+        byte[] headersSection = "headerNameA: headerValueA\r\nheaderNameB headerValueB\r\n\r\nmore stuff here".getBytes(CHARACTER_SET);
+        HeadersParser.parseHeaders(headersSection, 0, headersSection.length, CHARACTER_SET);
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.multipart.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p> Unit test for {@link QuotedPrintableDecodingOutputStream}
+ *
+ * @author Silvano Riz.
+ */
+public class QuotedPrintableDecodingOutputStreamTest {
+
+    @Test
+    public void testDecode() throws IOException {
+        assertDecoded("", "");
+        assertDecoded("abc_def", "abc_def");
+        assertDecoded("café", "caf=C3=A9");
+        assertDecoded("a long line", "a lo=\r\nng line");
+        assertDecoded("a long line", "a lo=\nng line");
+        assertDecoded("line1\r\nline2", "line1\r\nline2");
+    }
+
+    @Test
+    public void testDecode_splitWrites() throws IOException {
+
+        final byte[] encoded = "caf=C3=A9 au l=\r\nait".getBytes("US-ASCII");
+        for (int split = 0; split <= encoded.length; split++) {
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            QuotedPrintableDecodingOutputStream decodingOutputStream = new QuotedPrintableDecodingOutputStream(decoded);
+            decodingOutputStream.write(encoded, 0, split);
+            decodingOutputStream.write(encoded, split, encoded.length - split);
+            decodingOutputStream.close();
+            assertEquals("café au lait", decoded.toString("UTF-8"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_truncated() throws IOException {
+        QuotedPrintableDecodingOutputStream decodingOutputStream = new QuotedPrintableDecodingOutputStream(new ByteArrayOutputStream());
+        decodingOutputStream.write("abc=A".getBytes("US-ASCII"));
+        decodingOutputStream.finish();
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_invalidHex() throws IOException {
+        QuotedPrintableDecodingOutputStream decodingOutputStream = new QuotedPrintableDecodingOutputStream(new ByteArrayOutputStream());
+        decodingOutputStream.write("abc=ZZ".getBytes("US-ASCII"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_invalidSoftLineBreak() throws IOException {
+        QuotedPrintableDecodingOutputStream decodingOutputStream = new QuotedPrintableDecodingOutputStream(new ByteArrayOutputStream());
+        decodingOutputStream.write("abc=\rx".getBytes("US-ASCII"));
+    }
+
+    static void assertDecoded(final String expected, final String encoded) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        QuotedPrintableDecodingOutputStream decodingOutputStream = new QuotedPrintableDecodingOutputStream(decoded);
+        decodingOutputStream.write(encoded.getBytes("US-ASCII"));
+        decodingOutputStream.close();
+        assertEquals(expected, decoded.toString("UTF-8"));
+    }
+
+}